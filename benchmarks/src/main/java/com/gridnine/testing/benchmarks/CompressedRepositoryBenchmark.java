@@ -0,0 +1,99 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.db.CompressedFlightsRepository;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.utils.FlightBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of filtering a schedule ordered by departure, kept as <code>Flight</code> objects or in a
+ * <code>{@link CompressedFlightsRepository}</code>. Only the benchmarked storage is kept in the heap, and the setup
+ * prints the heap it retains per segment.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class CompressedRepositoryBenchmark {
+    @Param({"1000000"})
+    public int flightCount;
+
+    @Param({"ARRIVAL", "IDLE", "ALL"})
+    public FlightsFilterBenchmark.Shape shape;
+
+    @Param({"OBJECTS", "COMPRESSED"})
+    public Storage storage;
+
+    public enum Storage {
+        OBJECTS, COMPRESSED
+    }
+
+    private DataBaseInterface<Flight> db;
+    private FlightsFilter flightsFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long heapBefore = getUsedHeap();
+        db = createDb();
+        long retainedBytes = getUsedHeap() - heapBefore;
+        long segmentCount = db.getAll().stream().mapToLong(flight -> flight.getSegments().size()).sum();
+        System.out.printf("%n%s: %d segments, %.1f bytes/segment retained%n", storage, segmentCount, (double) retainedBytes / segmentCount);
+        flightsFilter = shape.build();
+    }
+
+    /**
+     * @return data base of the storage, the flight objects are not reachable from a compressed repository
+     */
+    private DataBaseInterface<Flight> createDb() {
+        List<Flight> flightList = FlightBuilder.createFlights(FlightsFilterBenchmark.START_TIME, flightCount, 3, FlightsFilterBenchmark.SEED);
+        flightList.sort(Comparator.comparing(flight -> flight.getSegments().get(0).getDepartureDate()));
+        if (storage == Storage.COMPRESSED)
+            return new CompressedFlightsRepository(flightList);
+        return () -> flightList;
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public List<Flight> filter() {
+        return flightsFilter.filter(db);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CompressedRepositoryBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,71 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.filter.EpochKernels;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.FlightTable;
+import com.gridnine.testing.utils.FlightBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of <code>{@link FlightsFilter#filterIndices(com.gridnine.testing.interfaces.FlightColumns)}</code> over a
+ * <code>FlightTable</code> with the scalar and the vectorized comparison kernel.
+ * The forked JVM is started with <code>--add-modules jdk.incubator.vector</code>, so both kernels are available.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules=jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class EpochKernelBenchmark {
+    @Param({"100000", "1000000"})
+    public int flightCount;
+
+    @Param({"ARRIVAL", "IDLE", "INVALID", "ALL"})
+    public FlightsFilterBenchmark.Shape shape;
+
+    @Param({"SCALAR", "VECTOR"})
+    public String kernel;
+
+    private FlightTable flightTable;
+    private FlightsFilter flightsFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        flightTable = FlightTable.of(FlightBuilder.createFlights(FlightsFilterBenchmark.START_TIME, flightCount, 3, FlightsFilterBenchmark.SEED));
+        flightsFilter = shape.build();
+        if (kernel.equals("SCALAR"))
+            flightsFilter = flightsFilter.withKernel(EpochKernels.scalar());
+        else if (!EpochKernels.isVectorized())
+            throw new IllegalStateException("Vector API is not available");
+    }
+
+    @Benchmark
+    public int[] filterIndices() {
+        return flightsFilter.filterIndices(flightTable);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(EpochKernelBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,108 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.db.FlightTimeIndex;
+import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.models.FlightTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of answering a one hour arrival window from a <code>{@link FlightTimeIndex}</code> over a year of
+ * flights. The columns are generated directly, without <code>Flight</code> objects, so the index of 50 million
+ * segments fits into the heap. The long flights span the whole year, as e.g. a wrongly entered arrival date does.
+ * The flights of the table are ordered by departure, as in a schedule, or randomly; the order decides how scattered
+ * the candidate bits are.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FlightTimeIndexBenchmark {
+    private static final int SEGMENTS_PER_FLIGHT = 3;
+    private static final long YEAR_SECONDS = Duration.ofDays(365).toSeconds();
+
+    @Param({"50000000"})
+    public int segmentCount;
+
+    @Param({"0", "1"})
+    public int longFlightCount;
+
+    @Param({"DEPARTURE", "RANDOM"})
+    public String order;
+
+    private FlightTimeIndex timeIndex;
+    private long windowStart;
+    private long windowEnd;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int flightCount = segmentCount / SEGMENTS_PER_FLIGHT;
+        int[] segmentOffsets = new int[flightCount + 1];
+        long[] departureEpochs = new long[flightCount * SEGMENTS_PER_FLIGHT];
+        long[] arrivalEpochs = new long[departureEpochs.length];
+        long startEpoch = FlightsFilterBenchmark.START_TIME.toEpochSecond(ZoneOffset.UTC);
+        Random random = new Random(FlightsFilterBenchmark.SEED);
+        long[] flightDepartures = new long[flightCount];
+        for (int flight = 0; flight < flightCount; flight++) {
+            flightDepartures[flight] = startEpoch + (long) (random.nextDouble() * YEAR_SECONDS);
+        }
+        if (order.equals("DEPARTURE"))
+            Arrays.sort(flightDepartures);
+        int segment = 0;
+        for (int flight = 0; flight < flightCount; flight++) {
+            long departure = flightDepartures[flight];
+            for (int i = 0; i < SEGMENTS_PER_FLIGHT; i++) {
+                departureEpochs[segment] = departure;
+                arrivalEpochs[segment] = departure + Duration.ofMinutes(60 + random.nextInt(300)).toSeconds();
+                departure = arrivalEpochs[segment++] + Duration.ofMinutes(30 + random.nextInt(270)).toSeconds();
+            }
+            segmentOffsets[flight + 1] = segment;
+        }
+        for (int flight = 0; flight < longFlightCount; flight++) {
+            arrivalEpochs[segmentOffsets[flight + 1] - 1] = startEpoch + YEAR_SECONDS;
+        }
+        timeIndex = new FlightTimeIndex(new FlightTable(segmentOffsets, departureEpochs, arrivalEpochs));
+        windowStart = startEpoch + YEAR_SECONDS / 2;
+        windowEnd = windowStart + Duration.ofHours(1).toSeconds();
+    }
+
+    @Benchmark
+    public long countCandidates() {
+        return timeIndex.countCandidates(FlightFilterType.ARRIVAL, windowStart, windowEnd);
+    }
+
+    @Benchmark
+    public BitSet getCandidates() {
+        return timeIndex.getCandidates(FlightFilterType.ARRIVAL, windowStart, windowEnd);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FlightTimeIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,110 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.enums.ExecutionMode;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.utils.FlightBuilder;
+import com.gridnine.testing.utils.FlightsFilterBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of <code>{@link FlightsFilter#filter(List)}</code> for every filter target and their combinations,
+ * sequential, parallel and adaptive execution, and input sizes from 10 to 10M flights with up to 1, 3 or 6 segments.
+ * <p>
+ * Run all benchmarks with the GC profiler: <code>java -jar target/benchmarks.jar -prof gc</code>,
+ * or narrow the parameters: <code>java -jar target/benchmarks.jar -p flightCount=100000 -p mode=PARALLEL</code>.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+@State(Scope.Benchmark)
+public class FlightsFilterBenchmark {
+    static final LocalDateTime START_TIME = LocalDateTime.of(2024, 1, 1, 0, 0);
+    static final long SEED = 42;
+
+    /**
+     * Filter targets and their combinations.
+     */
+    public enum Shape {
+        ARRIVAL, DEPARTURE, IDLE, INVALID, AGGREGATE, ARRIVAL_DEPARTURE, ALL;
+
+        FlightsFilter build() {
+            long startEpoch = START_TIME.toEpochSecond(ZoneOffset.UTC);
+            long day = Duration.ofDays(1).toSeconds();
+            FlightsFilterBuilder builder = new FlightsFilterBuilder();
+            if (this == ARRIVAL || this == ARRIVAL_DEPARTURE || this == ALL)
+                builder.arrival().gte(startEpoch + 10 * day).lt(startEpoch + 20 * day);
+            if (this == DEPARTURE || this == ARRIVAL_DEPARTURE || this == ALL)
+                builder.departure().gte(startEpoch + 5 * day);
+            if (this == IDLE || this == ALL)
+                builder.idle().gt(Duration.ofHours(2).toSeconds());
+            if (this == AGGREGATE)
+                builder.maxIdle().lt(Duration.ofHours(3).toSeconds()).duration().lte(Duration.ofHours(12).toSeconds());
+            if (this == INVALID || this == ALL)
+                builder.removeInvalidFlights();
+            return builder.build();
+        }
+    }
+
+    @Param({"10", "1000", "100000", "1000000", "10000000"})
+    public int flightCount;
+
+    @Param({"1", "3", "6"})
+    public int maxSegmentCount;
+
+    @Param({"ARRIVAL", "DEPARTURE", "IDLE", "INVALID", "AGGREGATE", "ARRIVAL_DEPARTURE", "ALL"})
+    public Shape shape;
+
+    @Param({"SEQUENTIAL", "PARALLEL", "ADAPTIVE"})
+    public ExecutionMode mode;
+
+    private List<Flight> flightList;
+    private FlightsFilter flightsFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        flightList = FlightBuilder.createFlights(START_TIME, flightCount, maxSegmentCount, SEED);
+        flightsFilter = shape.build();
+        if (mode == ExecutionMode.PARALLEL)
+            flightsFilter = flightsFilter.doParallel();
+        else if (mode == ExecutionMode.ADAPTIVE)
+            flightsFilter = flightsFilter.doAdaptive();
+    }
+
+    @Benchmark
+    public List<Flight> filter() {
+        return flightsFilter.filter(flightList);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(FlightsFilterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
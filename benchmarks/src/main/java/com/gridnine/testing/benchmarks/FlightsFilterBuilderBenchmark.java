@@ -0,0 +1,36 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.filter.FlightsFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of building and compiling a <code>{@link FlightsFilter}</code> for every filter shape.
+ * <p>
+ * Run with the GC profiler: <code>java -jar target/benchmarks.jar FlightsFilterBuilderBenchmark -prof gc</code>.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlightsFilterBuilderBenchmark {
+    @Param({"ARRIVAL", "DEPARTURE", "IDLE", "INVALID", "ARRIVAL_DEPARTURE", "ALL"})
+    public FlightsFilterBenchmark.Shape shape;
+
+    @Benchmark
+    public FlightsFilter build() {
+        return shape.build();
+    }
+}
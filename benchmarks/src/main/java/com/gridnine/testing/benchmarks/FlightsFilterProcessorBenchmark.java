@@ -0,0 +1,78 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.filter.FlightsFilterProcessor;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.utils.FlightBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of the reactive filtering stage <code>{@link FlightsFilterProcessor}</code>, in flights per second,
+ * from an upstream publisher through the filter to a counting subscriber.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class FlightsFilterProcessorBenchmark {
+    private static final int FLIGHT_COUNT = 1_000_000;
+
+    @Param({"ALL"})
+    public FlightsFilterBenchmark.Shape shape;
+
+    @Param({"256", "4096"})
+    public int batchSize;
+
+    private List<Flight> flightList;
+    private ExecutorService executorService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        flightList = FlightBuilder.createFlights(FlightsFilterBenchmark.START_TIME, FLIGHT_COUNT, 3, FlightsFilterBenchmark.SEED);
+        executorService = Executors.newFixedThreadPool(2);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executorService.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FLIGHT_COUNT)
+    public long process() throws Exception {
+        LongAdder receivedFlights = new LongAdder();
+        try (SubmissionPublisher<Flight> source = new SubmissionPublisher<>(executorService, batchSize)) {
+            FlightsFilterProcessor processor = new FlightsFilterProcessor(shape.build(), executorService, batchSize, batchSize);
+            source.subscribe(processor);
+            CompletableFuture<Void> completion = processor.consume(flight -> receivedFlights.increment());
+            for (Flight flight : flightList) {
+                source.submit(flight);
+            }
+            source.close();
+            completion.get();
+        }
+        return receivedFlights.sum();
+    }
+}
@@ -0,0 +1,81 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.enums.ExecutionMode;
+import com.gridnine.testing.enums.FlightOrdering;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.utils.FlightBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Benchmarks of the first page of 50 flights sorted by a <code>{@link FlightOrdering}</code>:
+ * <code>{@link FlightsFilter#filter(List, int, int, FlightOrdering)}</code> against filtering and sorting the whole
+ * result.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class PagedFilterBenchmark {
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"100000", "1000000"})
+    public int flightCount;
+
+    @Param({"INPUT", "DEPARTURE", "TOTAL_GROUND_TIME"})
+    public FlightOrdering ordering;
+
+    @Param({"SEQUENTIAL", "PARALLEL"})
+    public ExecutionMode mode;
+
+    private List<Flight> flightList;
+    private FlightsFilter flightsFilter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        flightList = FlightBuilder.createFlights(FlightsFilterBenchmark.START_TIME, flightCount, 3, FlightsFilterBenchmark.SEED);
+        flightsFilter = FlightsFilterBenchmark.Shape.ALL.build();
+    }
+
+    @Benchmark
+    public List<Flight> page() {
+        return flightsFilter.filter(flightList, PAGE_SIZE, 0, ordering, mode);
+    }
+
+    @Benchmark
+    public List<Flight> filterAndSort() {
+        return flightsFilter.filter(flightList, mode).stream()
+                .sorted(Comparator.comparingLong(flight -> ordering.getKey(flight.getSummary())))
+                .limit(PAGE_SIZE)
+                .collect(Collectors.toList());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PagedFilterBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
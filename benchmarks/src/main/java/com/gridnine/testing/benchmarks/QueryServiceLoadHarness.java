@@ -0,0 +1,129 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.db.FlightQueryService;
+import com.gridnine.testing.db.QueryCache;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.filter.LatencyHistogram;
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.utils.FlightBuilder;
+import com.gridnine.testing.utils.FlightsFilterBuilder;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loopback load test of <code>{@link FlightQueryService}</code>: concurrent callers, each on its own task of
+ * <code>{@link FlightQueryService#newRequestExecutor()}</code> (a virtual thread on Java 21 and later), query the same
+ * flights with a small set of distinct filters while the data version changes periodically, so the queries are
+ * coalesced instead of answered from the cache. By default the service serves the results of the previous version
+ * while the queries are executed again. Prints the Java version, the caller executor, the throughput, latency
+ * percentiles and service counters.
+ * <p>
+ * Not a JMH benchmark, run it on Java 21 or later, so the callers are virtual threads, with
+ * <code>java -cp target/benchmarks.jar com.gridnine.testing.benchmarks.QueryServiceLoadHarness [callers]
+ * [requestsPerCaller] [flightCount] [distinctFilters] [versionPeriodMillis] [serveStaleResults]</code>.
+ */
+public class QueryServiceLoadHarness {
+    private static final int WARMUP_ROUNDS = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        int callerCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int requestsPerCaller = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int flightCount = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int filterCount = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        long versionPeriodMillis = args.length > 4 ? Long.parseLong(args[4]) : 1000;
+        boolean serveStaleResults = args.length <= 5 || Boolean.parseBoolean(args[5]);
+
+        List<Flight> flights = FlightBuilder.createFlights(FlightsFilterBenchmark.START_TIME, flightCount, 3, FlightsFilterBenchmark.SEED);
+        AtomicLong version = new AtomicLong();
+        DataBaseInterface<Flight> db = new DataBaseInterface<>() {
+            @Override
+            public List<Flight> getAll() {
+                return flights;
+            }
+
+            @Override
+            public long getVersion() {
+                return version.get();
+            }
+        };
+        List<FlightsFilter> flightsFilters = createFilters(filterCount);
+        ScheduledExecutorService updates = Executors.newSingleThreadScheduledExecutor();
+
+        LatencyHistogram latencies = new LatencyHistogram();
+        LongAdder rejections = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(callerCount);
+        ExecutorService callers = FlightQueryService.newRequestExecutor();
+        try (FlightQueryService service = new FlightQueryService(db, new QueryCache(), Runtime.getRuntime().availableProcessors(), FlightQueryService.DEFAULT_MAX_PENDING_QUERIES, serveStaleResults)) {
+            // the filters are compiled and their results cached before the measurement, so it shows the steady state
+            // with version changes instead of the cold start
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                flightsFilters.forEach(flightsFilter -> flightsFilter.filter(db));
+            }
+            flightsFilters.forEach(service::query);
+            updates.scheduleAtFixedRate(version::incrementAndGet, versionPeriodMillis, versionPeriodMillis, TimeUnit.MILLISECONDS);
+            for (int caller = 0; caller < callerCount; caller++) {
+                Random random = new Random(caller);
+                callers.execute(() -> {
+                    try {
+                        start.await();
+                        for (int request = 0; request < requestsPerCaller; request++) {
+                            FlightsFilter flightsFilter = flightsFilters.get(random.nextInt(flightsFilters.size()));
+                            long startNanos = System.nanoTime();
+                            try {
+                                service.query(flightsFilter);
+                                latencies.record(System.nanoTime() - startNanos);
+                            } catch (CompletionException e) {
+                                rejections.increment();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            long startNanos = System.nanoTime();
+            start.countDown();
+            done.await();
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            System.out.printf("java=%s callers=%s%n", Runtime.version(), callers.getClass().getSimpleName());
+            System.out.printf("callers=%d requests=%d flights=%d filters=%d version period=%d ms stale results=%b%n",
+                    callerCount, (long) callerCount * requestsPerCaller, flightCount, filterCount, versionPeriodMillis, serveStaleResults);
+            System.out.printf("throughput=%.0f requests/s, latency p50=%.3f ms p99=%.3f ms max=%.3f ms, rejected=%d%n",
+                    latencies.getCount() / seconds, latencies.getValueAtPercentile(50) / 1e6,
+                    latencies.getValueAtPercentile(99) / 1e6, latencies.getMax() / 1e6, rejections.sum());
+            System.out.println(service);
+        } finally {
+            callers.shutdown();
+            updates.shutdown();
+        }
+    }
+
+    private static List<FlightsFilter> createFilters(int filterCount) {
+        long startEpoch = FlightsFilterBenchmark.START_TIME.toEpochSecond(ZoneOffset.UTC);
+        long day = Duration.ofDays(1).toSeconds();
+        List<FlightsFilter> flightsFilters = new ArrayList<>();
+        for (int i = 0; i < filterCount; i++) {
+            FlightsFilterBuilder builder = new FlightsFilterBuilder().departure().gte(startEpoch + i * day).lt(startEpoch + (i + 3) * day);
+            if (i % 2 == 1)
+                builder.idle().gt(Duration.ofHours(1 + i % 4).toSeconds());
+            flightsFilters.add(builder.build());
+        }
+        return flightsFilters;
+    }
+}
@@ -0,0 +1,89 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightTable;
+import com.gridnine.testing.utils.FlightBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of filtering into reusable output buffers against <code>{@link FlightsFilter#filter(List)}</code>, which
+ * allocates the result list. With <code>-prof gc</code>, the buffer benchmarks should report about 0 B/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ReusableBufferBenchmark {
+    @Param({"1000", "100000"})
+    public int flightCount;
+
+    @Param({"ARRIVAL", "IDLE", "ALL"})
+    public FlightsFilterBenchmark.Shape shape;
+
+    private List<Flight> flightList;
+    private FlightTable flightTable;
+    private FlightsFilter flightsFilter;
+    private List<Flight> flightBuffer;
+    private int[] indexBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        flightList = FlightBuilder.createFlights(FlightsFilterBenchmark.START_TIME, flightCount, 3, FlightsFilterBenchmark.SEED);
+        flightTable = FlightTable.of(flightList);
+        flightsFilter = shape.build();
+        flightBuffer = new ArrayList<>(flightCount);
+        indexBuffer = new int[flightCount];
+    }
+
+    @Benchmark
+    public List<Flight> filter() {
+        return flightsFilter.filter(flightList);
+    }
+
+    @Benchmark
+    public int filterIntoList() {
+        flightBuffer.clear();
+        return flightsFilter.filterInto(flightList, flightBuffer);
+    }
+
+    @Benchmark
+    public int filterIndicesIntoArray() {
+        return flightsFilter.filterIndices(flightList, indexBuffer);
+    }
+
+    @Benchmark
+    public int filterTableIntoArray() {
+        return flightsFilter.filterIndices(flightTable, 0, flightCount, indexBuffer);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ReusableBufferBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
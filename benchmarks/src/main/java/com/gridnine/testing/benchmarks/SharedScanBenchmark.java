@@ -0,0 +1,93 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.enums.ExecutionMode;
+import com.gridnine.testing.filter.FilterBatch;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.utils.FlightBuilder;
+import com.gridnine.testing.utils.FlightsFilterBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of <code>{@link FilterBatch}</code> against filtering the same flights with every filter separately.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SharedScanBenchmark {
+    @Param({"100000", "1000000"})
+    public int flightCount;
+
+    @Param({"8", "32"})
+    public int filterCount;
+
+    @Param({"SEQUENTIAL", "PARALLEL"})
+    public ExecutionMode mode;
+
+    private List<Flight> flightList;
+    private List<FlightsFilter> flightsFilters;
+    private FilterBatch filterBatch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        flightList = FlightBuilder.createFlights(FlightsFilterBenchmark.START_TIME, flightCount, 3, FlightsFilterBenchmark.SEED);
+        long startEpoch = FlightsFilterBenchmark.START_TIME.toEpochSecond(ZoneOffset.UTC);
+        long day = Duration.ofDays(1).toSeconds();
+        flightsFilters = new ArrayList<>();
+        for (int i = 0; i < filterCount; i++) {
+            // distinct departure windows, every other filter also limits the ground time
+            FlightsFilterBuilder builder = new FlightsFilterBuilder().departure().gte(startEpoch + i * day).lt(startEpoch + (i + 7) * day);
+            if (i % 2 == 1)
+                builder.idle().gt(Duration.ofHours(1 + i % 4).toSeconds());
+            flightsFilters.add(builder.build());
+        }
+        filterBatch = new FilterBatch(flightsFilters);
+    }
+
+    @Benchmark
+    public List<List<Flight>> separateScans() {
+        List<List<Flight>> results = new ArrayList<>(flightsFilters.size());
+        for (FlightsFilter flightsFilter : flightsFilters) {
+            results.add(flightsFilter.filter(flightList, mode));
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<List<Flight>> sharedScan() {
+        return filterBatch.filter(flightList, mode);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SharedScanBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,78 @@
+package com.gridnine.testing.benchmarks;
+
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.utils.FlightBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the interpreted predicate against the predicate specialized by
+ * <code>{@link FlightsFilter#specialize()}</code>. Both filter the same flights into a reused list, so the difference
+ * is the cost of checking the conditions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class SpecializedPredicateBenchmark {
+    @Param({"100000"})
+    public int flightCount;
+
+    @Param({"ARRIVAL_DEPARTURE", "IDLE", "AGGREGATE", "ALL"})
+    public FlightsFilterBenchmark.Shape shape;
+
+    private List<Flight> flightList;
+    private FlightsFilter interpretedFilter;
+    private FlightsFilter specializedFilter;
+    private List<Flight> flightBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        flightList = FlightBuilder.createFlights(FlightsFilterBenchmark.START_TIME, flightCount, 3, FlightsFilterBenchmark.SEED);
+        interpretedFilter = shape.build();
+        specializedFilter = interpretedFilter.specialize();
+        if (!specializedFilter.isSpecialized())
+            throw new IllegalStateException("Specialized predicates are not supported by this JVM");
+        flightBuffer = new ArrayList<>(flightCount);
+    }
+
+    @Benchmark
+    public int interpreted() {
+        flightBuffer.clear();
+        return interpretedFilter.filterInto(flightList, flightBuffer);
+    }
+
+    @Benchmark
+    public int specialized() {
+        flightBuffer.clear();
+        return specializedFilter.filterInto(flightList, flightBuffer);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SpecializedPredicateBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,89 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.enums.FilterOperator;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Implementation of <code>{@link EpochKernel}</code> on the Vector API (<code>jdk.incubator.vector</code>).
+ * Compares as many elements per instruction as the preferred vector shape of the CPU holds, e.g. four with AVX2 and
+ * eight with AVX-512, and stores the lane masks directly into the result. The lane count divides 64, so the lanes of
+ * one comparison never span two words of the mask.
+ * <p>
+ * The class is kept in the separate source root <code>src-vector</code> and compiled with
+ * <code>--add-modules jdk.incubator.vector</code>, so the other sources build on any JDK 17. It is loaded reflectively
+ * by <code>{@link EpochKernels}</code> through <code>{@link #create()}</code>, only if it is on the class path and the
+ * module is available.
+ */
+final class VectorEpochKernel implements EpochKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private VectorEpochKernel() {
+    }
+
+    /**
+     * @return vectorized kernel, or null if the preferred vector shape of the CPU does not divide a mask word
+     */
+    static EpochKernel create() {
+        return 64 % SPECIES.length() == 0 ? new VectorEpochKernel() : null;
+    }
+
+    @Override
+    public void compare(FilterOperator operator, long[] values, int from, int to, long operand, long[] mask) {
+        // the comparison must be a constant for the JIT compiler to intrinsify it, hence one loop per operator
+        Arrays.fill(mask, 0, (to - from + 63) >>> 6, 0);
+        int vectorEnd = from + SPECIES.loopBound(to - from);
+        switch (operator) {
+            case EQ:
+                for (int i = from; i < vectorEnd; i += SPECIES.length()) {
+                    mask[(i - from) >>> 6] |= LongVector.fromArray(SPECIES, values, i).compare(VectorOperators.EQ, operand).toLong() << (i - from);
+                }
+                break;
+            case GTE:
+                for (int i = from; i < vectorEnd; i += SPECIES.length()) {
+                    mask[(i - from) >>> 6] |= LongVector.fromArray(SPECIES, values, i).compare(VectorOperators.GE, operand).toLong() << (i - from);
+                }
+                break;
+            case GT:
+                for (int i = from; i < vectorEnd; i += SPECIES.length()) {
+                    mask[(i - from) >>> 6] |= LongVector.fromArray(SPECIES, values, i).compare(VectorOperators.GT, operand).toLong() << (i - from);
+                }
+                break;
+            case LT:
+                for (int i = from; i < vectorEnd; i += SPECIES.length()) {
+                    mask[(i - from) >>> 6] |= LongVector.fromArray(SPECIES, values, i).compare(VectorOperators.LT, operand).toLong() << (i - from);
+                }
+                break;
+            case LTE:
+                for (int i = from; i < vectorEnd; i += SPECIES.length()) {
+                    mask[(i - from) >>> 6] |= LongVector.fromArray(SPECIES, values, i).compare(VectorOperators.LE, operand).toLong() << (i - from);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("VectorEpochKernel: unknown operator " + operator);
+        }
+        for (int i = vectorEnd; i < to; i++) {
+            if (operator.test(values[i], operand))
+                mask[(i - from) >>> 6] |= 1L << (i - from);
+        }
+    }
+
+    @Override
+    public void lessThan(long[] left, long[] right, int from, int to, long[] mask) {
+        Arrays.fill(mask, 0, (to - from + 63) >>> 6, 0);
+        int vectorEnd = from + SPECIES.loopBound(to - from);
+        int i = from;
+        for (; i < vectorEnd; i += SPECIES.length()) {
+            LongVector leftVector = LongVector.fromArray(SPECIES, left, i);
+            long lanes = leftVector.compare(VectorOperators.LT, LongVector.fromArray(SPECIES, right, i)).toLong();
+            mask[(i - from) >>> 6] |= lanes << (i - from);
+        }
+        for (; i < to; i++) {
+            if (left[i] < right[i])
+                mask[(i - from) >>> 6] |= 1L << (i - from);
+        }
+    }
+}
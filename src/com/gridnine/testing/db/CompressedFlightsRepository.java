@@ -0,0 +1,716 @@
+package com.gridnine.testing.db;
+
+import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.filter.ScanBuffers;
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.interfaces.Filter;
+import com.gridnine.testing.interfaces.FlightColumns;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightSummary;
+import com.gridnine.testing.models.FlightTable;
+import com.gridnine.testing.models.Segment;
+
+import java.lang.ref.WeakReference;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only flight repository storing the segment times in compressed blocks instead of <code>Segment</code> objects.
+ * <p>
+ * Flights are packed into blocks of a fixed number of flights. Within a block, times are epoch seconds (UTC) divided by
+ * the time unit of the block, which is one minute if all times of the block are whole minutes and one second otherwise,
+ * and every time is stored as a variable-length delta:
+ * <pre>
+ * flight    varint segment count, followed by the segments
+ * segment   first departure of a flight: varint (departure - minimal departure of the block)
+ *           other departures: zigzag varint (departure - arrival of the previous segment), the ground time
+ *           arrival: zigzag varint (arrival - departure), the duration of the segment
+ * </pre>
+ * A segment of a schedule in whole minutes takes about 4 bytes instead of about 170 bytes of a <code>Segment</code>
+ * with two <code>LocalDateTime</code> objects, or 16 bytes of a <code>{@link FlightTable}</code>.
+ * <p>
+ * Every block keeps the ranges of the departure, arrival and ground times of its flights (zone maps).
+ * <code>FlightsFilter</code> skips the blocks whose ranges cannot satisfy the arrival, departure and idle conditions,
+ * decodes the remaining blocks into a <code>FlightTable</code> one at a time, scans them and materializes only the
+ * matching flights. Times are stored with a precision of one second.
+ * <p>
+ * Flights returned by <code>getAll()</code> and <code>scan()</code> are views of the decoded table of their block:
+ * their segments are created on the first <code>getSegments()</code> and their summary is computed from the table.
+ * A decoded block stays cached as long as any of its flights is reachable, so a flight is always returned as the same
+ * object, by any thread and any access path, and a reachable flight retains the table of its block, about 16 bytes per
+ * segment.
+ */
+public class CompressedFlightsRepository implements DataBaseInterface<Flight> {
+    public static final int DEFAULT_BLOCK_FLIGHTS = 1024;
+    private static final long MINUTE = 60;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    /**
+     * Number of distinct times shared by the flights materialized by one call of <code>Block.materialize()</code>.
+     */
+    private static final int TIME_CACHE_SIZE = 4096;
+    private final int blockFlights;
+    private final List<Block> blocks;
+    private final int flightCount;
+    private final int segmentCount;
+    private final List<Flight> flightList = new CompressedFlightList();
+    /**
+     * Decoded blocks by index, referenced weakly so that a block is released once none of its flights is reachable.
+     */
+    private final AtomicReferenceArray<WeakReference<MaterializedBlock>> materializedBlocks;
+
+    /**
+     * Encoded flights of one block with the ranges of their times.
+     */
+    public static final class Block {
+        private final int firstFlight;
+        private final int flightCount;
+        private final int segmentCount;
+        private final long timeUnit;
+        private final long baseEpoch;
+        private final byte[] data;
+        private long minDeparture = Long.MAX_VALUE;
+        private long maxDeparture = Long.MIN_VALUE;
+        private long minArrival = Long.MAX_VALUE;
+        private long maxArrival = Long.MIN_VALUE;
+        private long minGroundTime = Long.MAX_VALUE;
+        private long maxGroundTime = Long.MIN_VALUE;
+
+        /**
+         * Encodes the flights <code>[from, to)</code> of the columns.
+         */
+        private Block(FlightColumns columns, int from, int to, int firstFlight) {
+            this.firstFlight = firstFlight;
+            this.flightCount = to - from;
+            this.segmentCount = columns.getSegmentEnd(to - 1) - columns.getSegmentStart(from);
+            boolean wholeMinutes = true;
+            for (int flight = from; flight < to; flight++) {
+                for (int segment = columns.getSegmentStart(flight); segment < columns.getSegmentEnd(flight); segment++) {
+                    long departure = columns.getDepartureEpoch(segment);
+                    long arrival = columns.getArrivalEpoch(segment);
+                    wholeMinutes &= departure % MINUTE == 0 && arrival % MINUTE == 0;
+                    minDeparture = Math.min(minDeparture, departure);
+                    maxDeparture = Math.max(maxDeparture, departure);
+                    minArrival = Math.min(minArrival, arrival);
+                    maxArrival = Math.max(maxArrival, arrival);
+                    if (segment > columns.getSegmentStart(flight)) {
+                        long groundTime = departure - columns.getArrivalEpoch(segment - 1);
+                        minGroundTime = Math.min(minGroundTime, groundTime);
+                        maxGroundTime = Math.max(maxGroundTime, groundTime);
+                    }
+                }
+            }
+            this.timeUnit = wholeMinutes ? MINUTE : 1;
+            this.baseEpoch = segmentCount == 0 ? 0 : minDeparture;
+            BlockWriter writer = new BlockWriter(segmentCount * 6 + flightCount);
+            for (int flight = from; flight < to; flight++) {
+                int start = columns.getSegmentStart(flight);
+                int end = columns.getSegmentEnd(flight);
+                writer.writeVarLong(end - start);
+                for (int segment = start; segment < end; segment++) {
+                    long departure = columns.getDepartureEpoch(segment);
+                    if (segment == start)
+                        writer.writeVarLong((departure - baseEpoch) / timeUnit);
+                    else
+                        writer.writeZigZag((departure - columns.getArrivalEpoch(segment - 1)) / timeUnit);
+                    writer.writeZigZag((columns.getArrivalEpoch(segment) - departure) / timeUnit);
+                }
+            }
+            this.data = writer.toByteArray();
+        }
+
+        /**
+         * Decodes all flights of the block.
+         *
+         * @return new table with the flights of the block, indexed from 0
+         */
+        public FlightTable decode() {
+            int[] segmentOffsets = new int[flightCount + 1];
+            long[] departureEpochs = new long[segmentCount];
+            long[] arrivalEpochs = new long[segmentCount];
+            BlockReader reader = new BlockReader(data);
+            int segment = 0;
+            for (int flight = 0; flight < flightCount; flight++) {
+                int end = segment + (int) reader.readVarLong();
+                for (int first = segment; segment < end; segment++) {
+                    long departure = segment == first
+                            ? baseEpoch + reader.readVarLong() * timeUnit
+                            : arrivalEpochs[segment - 1] + reader.readZigZag() * timeUnit;
+                    departureEpochs[segment] = departure;
+                    arrivalEpochs[segment] = departure + reader.readZigZag() * timeUnit;
+                }
+                segmentOffsets[flight + 1] = segment;
+            }
+            return new FlightTable(segmentOffsets, departureEpochs, arrivalEpochs);
+        }
+
+        /**
+         * Materializes flights of the decoded block. Equal times of the block share one <code>LocalDateTime</code>,
+         * which saves most of the allocations of a schedule, since its times repeat. The flights are new objects,
+         * independent of the flights of <code>getAll()</code> and <code>scan()</code>.
+         *
+         * @param blockTable    table returned by <code>decode()</code>
+         * @param flightIndices ascending indices of the flights in the table
+         * @param count         number of flights to materialize
+         * @param output        receives the new flights in the order of the indices
+         */
+        public void materialize(FlightTable blockTable, int[] flightIndices, int count, Collection<? super Flight> output) {
+            TimeCache timeCache = new TimeCache();
+            for (int i = 0; i < count; i++) {
+                int flight = flightIndices[i];
+                List<Segment> segments = new ArrayList<>(blockTable.getSegmentEnd(flight) - blockTable.getSegmentStart(flight));
+                for (int segment = blockTable.getSegmentStart(flight); segment < blockTable.getSegmentEnd(flight); segment++) {
+                    segments.add(new Segment(
+                            timeCache.get(blockTable.getDepartureEpoch(segment)),
+                            timeCache.get(blockTable.getArrivalEpoch(segment))));
+                }
+                output.add(new Flight(segments));
+            }
+        }
+
+        /**
+         * @return all flights of the block, materialized
+         */
+        public List<Flight> getFlights() {
+            FlightTable blockTable = decode();
+            List<Flight> flights = new ArrayList<>(flightCount);
+            materialize(blockTable, IntStream.range(0, flightCount).toArray(), flightCount, flights);
+            return flights;
+        }
+
+        /**
+         * @return index of the first flight of the block in the repository
+         */
+        public int getFirstFlight() {
+            return firstFlight;
+        }
+
+        public int getFlightCount() {
+            return flightCount;
+        }
+
+        public int getSegmentCount() {
+            return segmentCount;
+        }
+
+        /**
+         * @return number of bytes of the encoded flights
+         */
+        public int getEncodedSize() {
+            return data.length;
+        }
+
+        /**
+         * @param type target type
+         * @return earliest time of the target in the block, <code>Long.MAX_VALUE</code> if the block has no segments
+         */
+        public long getMinEpoch(FlightFilterType type) {
+            return type == FlightFilterType.ARRIVAL ? minArrival : minDeparture;
+        }
+
+        /**
+         * @param type target type
+         * @return latest time of the target in the block, <code>Long.MIN_VALUE</code> if the block has no segments
+         */
+        public long getMaxEpoch(FlightFilterType type) {
+            return type == FlightFilterType.ARRIVAL ? maxArrival : maxDeparture;
+        }
+
+        /**
+         * @return shortest ground time between adjacent segments of a flight of the block, <code>Long.MAX_VALUE</code>
+         * if no flight of the block has more than one segment
+         */
+        public long getMinGroundTime() {
+            return minGroundTime;
+        }
+
+        /**
+         * @return longest ground time between adjacent segments of a flight of the block, <code>Long.MIN_VALUE</code>
+         * if no flight of the block has more than one segment
+         */
+        public long getMaxGroundTime() {
+            return maxGroundTime;
+        }
+
+        /**
+         * A flight satisfying the conditions reduced to <code>[lowerBound, upperBound]</code> has a segment with time
+         * not earlier than the lower bound and a segment with time not later than the upper bound.
+         *
+         * @param type       target type
+         * @param lowerBound lowest time allowed by the conditions of the target
+         * @param upperBound highest time allowed by the conditions of the target
+         * @return false if no flight of the block can satisfy the conditions
+         */
+        public boolean mayMatch(FlightFilterType type, long lowerBound, long upperBound) {
+            return getMaxEpoch(type) >= lowerBound && getMinEpoch(type) <= upperBound;
+        }
+
+        /**
+         * A flight satisfying the idle conditions reduced to <code>[lowerBound, upperBound]</code> has a ground time
+         * not shorter than the lower bound and a ground time not longer than the upper bound.
+         *
+         * @param lowerBound shortest ground time allowed by the idle conditions
+         * @param upperBound longest ground time allowed by the idle conditions
+         * @return false if no flight of the block can satisfy the idle conditions
+         */
+        public boolean mayMatchGroundTime(long lowerBound, long upperBound) {
+            return maxGroundTime >= lowerBound && minGroundTime <= upperBound && minGroundTime <= maxGroundTime;
+        }
+    }
+
+    /**
+     * Direct-mapped cache of materialized times, used by one call of <code>Block.materialize()</code>. The flights of a
+     * schedule repeat most of their times, so most times are taken from the cache. A missed time shares
+     * its date with the previous miss and, in whole minutes, its time of day with all times of the same minute.
+     */
+    private static final class TimeCache {
+        private final LocalDateTime[] times = new LocalDateTime[TIME_CACHE_SIZE];
+        private final long[] epochs = new long[TIME_CACHE_SIZE];
+        private final LocalTime[] minuteTimes = new LocalTime[MINUTES_PER_DAY];
+        private LocalDate date = LocalDate.EPOCH;
+
+        /**
+         * @param epoch epoch seconds (UTC)
+         * @return time from the cache, created and cached on a miss
+         */
+        private LocalDateTime get(long epoch) {
+            int slot = (int) (epoch / MINUTE) & (TIME_CACHE_SIZE - 1);
+            LocalDateTime time = times[slot];
+            if (time == null || epochs[slot] != epoch) {
+                time = create(epoch);
+                times[slot] = time;
+                epochs[slot] = epoch;
+            }
+            return time;
+        }
+
+        private LocalDateTime create(long epoch) {
+            long epochDay = Math.floorDiv(epoch, MINUTES_PER_DAY * MINUTE);
+            int secondOfDay = (int) Math.floorMod(epoch, MINUTES_PER_DAY * MINUTE);
+            if (date.toEpochDay() != epochDay)
+                date = LocalDate.ofEpochDay(epochDay);
+            if (secondOfDay % MINUTE != 0)
+                return LocalDateTime.of(date, LocalTime.ofSecondOfDay(secondOfDay));
+            int minuteOfDay = (int) (secondOfDay / MINUTE);
+            LocalTime timeOfDay = minuteTimes[minuteOfDay];
+            if (timeOfDay == null) {
+                timeOfDay = LocalTime.ofSecondOfDay(secondOfDay);
+                minuteTimes[minuteOfDay] = timeOfDay;
+            }
+            return LocalDateTime.of(date, timeOfDay);
+        }
+    }
+
+    /**
+     * Decoded table of one block with the flights created from it so far. Every flight references the block, so the
+     * block stays cached while any of its flights is reachable.
+     */
+    private static final class MaterializedBlock {
+        private final FlightTable table;
+        private final AtomicReferenceArray<Flight> flights;
+
+        private MaterializedBlock(FlightTable table) {
+            this.table = table;
+            this.flights = new AtomicReferenceArray<>(table.getFlightCount());
+        }
+
+        /**
+         * @param flightIndex index of the flight in the block
+         * @return flight view, created on the first call
+         */
+        private Flight getFlight(int flightIndex) {
+            Flight flight = flights.get(flightIndex);
+            if (flight == null) {
+                flights.compareAndSet(flightIndex, null, new BlockFlight(new BlockSegments(this, flightIndex)));
+                flight = flights.get(flightIndex);
+            }
+            return flight;
+        }
+    }
+
+    /**
+     * Flight of a decoded block. The aggregates are computed from the table, without creating the segments.
+     */
+    private static final class BlockFlight extends Flight {
+        private final BlockSegments blockSegments;
+
+        private BlockFlight(BlockSegments blockSegments) {
+            super(blockSegments);
+            this.blockSegments = blockSegments;
+        }
+
+        @Override
+        protected FlightSummary createSummary() {
+            return FlightSummary.of(blockSegments.block.table, blockSegments.flightIndex);
+        }
+    }
+
+    /**
+     * Unmodifiable segments of a flight of a decoded block, created on the first access.
+     */
+    private static final class BlockSegments extends AbstractList<Segment> implements RandomAccess {
+        private final MaterializedBlock block;
+        private final int flightIndex;
+        private volatile Segment[] segments;
+
+        private BlockSegments(MaterializedBlock block, int flightIndex) {
+            this.block = block;
+            this.flightIndex = flightIndex;
+        }
+
+        @Override
+        public Segment get(int index) {
+            return getSegments()[index];
+        }
+
+        @Override
+        public int size() {
+            return block.table.getSegmentEnd(flightIndex) - block.table.getSegmentStart(flightIndex);
+        }
+
+        private Segment[] getSegments() {
+            Segment[] result = segments;
+            if (result == null) {
+                synchronized (this) {
+                    result = segments;
+                    if (result == null) {
+                        FlightTable table = block.table;
+                        int start = table.getSegmentStart(flightIndex);
+                        result = new Segment[table.getSegmentEnd(flightIndex) - start];
+                        for (int i = 0; i < result.length; i++) {
+                            result[i] = new Segment(
+                                    LocalDateTime.ofEpochSecond(table.getDepartureEpoch(start + i), 0, ZoneOffset.UTC),
+                                    LocalDateTime.ofEpochSecond(table.getArrivalEpoch(start + i), 0, ZoneOffset.UTC));
+                        }
+                        segments = result;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Growable buffer of LEB128 variable-length numbers.
+     */
+    private static final class BlockWriter {
+        private byte[] bytes;
+        private int size;
+
+        private BlockWriter(int capacity) {
+            this.bytes = new byte[Math.max(16, capacity)];
+        }
+
+        private void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarLong(long value) {
+            if (bytes.length - size < 10)
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * Reader of the numbers written by <code>BlockWriter</code>.
+     */
+    private static final class BlockReader {
+        private final byte[] bytes;
+        private int position;
+
+        private BlockReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private long readZigZag() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+        }
+    }
+
+    /**
+     * Flights of the repository, decoded on access through the cache of decoded blocks. Iteration and streams split by
+     * blocks; any thread reading by index decodes a block only if none of its flights is reachable.
+     */
+    private final class CompressedFlightList extends AbstractList<Flight> implements RandomAccess {
+        @Override
+        public Flight get(int index) {
+            if (index < 0 || index >= flightCount)
+                throw new IndexOutOfBoundsException("CompressedFlightsRepository: index " + index + ", size " + flightCount);
+            return getMaterializedBlock(index / blockFlights, null).getFlight(index % blockFlights);
+        }
+
+        @Override
+        public int size() {
+            return flightCount;
+        }
+
+        @Override
+        public Iterator<Flight> iterator() {
+            return Spliterators.iterator(spliterator());
+        }
+
+        @Override
+        public Spliterator<Flight> spliterator() {
+            return new BlockSpliterator(0, blocks.size());
+        }
+    }
+
+    /**
+     * Spliterator over the flights of a range of blocks, taking one decoded block at a time. Splits at block
+     * boundaries, before the first flight of a block is taken.
+     */
+    private final class BlockSpliterator implements Spliterator<Flight> {
+        private int nextBlock;
+        private final int endBlock;
+        private long remaining;
+        private MaterializedBlock block;
+        private int nextFlight;
+
+        private BlockSpliterator(int fromBlock, int endBlock) {
+            this.nextBlock = fromBlock;
+            this.endBlock = endBlock;
+            this.remaining = getFirstFlight(endBlock) - getFirstFlight(fromBlock);
+        }
+
+        private int getFirstFlight(int blockIndex) {
+            return blockIndex == blocks.size() ? flightCount : blocks.get(blockIndex).getFirstFlight();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Flight> action) {
+            while (block == null || nextFlight == block.table.getFlightCount()) {
+                if (nextBlock == endBlock)
+                    return false;
+                block = getMaterializedBlock(nextBlock++, null);
+                nextFlight = 0;
+            }
+            remaining--;
+            action.accept(block.getFlight(nextFlight++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Flight> trySplit() {
+            int middleBlock = (nextBlock + endBlock) >>> 1;
+            if ((block != null && nextFlight < block.table.getFlightCount()) || middleBlock == nextBlock)
+                return null;
+            BlockSpliterator prefix = new BlockSpliterator(nextBlock, middleBlock);
+            nextBlock = middleBlock;
+            remaining -= prefix.remaining;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /**
+     * Compresses the flights in blocks of <code>DEFAULT_BLOCK_FLIGHTS</code>.
+     *
+     * @param flightList flights to compress
+     */
+    public CompressedFlightsRepository(List<Flight> flightList) {
+        this(flightList, DEFAULT_BLOCK_FLIGHTS);
+    }
+
+    /**
+     * Compresses the flights. Only one block is converted to epoch times at a time.
+     *
+     * @param flightList   flights to compress
+     * @param blockFlights number of flights of a block
+     */
+    public CompressedFlightsRepository(List<Flight> flightList, int blockFlights) {
+        this(blockFlights, encode(flightList, blockFlights));
+    }
+
+    /**
+     * Compresses columnar flights, e.g. a <code>{@link MappedFlightsRepository}</code>, without materializing them.
+     *
+     * @param columns      flights to compress
+     * @param blockFlights number of flights of a block
+     */
+    public CompressedFlightsRepository(FlightColumns columns, int blockFlights) {
+        this(blockFlights, encode(columns, blockFlights));
+    }
+
+    private CompressedFlightsRepository(int blockFlights, List<Block> blocks) {
+        this.blockFlights = blockFlights;
+        this.blocks = Collections.unmodifiableList(blocks);
+        this.flightCount = blocks.stream().mapToInt(Block::getFlightCount).sum();
+        this.segmentCount = blocks.stream().mapToInt(Block::getSegmentCount).sum();
+        this.materializedBlocks = new AtomicReferenceArray<>(blocks.size());
+    }
+
+    private static List<Block> encode(List<Flight> flightList, int blockFlights) {
+        checkBlockFlights(blockFlights);
+        List<Block> blocks = new ArrayList<>();
+        for (int from = 0; from < flightList.size(); from += blockFlights) {
+            int to = Math.min(flightList.size(), from + blockFlights);
+            blocks.add(new Block(FlightTable.of(flightList.subList(from, to)), 0, to - from, from));
+        }
+        return blocks;
+    }
+
+    private static List<Block> encode(FlightColumns columns, int blockFlights) {
+        checkBlockFlights(blockFlights);
+        List<Block> blocks = new ArrayList<>();
+        for (int from = 0; from < columns.getFlightCount(); from += blockFlights) {
+            blocks.add(new Block(columns, from, Math.min(columns.getFlightCount(), from + blockFlights), from));
+        }
+        return blocks;
+    }
+
+    private static void checkBlockFlights(int blockFlights) {
+        if (blockFlights <= 0)
+            throw new IllegalArgumentException("CompressedFlightsRepository: number of flights of a block must be positive");
+    }
+
+    /**
+     * @return view of all flights of the repository, decoded on access
+     */
+    @Override
+    public List<Flight> getAll() {
+        return flightList;
+    }
+
+    /**
+     * Decodes and scans the blocks that may match a <code>FlightsFilter</code>, in the execution mode of the filter.
+     * In parallel execution every block is scanned by its own task. A block with reachable flights is scanned without
+     * decoding, and a block without matches is not cached.
+     *
+     * @param filter filter of the flights
+     * @return flights that pass the filter, in the order of the blocks
+     */
+    @Override
+    public List<Flight> scan(Filter<List<Flight>> filter) {
+        if (!(filter instanceof FlightsFilter))
+            return filter.filter(flightList);
+        FlightsFilter flightsFilter = (FlightsFilter) filter;
+        List<Block> candidateBlocks = new ArrayList<>();
+        int candidateFlightCount = 0;
+        for (Block block : blocks) {
+            if (mayMatch(block, flightsFilter)) {
+                candidateBlocks.add(block);
+                candidateFlightCount += block.getFlightCount();
+            }
+        }
+        return flightsFilter.filterParts(candidateBlocks, candidateFlightCount, blockList -> {
+            ScanBuffers buffers = new ScanBuffers();
+            List<Flight> filteredFlights = new ArrayList<>();
+            for (Block block : blockList) {
+                int blockIndex = block.getFirstFlight() / blockFlights;
+                MaterializedBlock materializedBlock = getCachedBlock(blockIndex);
+                FlightTable blockTable = materializedBlock != null ? materializedBlock.table : block.decode();
+                int matchCount = flightsFilter.scan(blockTable, buffers);
+                if (matchCount == 0)
+                    continue;
+                if (materializedBlock == null)
+                    materializedBlock = getMaterializedBlock(blockIndex, blockTable);
+                int[] flightIndices = buffers.getResult();
+                for (int i = 0; i < matchCount; i++) {
+                    filteredFlights.add(materializedBlock.getFlight(flightIndices[i]));
+                }
+            }
+            return filteredFlights;
+        });
+    }
+
+    private MaterializedBlock getCachedBlock(int blockIndex) {
+        WeakReference<MaterializedBlock> reference = materializedBlocks.get(blockIndex);
+        return reference == null ? null : reference.get();
+    }
+
+    /**
+     * Returns the cached decoded block or caches a new one. Threads racing to cache a block all get the block cached
+     * first.
+     *
+     * @param blockIndex index of the block
+     * @param table      decoded table of the block, <code>null</code> to decode it if needed
+     * @return decoded block
+     */
+    private MaterializedBlock getMaterializedBlock(int blockIndex, FlightTable table) {
+        MaterializedBlock created = null;
+        while (true) {
+            WeakReference<MaterializedBlock> reference = materializedBlocks.get(blockIndex);
+            MaterializedBlock cached = reference == null ? null : reference.get();
+            if (cached != null)
+                return cached;
+            if (created == null)
+                created = new MaterializedBlock(table != null ? table : blocks.get(blockIndex).decode());
+            if (materializedBlocks.compareAndSet(blockIndex, reference, new WeakReference<>(created)))
+                return created;
+        }
+    }
+
+    private static boolean mayMatch(Block block, FlightsFilter flightsFilter) {
+        for (FlightFilterType type : FlightFilterType.values()) {
+            if (flightsFilter.hasConditions(type) && !block.mayMatch(type, flightsFilter.getLowerBound(type), flightsFilter.getUpperBound(type)))
+                return false;
+        }
+        return !flightsFilter.hasIdleConditions() || block.mayMatchGroundTime(flightsFilter.getIdleLowerBound(), flightsFilter.getIdleUpperBound());
+    }
+
+    /**
+     * @return unmodifiable list of the blocks, in the order of the flights
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public int getFlightCount() {
+        return flightCount;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return number of bytes of the encoded flights of all blocks
+     */
+    public long getEncodedSize() {
+        return blocks.stream().mapToLong(Block::getEncodedSize).sum();
+    }
+}
@@ -0,0 +1,310 @@
+package com.gridnine.testing.db;
+
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.models.Flight;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Query service for many concurrent callers over one data base.
+ * <p>
+ * Concurrent queries with equal filters (see <code>{@link FlightsFilter#equals(Object)}</code>) against the same
+ * version of the data are coalesced: the first one is executed and all others wait for its result (single-flight).
+ * Results are kept in a <code>{@link QueryCache}</code> like in <code>{@link FlightsDao#query(FlightsFilter)}</code>,
+ * so later queries of the same version are answered without execution.
+ * <p>
+ * Executions are CPU-bound and run on a fixed pool of worker threads. Admission is bounded: at most
+ * <code>maxPendingQueries</code> distinct executions may be queued or running, further ones fail at once with a
+ * <code>RejectedExecutionException</code> instead of growing the queue, so a burst cannot starve the workers.
+ * Coalesced and cached queries are always admitted, they cost no execution.
+ * <p>
+ * A version change invalidates all cached results at once, so every distinct query has to be executed again and its
+ * callers wait for the queued executions. A service serving stale results answers such a query with the latest result
+ * cached for an older version (see <code>{@link QueryCache#getPrevious(FlightsFilter, long)}</code>) while one
+ * execution refreshes it. Its refreshes are coalesced by filter whatever the version, so at most one execution per
+ * filter is queued or running even if the data changes faster than the queries are executed, and only the queries of
+ * a filter without any cached result wait, for the refresh in progress. By default results are never stale.
+ * <p>
+ * <code>queryAsync()</code> completes the future of every caller on the request executor, so callbacks and blocked
+ * callers never occupy a worker. The request executor starts a virtual thread per task when the JVM supports virtual
+ * threads (Java 21 and later), otherwise it is a cached pool of platform threads; <code>{@link #newRequestExecutor()}</code>
+ * gives the same executor to run the callers themselves.
+ */
+public class FlightQueryService implements AutoCloseable {
+    public static final int DEFAULT_MAX_PENDING_QUERIES = 1024;
+    /**
+     * Version of the key of a refresh of a service serving stale results.
+     */
+    private static final long ANY_VERSION = Long.MIN_VALUE;
+    private final DataBaseInterface<Flight> db;
+    private final QueryCache queryCache;
+    private final ExecutorService workers;
+    private final ExecutorService requestExecutor;
+    private final Semaphore admission;
+    private final boolean serveStaleResults;
+    private final ConcurrentHashMap<QueryKey, CompletableFuture<List<Flight>>> executions = new ConcurrentHashMap<>();
+    private final LongAdder executionCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder cachedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder staleCount = new LongAdder();
+
+    /**
+     * Service with one worker per processor and <code>DEFAULT_MAX_PENDING_QUERIES</code>.
+     *
+     * @param db data base of the queries
+     */
+    public FlightQueryService(DataBaseInterface<Flight> db) {
+        this(db, new QueryCache(), Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_PENDING_QUERIES);
+    }
+
+    /**
+     * @param db                data base of the queries
+     * @param queryCache        cache of the results
+     * @param workerCount       number of threads executing the queries
+     * @param maxPendingQueries maximum number of distinct executions queued or running
+     */
+    public FlightQueryService(DataBaseInterface<Flight> db, QueryCache queryCache, int workerCount, int maxPendingQueries) {
+        this(db, queryCache, workerCount, maxPendingQueries, false);
+    }
+
+    /**
+     * @param db                data base of the queries
+     * @param queryCache        cache of the results
+     * @param workerCount       number of threads executing the queries
+     * @param maxPendingQueries maximum number of distinct executions queued or running
+     * @param serveStaleResults true to answer a query with its latest result of an older version while it is executed
+     *                          again
+     */
+    public FlightQueryService(DataBaseInterface<Flight> db, QueryCache queryCache, int workerCount, int maxPendingQueries, boolean serveStaleResults) {
+        if (workerCount <= 0 || maxPendingQueries <= 0)
+            throw new IllegalArgumentException("FlightQueryService: worker count and pending query limit must be positive");
+        this.db = Objects.requireNonNull(db);
+        this.queryCache = Objects.requireNonNull(queryCache);
+        this.workers = Executors.newFixedThreadPool(workerCount, daemonThreads("flight-query-worker-"));
+        this.requestExecutor = newRequestExecutor();
+        this.admission = new Semaphore(maxPendingQueries);
+        this.serveStaleResults = serveStaleResults;
+    }
+
+    /**
+     * @return executor starting a virtual thread per task if the JVM supports them, a cached pool of daemon platform
+     * threads otherwise
+     */
+    public static ExecutorService newRequestExecutor() {
+        try {
+            // virtual threads are final since Java 21, the sources target Java 17
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(daemonThreads("flight-query-request-"));
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Queries the flights asynchronously. The returned future is completed on the request executor; cancelling it
+     * does not cancel the execution shared with other callers.
+     *
+     * @param flightsFilter filter of the query
+     * @return future of the unmodifiable list of flights that satisfy all conditions, in the order of the data base,
+     * completed exceptionally with <code>RejectedExecutionException</code> if the query was not admitted
+     */
+    public CompletableFuture<List<Flight>> queryAsync(FlightsFilter flightsFilter) {
+        CompletableFuture<List<Flight>> execution = getExecution(flightsFilter);
+        if (execution.isDone() && !execution.isCompletedExceptionally())
+            return CompletableFuture.completedFuture(execution.join());
+        return execution.thenApplyAsync(Function.identity(), requestExecutor);
+    }
+
+    /**
+     * Queries the flights in the calling thread, waiting for the execution shared with concurrent equal queries.
+     *
+     * @param flightsFilter filter of the query
+     * @return unmodifiable list of flights that satisfy all conditions, in the order of the data base
+     * @throws java.util.concurrent.CompletionException if the query failed or was not admitted
+     */
+    public List<Flight> query(FlightsFilter flightsFilter) {
+        return getExecution(flightsFilter).join();
+    }
+
+    /**
+     * @return cached result, latest result of an older version while the query is executed again, execution of an
+     * equal query in progress or a new execution
+     */
+    private CompletableFuture<List<Flight>> getExecution(FlightsFilter flightsFilter) {
+        long version = db.getVersion();
+        List<Flight> cached = queryCache.get(flightsFilter, version);
+        if (cached != null) {
+            cachedCount.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (!serveStaleResults)
+            return startExecution(new QueryKey(flightsFilter, version));
+        CompletableFuture<List<Flight>> refresh = startExecution(new QueryKey(flightsFilter, ANY_VERSION));
+        List<Flight> previous = queryCache.getPrevious(flightsFilter, version);
+        if (previous == null)
+            return refresh;
+        staleCount.increment();
+        return CompletableFuture.completedFuture(previous);
+    }
+
+    /**
+     * @return execution of an equal query in progress or a new execution
+     */
+    private CompletableFuture<List<Flight>> startExecution(QueryKey key) {
+        CompletableFuture<List<Flight>> execution = new CompletableFuture<>();
+        while (true) {
+            CompletableFuture<List<Flight>> running = executions.putIfAbsent(key, execution);
+            if (running == null)
+                break;
+            // a completed refresh not removed yet may have read the data before the latest version change
+            if (key.version != ANY_VERSION || !running.isDone()) {
+                coalescedCount.increment();
+                return running;
+            }
+            if (executions.replace(key, running, execution))
+                break;
+        }
+        if (!admission.tryAcquire()) {
+            reject(key, execution, new RejectedExecutionException("FlightQueryService: too many pending queries"));
+            return execution;
+        }
+        try {
+            workers.execute(() -> execute(key, execution));
+        } catch (RejectedExecutionException e) {
+            admission.release();
+            reject(key, execution, e);
+        }
+        return execution;
+    }
+
+    private void reject(QueryKey key, CompletableFuture<List<Flight>> execution, RejectedExecutionException e) {
+        rejectedCount.increment();
+        executions.remove(key, execution);
+        execution.completeExceptionally(e);
+    }
+
+    private void execute(QueryKey key, CompletableFuture<List<Flight>> execution) {
+        try {
+            executionCount.increment();
+            // a queued query reads the data current at its execution, which is cached under that version
+            long version = db.getVersion();
+            List<Flight> result = Collections.unmodifiableList(key.flightsFilter.filter(db));
+            if (db.getVersion() == version)
+                queryCache.put(key.flightsFilter, version, result);
+            execution.complete(result);
+        } catch (Throwable e) {
+            execution.completeExceptionally(e);
+        } finally {
+            // removed after completion, so queries arriving meanwhile still join this execution
+            executions.remove(key, execution);
+            admission.release();
+        }
+    }
+
+    /**
+     * @return cache of the query results
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * @return number of executed queries
+     */
+    public long getExecutionCount() {
+        return executionCount.sum();
+    }
+
+    /**
+     * @return number of queries that joined the execution of an equal query
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    /**
+     * @return number of queries answered from the cache
+     */
+    public long getCachedCount() {
+        return cachedCount.sum();
+    }
+
+    /**
+     * @return number of queries not admitted
+     */
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    /**
+     * @return number of queries answered with a result of an older version while they were executed again
+     */
+    public long getStaleCount() {
+        return staleCount.sum();
+    }
+
+    /**
+     * Stops the workers and the request executor. Queries already admitted are completed.
+     */
+    @Override
+    public void close() {
+        workers.shutdown();
+        requestExecutor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "FlightQueryService{executions=" + getExecutionCount() + ", coalesced=" + getCoalescedCount()
+                + ", cached=" + getCachedCount() + ", stale=" + getStaleCount() + ", rejected=" + getRejectedCount() + ", pending=" + executions.size() + '}';
+    }
+
+    /**
+     * Condition set of a query and the version of the data it is executed against.
+     */
+    private static final class QueryKey {
+        private final FlightsFilter flightsFilter;
+        private final long version;
+
+        private QueryKey(FlightsFilter flightsFilter, long version) {
+            this.flightsFilter = Objects.requireNonNull(flightsFilter);
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof QueryKey))
+                return false;
+            QueryKey that = (QueryKey) o;
+            return version == that.version && flightsFilter.equals(that.flightsFilter);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * flightsFilter.hashCode() + Long.hashCode(version);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.gridnine.testing.db;
+
+import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorted time index over the segments of a <code>{@link FlightTable}</code>.
+ * <p>
+ * For every target type (<code>ARRIVAL</code>, <code>DEPARTURE</code>) the index keeps two sorted arrays:
+ * the times of all segments and the earliest time of every flight. Each entry packs the time, relative to the
+ * earliest time of the column, together with the index of the flight, so one binary search yields both.
+ * <p>
+ * A set of conditions on a target is reduced to the bounds <code>[lowerBound, upperBound]</code>.
+ * Since every condition may be satisfied by a different segment, the candidates are the flights with a segment
+ * inside the bounds plus the flights whose segments lie on both sides of them. The latter are found through the
+ * earliest flight times, because no flight of that array spans more than its longest flight. The few flights with the
+ * longest spans, at most <code>1/LONG_FLIGHT_DIVISOR</code> of them, are kept in a separate list that is checked one by
+ * one instead, so a single long flight does not widen the search for all the others.
+ * The candidates are a superset of the matching flights and must be verified by the filter.
+ */
+public class FlightTimeIndex {
+    /**
+     * The index is used only if the number of candidates does not exceed this fraction of the flights.
+     */
+    private static final int INDEX_SELECTIVITY_DIVISOR = 8;
+    /**
+     * At most this fraction of the flights with the longest spans is kept out of the earliest flight times.
+     */
+    private static final int LONG_FLIGHT_DIVISOR = 256;
+    private final FlightTable flightTable;
+    private final List<Flight> flightList;
+    private final int flightBits;
+    private final long flightMask;
+    private final Map<FlightFilterType, Column> columns = new EnumMap<>(FlightFilterType.class);
+
+    private static final class Column {
+        private long baseEpoch = Long.MAX_VALUE;
+        private long maxEpoch = Long.MIN_VALUE;
+        /**
+         * Longest span of the flights in <code>flightMinKeys</code>.
+         */
+        private long maxSpan;
+        private long[] segmentKeys;
+        private long[] flightMinKeys;
+        /**
+         * Flights spanning more than <code>maxSpan</code>, with their earliest and latest times.
+         */
+        private int[] longFlights;
+        private long[] longFlightMins;
+        private long[] longFlightMaxs;
+    }
+
+    /**
+     * @param flightTable columnar flights to index
+     * @throws IllegalArgumentException if the time range of the flights is too wide to be indexed
+     */
+    public FlightTimeIndex(FlightTable flightTable) {
+        this(flightTable, null);
+    }
+
+    /**
+     * @param flightList flights to index; the index keeps the list, so it must not be modified afterwards
+     * @throws IllegalArgumentException if the time range of the flights is too wide to be indexed
+     */
+    public FlightTimeIndex(List<Flight> flightList) {
+        this(FlightTable.of(flightList), flightList);
+    }
+
+    private FlightTimeIndex(FlightTable flightTable, List<Flight> flightList) {
+        this.flightTable = flightTable;
+        this.flightList = flightList;
+        this.flightBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(1, flightTable.getFlightCount() - 1)));
+        this.flightMask = (1L << flightBits) - 1;
+        for (FlightFilterType type : FlightFilterType.values()) {
+            columns.put(type, buildColumn(type));
+        }
+    }
+
+    private long getEpoch(FlightFilterType type, int segmentIndex) {
+        return type == FlightFilterType.ARRIVAL ? flightTable.getArrivalEpoch(segmentIndex) : flightTable.getDepartureEpoch(segmentIndex);
+    }
+
+    private Column buildColumn(FlightFilterType type) {
+        Column column = new Column();
+        long[] spans = new long[flightTable.getFlightCount()];
+        int flightsWithSegments = 0;
+        for (int flight = 0; flight < flightTable.getFlightCount(); flight++) {
+            int start = flightTable.getSegmentStart(flight);
+            int end = flightTable.getSegmentEnd(flight);
+            if (start == end)
+                continue;
+            long flightMin = Long.MAX_VALUE;
+            long flightMax = Long.MIN_VALUE;
+            for (int segment = start; segment < end; segment++) {
+                flightMin = Math.min(flightMin, getEpoch(type, segment));
+                flightMax = Math.max(flightMax, getEpoch(type, segment));
+            }
+            column.baseEpoch = Math.min(column.baseEpoch, flightMin);
+            column.maxEpoch = Math.max(column.maxEpoch, flightMax);
+            spans[flightsWithSegments++] = flightMax - flightMin;
+        }
+        if (flightsWithSegments > 0 && (column.maxEpoch - column.baseEpoch < 0
+                || Long.numberOfLeadingZeros(column.maxEpoch - column.baseEpoch) <= flightBits))
+            throw new IllegalArgumentException("FlightTimeIndex: the time range of the flights is too wide to be indexed");
+        int longFlightCount = 0;
+        if (flightsWithSegments > 0) {
+            Arrays.parallelSort(spans, 0, flightsWithSegments);
+            column.maxSpan = spans[flightsWithSegments - 1 - flightsWithSegments / LONG_FLIGHT_DIVISOR];
+            while (longFlightCount < flightsWithSegments && spans[flightsWithSegments - 1 - longFlightCount] > column.maxSpan) {
+                longFlightCount++;
+            }
+        }
+        column.segmentKeys = new long[flightTable.getSegmentCount()];
+        column.flightMinKeys = new long[flightsWithSegments - longFlightCount];
+        column.longFlights = new int[longFlightCount];
+        column.longFlightMins = new long[longFlightCount];
+        column.longFlightMaxs = new long[longFlightCount];
+        int flightMinCount = 0;
+        longFlightCount = 0;
+        for (int flight = 0; flight < flightTable.getFlightCount(); flight++) {
+            long flightMin = Long.MAX_VALUE;
+            long flightMax = Long.MIN_VALUE;
+            for (int segment = flightTable.getSegmentStart(flight); segment < flightTable.getSegmentEnd(flight); segment++) {
+                long epoch = getEpoch(type, segment);
+                column.segmentKeys[segment] = pack(column, epoch, flight);
+                flightMin = Math.min(flightMin, epoch);
+                flightMax = Math.max(flightMax, epoch);
+            }
+            if (flightMin == Long.MAX_VALUE)
+                continue;
+            if (flightMax - flightMin <= column.maxSpan) {
+                column.flightMinKeys[flightMinCount++] = pack(column, flightMin, flight);
+            } else {
+                column.longFlights[longFlightCount] = flight;
+                column.longFlightMins[longFlightCount] = flightMin;
+                column.longFlightMaxs[longFlightCount++] = flightMax;
+            }
+        }
+        Arrays.parallelSort(column.segmentKeys);
+        Arrays.parallelSort(column.flightMinKeys);
+        return column;
+    }
+
+    private long pack(Column column, long epoch, int flight) {
+        return ((epoch - column.baseEpoch) << flightBits) | flight;
+    }
+
+    /**
+     * @return index of the first key with time not earlier than <code>epoch</code>
+     */
+    private int firstKeyFrom(Column column, long[] keys, long epoch) {
+        if (epoch <= column.baseEpoch)
+            return 0;
+        if (epoch > column.maxEpoch)
+            return keys.length;
+        return lowerBound(keys, (epoch - column.baseEpoch) << flightBits);
+    }
+
+    /**
+     * @return index of the first key with time later than <code>epoch</code>
+     */
+    private int firstKeyAfter(Column column, long[] keys, long epoch) {
+        if (epoch < column.baseEpoch)
+            return 0;
+        if (epoch >= column.maxEpoch)
+            return keys.length;
+        return lowerBound(keys, (epoch - column.baseEpoch + 1) << flightBits);
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private boolean hasStraddlingFlights(long lowerBound, long upperBound) {
+        return lowerBound != Long.MIN_VALUE && upperBound != Long.MAX_VALUE;
+    }
+
+    private long straddleFrom(Column column, long lowerBound, long upperBound) {
+        long from = Math.max(lowerBound, upperBound) - column.maxSpan;
+        return from > Math.max(lowerBound, upperBound) ? Long.MIN_VALUE : from;
+    }
+
+    /**
+     * Estimates the number of candidates for the bounds without collecting them.
+     * Flights may be counted several times, so the estimate is never lower than the number of candidates.
+     *
+     * @param type       target type
+     * @param lowerBound lowest allowed time, <code>Long.MIN_VALUE</code> if there is no lower bound
+     * @param upperBound highest allowed time, <code>Long.MAX_VALUE</code> if there is no upper bound
+     * @return upper estimate of the number of candidates
+     */
+    public long countCandidates(FlightFilterType type, long lowerBound, long upperBound) {
+        Column column = columns.get(type);
+        long count = 0;
+        if (lowerBound <= upperBound)
+            count += firstKeyAfter(column, column.segmentKeys, upperBound) - firstKeyFrom(column, column.segmentKeys, lowerBound);
+        if (hasStraddlingFlights(lowerBound, upperBound))
+            count += Math.max(0, firstKeyAfter(column, column.flightMinKeys, Math.min(lowerBound, upperBound))
+                    - firstKeyFrom(column, column.flightMinKeys, straddleFrom(column, lowerBound, upperBound)))
+                    + column.longFlights.length;
+        return count;
+    }
+
+    /**
+     * Collects the flights that may satisfy all conditions reduced to the bounds.
+     *
+     * @param type       target type
+     * @param lowerBound lowest allowed time, <code>Long.MIN_VALUE</code> if there is no lower bound
+     * @param upperBound highest allowed time, <code>Long.MAX_VALUE</code> if there is no upper bound
+     * @return bit set of the candidate flight indices
+     */
+    public BitSet getCandidates(FlightFilterType type, long lowerBound, long upperBound) {
+        Column column = columns.get(type);
+        BitSet candidates = new BitSet(flightTable.getFlightCount());
+        if (lowerBound <= upperBound) {
+            int end = firstKeyAfter(column, column.segmentKeys, upperBound);
+            for (int i = firstKeyFrom(column, column.segmentKeys, lowerBound); i < end; i++) {
+                candidates.set((int) (column.segmentKeys[i] & flightMask));
+            }
+        }
+        if (hasStraddlingFlights(lowerBound, upperBound)) {
+            int end = firstKeyAfter(column, column.flightMinKeys, Math.min(lowerBound, upperBound));
+            for (int i = firstKeyFrom(column, column.flightMinKeys, straddleFrom(column, lowerBound, upperBound)); i < end; i++) {
+                candidates.set((int) (column.flightMinKeys[i] & flightMask));
+            }
+            long minBound = Math.min(lowerBound, upperBound);
+            long maxBound = Math.max(lowerBound, upperBound);
+            for (int i = 0; i < column.longFlights.length; i++) {
+                if (column.longFlightMins[i] <= minBound && column.longFlightMaxs[i] >= maxBound)
+                    candidates.set(column.longFlights[i]);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @return indexed flights
+     */
+    public FlightTable getFlightTable() {
+        return flightTable;
+    }
+
+    /**
+     * @return indexed flights in the order of the index, or null if the index was built from a <code>FlightTable</code>
+     */
+    public List<Flight> getFlights() {
+        return flightList;
+    }
+
+    /**
+     * Filters the indexed flights through the index: the most selective of the arrival and departure condition sets
+     * of the filter, narrowed by the time ranges of its expression, is answered from the index and only the candidate
+     * flights are checked.
+     *
+     * @param flightsFilter filter of the flights
+     * @return matching flights in the order of the index, or null if the index was built from a
+     * <code>FlightTable</code> or leaves more than an eighth of the flights as candidates; the flights then have to be
+     * scanned
+     */
+    public List<Flight> filter(FlightsFilter flightsFilter) {
+        if (flightList == null)
+            return null;
+        FlightFilterType bestType = null;
+        long bestCount = flightTable.getFlightCount() / INDEX_SELECTIVITY_DIVISOR + 1;
+        for (FlightFilterType type : FlightFilterType.values()) {
+            if (!flightsFilter.hasConditions(type))
+                continue;
+            long count = countCandidates(type, flightsFilter.getLowerBound(type), flightsFilter.getUpperBound(type));
+            if (count < bestCount) {
+                bestType = type;
+                bestCount = count;
+            }
+        }
+        if (bestType == null)
+            return null;
+        BitSet candidates = getCandidates(bestType, flightsFilter.getLowerBound(bestType), flightsFilter.getUpperBound(bestType));
+        List<Flight> filteredFlights = new ArrayList<>();
+        for (int flightIndex = candidates.nextSetBit(0); flightIndex >= 0; flightIndex = candidates.nextSetBit(flightIndex + 1)) {
+            if (flightsFilter.test(flightTable, flightIndex))
+                filteredFlights.add(flightList.get(flightIndex));
+        }
+        return filteredFlights;
+    }
+}
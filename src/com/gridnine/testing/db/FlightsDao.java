@@ -1,16 +1,31 @@
 package com.gridnine.testing.db;
 
+import com.gridnine.testing.filter.FlightsFilter;
 import com.gridnine.testing.interfaces.DataBaseInterface;
 import com.gridnine.testing.models.Flight;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 public class FlightsDao {
     private static FlightsDao instance;
     DataBaseInterface<Flight> db;
+    private volatile QueryCache queryCache;
 
     private FlightsDao(DataBaseInterface<Flight> db) {
-        this.db = db;
+        this(db, new QueryCache());
+    }
+
+    /**
+     * Creates a DAO independent of the shared instance, e.g. for one data base among several.
+     *
+     * @param db         data base of the queries
+     * @param queryCache cache of the query results
+     */
+    public FlightsDao(DataBaseInterface<Flight> db, QueryCache queryCache) {
+        this.db = Objects.requireNonNull(db);
+        this.queryCache = Objects.requireNonNull(queryCache);
     }
 
     public static synchronized FlightsDao getInstance(DataBaseInterface<Flight> db) {
@@ -23,4 +38,38 @@ public class FlightsDao {
     public List<Flight> getAll() {
         return db.getAll();
     }
+
+    /**
+     * Filters all flights of the data base. Results are cached by the conditions of the filter until the version of
+     * the data base changes, so repeated queries with equal filters are answered without filtering.
+     *
+     * @param flightsFilter filter of the query
+     * @return unmodifiable list of flights that satisfy all conditions, in the order of the data base
+     */
+    public List<Flight> query(FlightsFilter flightsFilter) {
+        QueryCache cache = queryCache;
+        long version = db.getVersion();
+        List<Flight> result = cache.get(flightsFilter, version);
+        if (result == null) {
+            result = Collections.unmodifiableList(flightsFilter.filter(db));
+            cache.put(flightsFilter, version, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return cache of the query results with its hit, miss and eviction counters
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Replaces the cache of the query results, e.g. to change its limits.
+     *
+     * @param queryCache new cache
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = Objects.requireNonNull(queryCache);
+    }
 }
@@ -1,16 +1,222 @@
 package com.gridnine.testing.db;
 
-import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.interfaces.ChangeListener;
+import com.gridnine.testing.interfaces.Filter;
+import com.gridnine.testing.interfaces.ObservableDataBase;
 import com.gridnine.testing.models.Flight;
 import com.gridnine.testing.utils.FlightBuilder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-public class FlightsRepository implements DataBaseInterface<Flight> {
-    private final List<Flight> flightList = FlightBuilder.createFlights();
+/**
+ * Repository of flights that can be changed and observed.
+ * <p>
+ * Flights are identified by reference, a flight can be stored once. Every insert, update and delete increments the
+ * version of the repository and is passed to the change listeners in the calling thread, in the order the changes
+ * were applied. A change costs constant amortized time: the position of every flight is kept in an identity map and
+ * a deleted flight leaves an empty slot, the slots are compacted once they make up half of the storage.
+ * <p>
+ * <code>getAll()</code> returns an unmodifiable snapshot of the current flights in the order of insertion, built on
+ * the first call after a change, so it can be iterated while the repository changes and the data can only be changed
+ * through the methods that update the version and notify the listeners.
+ * A change drops the time index, it has to be created again.
+ */
+public class FlightsRepository implements ObservableDataBase<Flight> {
+    /**
+     * Flights in the order of insertion, null in the slots of deleted flights.
+     */
+    private final List<Flight> slots = new ArrayList<>();
+    private final Map<Flight, Integer> positions = new IdentityHashMap<>();
+    private final List<ChangeListener<Flight>> listeners = new CopyOnWriteArrayList<>();
+    private int deletedCount;
+    private volatile List<Flight> snapshot;
+    private volatile FlightTimeIndex timeIndex;
+    private volatile long version;
 
+    public FlightsRepository() {
+        for (Flight flight : FlightBuilder.createFlights()) {
+            positions.put(flight, slots.size());
+            slots.add(flight);
+        }
+    }
+
+    /**
+     * @return unmodifiable snapshot of the current flights, in the order of insertion
+     */
     @Override
     public List<Flight> getAll() {
-        return flightList;
+        List<Flight> result = snapshot;
+        if (result == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    List<Flight> flights = new ArrayList<>(slots.size() - deletedCount);
+                    for (Flight flight : slots) {
+                        if (flight != null)
+                            flights.add(flight);
+                    }
+                    snapshot = Collections.unmodifiableList(flights);
+                }
+                result = snapshot;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Answers a <code>FlightsFilter</code> from the time index if it was created and is selective enough for the
+     * conditions of the filter, see <code>{@link FlightTimeIndex#filter(FlightsFilter)}</code>. Otherwise all flights
+     * are filtered.
+     *
+     * @param filter filter of the flights
+     * @return flights that pass the filter, in the order of insertion
+     */
+    @Override
+    public List<Flight> scan(Filter<List<Flight>> filter) {
+        FlightTimeIndex index = timeIndex;
+        if (index != null && filter instanceof FlightsFilter) {
+            List<Flight> filteredFlights = index.filter((FlightsFilter) filter);
+            if (filteredFlights != null)
+                return filteredFlights;
+            return filter.filter(index.getFlights());
+        }
+        return filter.filter(getAll());
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void addChangeListener(ChangeListener<Flight> listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * The snapshot is taken under the lock of the repository, so no change can happen between adding the listener and
+     * taking the snapshot.
+     */
+    @Override
+    public synchronized List<Flight> subscribe(ChangeListener<Flight> listener) {
+        addChangeListener(listener);
+        return getAll();
+    }
+
+    @Override
+    public void removeChangeListener(ChangeListener<Flight> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Adds the flight to the end of the repository.
+     *
+     * @param flight new flight
+     * @throws IllegalArgumentException if the repository already contains the flight
+     */
+    public synchronized void insert(Flight flight) {
+        checkAbsent(Objects.requireNonNull(flight));
+        positions.put(flight, slots.size());
+        slots.add(flight);
+        changed();
+        for (ChangeListener<Flight> listener : listeners) {
+            listener.onInsert(flight);
+        }
+    }
+
+    /**
+     * Replaces the flight, e.g. after it was retimed.
+     *
+     * @param oldFlight flight of the repository
+     * @param newFlight replacement
+     * @return false if the repository does not contain the flight
+     * @throws IllegalArgumentException if the repository already contains the replacement as another flight
+     */
+    public synchronized boolean update(Flight oldFlight, Flight newFlight) {
+        Integer position = positions.get(oldFlight);
+        if (position == null)
+            return false;
+        if (newFlight != oldFlight)
+            checkAbsent(Objects.requireNonNull(newFlight));
+        positions.remove(oldFlight);
+        positions.put(newFlight, position);
+        slots.set(position, newFlight);
+        changed();
+        for (ChangeListener<Flight> listener : listeners) {
+            listener.onUpdate(oldFlight, newFlight);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the flight, e.g. after it was cancelled.
+     *
+     * @param flight flight of the repository
+     * @return false if the repository does not contain the flight
+     */
+    public synchronized boolean delete(Flight flight) {
+        Integer position = positions.remove(flight);
+        if (position == null)
+            return false;
+        slots.set(position, null);
+        if (++deletedCount > slots.size() / 2)
+            compact();
+        changed();
+        for (ChangeListener<Flight> listener : listeners) {
+            listener.onDelete(flight);
+        }
+        return true;
+    }
+
+    private void checkAbsent(Flight flight) {
+        if (positions.containsKey(flight))
+            throw new IllegalArgumentException("FlightsRepository: the flight is already in the repository");
+    }
+
+    /**
+     * Removes the empty slots, keeping the order of the flights.
+     */
+    private void compact() {
+        int size = 0;
+        for (int i = 0; i < slots.size(); i++) {
+            Flight flight = slots.get(i);
+            if (flight != null) {
+                slots.set(size, flight);
+                positions.put(flight, size++);
+            }
+        }
+        slots.subList(size, slots.size()).clear();
+        deletedCount = 0;
+    }
+
+    private void changed() {
+        snapshot = null;
+        timeIndex = null;
+        version++;
+    }
+
+    /**
+     * Builds the sorted time index over the current flights of the repository.
+     * Once the index exists, <code>FlightsFilter</code> uses it automatically for arrival and departure conditions.
+     *
+     * @return created index
+     */
+    public synchronized FlightTimeIndex createTimeIndex() {
+        if (timeIndex == null)
+            timeIndex = new FlightTimeIndex(getAll());
+        return timeIndex;
+    }
+
+    /**
+     * @return time index of the repository or null if it was not created or the repository has changed since
+     */
+    public FlightTimeIndex getTimeIndex() {
+        return timeIndex;
     }
 }
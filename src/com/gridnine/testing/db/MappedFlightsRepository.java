@@ -0,0 +1,255 @@
+package com.gridnine.testing.db;
+
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.interfaces.Filter;
+import com.gridnine.testing.interfaces.FlightColumns;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightTable;
+import com.gridnine.testing.models.Segment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only flight repository over a memory-mapped binary flight file.
+ * <p>
+ * File format, all numbers are little-endian:
+ * <pre>
+ * header    int magic "FLT1", int version, int flightCount, int segmentCount
+ * offsets   int[flightCount + 1], index of the first segment of each flight, followed by segmentCount
+ * padding   up to a multiple of 8 bytes
+ * departure long[segmentCount], departure times of the segments, epoch seconds (UTC)
+ * arrival   long[segmentCount], arrival times of the segments, epoch seconds (UTC)
+ * </pre>
+ * The file is mapped with <code>FileChannel.map</code> and never copied into the heap: opening it takes constant time,
+ * the data is paged in on demand, and the page cache is shared by all processes mapping the same file.
+ * <code>FlightsFilter</code> scans the mapped columns directly through the <code>{@link FlightColumns}</code> interface,
+ * only the matching flights are materialized. Times are stored with a precision of one second.
+ */
+public class MappedFlightsRepository implements DataBaseInterface<Flight>, FlightColumns {
+    private static final int MAGIC = 0x31544C46;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    /**
+     * A single mapping cannot exceed 2 GB, larger columns are mapped in chunks of this size.
+     */
+    private static final int CHUNK_SHIFT = 30;
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private final int flightCount;
+    private final int segmentCount;
+    private final MappedColumn segmentOffsets;
+    private final MappedColumn departureEpochs;
+    private final MappedColumn arrivalEpochs;
+    private final List<Flight> flightList = new MappedFlightList();
+
+    /**
+     * Column of fixed-size numbers mapped in chunks.
+     */
+    private static final class MappedColumn {
+        private final ByteBuffer[] chunks;
+        private final int elementShift;
+
+        private MappedColumn(FileChannel channel, long position, long elementCount, int elementShift) throws IOException {
+            long size = elementCount << elementShift;
+            this.chunks = new ByteBuffer[(int) ((size >>> CHUNK_SHIFT) + 1)];
+            this.elementShift = elementShift;
+            for (int i = 0; i < chunks.length; i++) {
+                long chunkPosition = (long) i << CHUNK_SHIFT;
+                long chunkSize = Math.min(1L << CHUNK_SHIFT, size - chunkPosition);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + chunkPosition, chunkSize).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        private int getInt(int index) {
+            long position = (long) index << elementShift;
+            return chunks[(int) (position >>> CHUNK_SHIFT)].getInt((int) (position & ((1L << CHUNK_SHIFT) - 1)));
+        }
+
+        private long getLong(int index) {
+            long position = (long) index << elementShift;
+            return chunks[(int) (position >>> CHUNK_SHIFT)].getLong((int) (position & ((1L << CHUNK_SHIFT) - 1)));
+        }
+    }
+
+    /**
+     * Flights of the file, materialized on access.
+     */
+    private final class MappedFlightList extends AbstractList<Flight> implements RandomAccess {
+        @Override
+        public Flight get(int index) {
+            return getFlight(index);
+        }
+
+        @Override
+        public int size() {
+            return flightCount;
+        }
+    }
+
+    /**
+     * Maps the flight file.
+     *
+     * @param path path of the flight file
+     * @throws IOException if the file cannot be read or is not a valid flight file
+     */
+    public MappedFlightsRepository(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, channel.size())).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.limit() < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException("MappedFlightsRepository: " + path + " is not a flight file of version " + VERSION);
+            this.flightCount = header.getInt(8);
+            this.segmentCount = header.getInt(12);
+            long departurePosition = getDeparturePosition(Math.max(0, flightCount));
+            long arrivalPosition = departurePosition + ((long) segmentCount << 3);
+            if (flightCount < 0 || segmentCount < 0 || channel.size() != arrivalPosition + ((long) segmentCount << 3))
+                throw new IOException("MappedFlightsRepository: " + path + " has a wrong size");
+            this.segmentOffsets = new MappedColumn(channel, HEADER_SIZE, flightCount + 1L, 2);
+            this.departureEpochs = new MappedColumn(channel, departurePosition, segmentCount, 3);
+            this.arrivalEpochs = new MappedColumn(channel, arrivalPosition, segmentCount, 3);
+        }
+    }
+
+    private static long getDeparturePosition(int flightCount) {
+        long offsetsEnd = HEADER_SIZE + ((flightCount + 1L) << 2);
+        return (offsetsEnd + 7) & ~7L;
+    }
+
+    /**
+     * Writes the flights to a flight file.
+     *
+     * @param path       path of the flight file, an existing file is replaced
+     * @param flightList flights to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, List<Flight> flightList) throws IOException {
+        write(path, FlightTable.of(flightList));
+    }
+
+    /**
+     * Writes the columnar flights to a flight file.
+     *
+     * @param path    path of the flight file, an existing file is replaced
+     * @param columns flights to write
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, FlightColumns columns) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(columns.getFlightCount()).putInt(columns.getSegmentCount());
+            for (int flight = 0; flight < columns.getFlightCount(); flight++) {
+                flushIfFull(channel, buffer, Integer.BYTES).putInt(columns.getSegmentStart(flight));
+            }
+            flushIfFull(channel, buffer, Integer.BYTES).putInt(columns.getSegmentCount());
+            long padding = getDeparturePosition(columns.getFlightCount()) - HEADER_SIZE - ((columns.getFlightCount() + 1L) << 2);
+            for (int i = 0; i < padding; i++) {
+                flushIfFull(channel, buffer, Byte.BYTES).put((byte) 0);
+            }
+            for (int segment = 0; segment < columns.getSegmentCount(); segment++) {
+                flushIfFull(channel, buffer, Long.BYTES).putLong(columns.getDepartureEpoch(segment));
+            }
+            for (int segment = 0; segment < columns.getSegmentCount(); segment++) {
+                flushIfFull(channel, buffer, Long.BYTES).putLong(columns.getArrivalEpoch(segment));
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static ByteBuffer flushIfFull(FileChannel channel, ByteBuffer buffer, int required) throws IOException {
+        if (buffer.remaining() < required)
+            flush(channel, buffer);
+        return buffer;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Materializes one flight of the file.
+     *
+     * @param flightIndex index of the flight
+     * @return flight
+     */
+    public Flight getFlight(int flightIndex) {
+        int start = getSegmentStart(flightIndex);
+        int end = getSegmentEnd(flightIndex);
+        List<Segment> segments = new ArrayList<>(end - start);
+        for (int segment = start; segment < end; segment++) {
+            segments.add(new Segment(
+                    LocalDateTime.ofEpochSecond(getDepartureEpoch(segment), 0, ZoneOffset.UTC),
+                    LocalDateTime.ofEpochSecond(getArrivalEpoch(segment), 0, ZoneOffset.UTC)));
+        }
+        return new Flight(segments);
+    }
+
+    /**
+     * @return view of all flights of the file; every access to an element materializes the flight again
+     */
+    @Override
+    public List<Flight> getAll() {
+        return flightList;
+    }
+
+    /**
+     * Answers a <code>FlightsFilter</code> from the columns of the file: only the matching flights are materialized.
+     *
+     * @param filter filter of the flights
+     * @return flights that pass the filter, in the order of the file
+     */
+    @Override
+    public List<Flight> scan(Filter<List<Flight>> filter) {
+        if (!(filter instanceof FlightsFilter))
+            return filter.filter(flightList);
+        int[] flightIndices = ((FlightsFilter) filter).filterIndices(this);
+        List<Flight> filteredFlights = new ArrayList<>(flightIndices.length);
+        for (int flightIndex : flightIndices) {
+            filteredFlights.add(getFlight(flightIndex));
+        }
+        return filteredFlights;
+    }
+
+    @Override
+    public int getFlightCount() {
+        return flightCount;
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    @Override
+    public int getSegmentStart(int flightIndex) {
+        return segmentOffsets.getInt(flightIndex);
+    }
+
+    @Override
+    public int getSegmentEnd(int flightIndex) {
+        return segmentOffsets.getInt(flightIndex + 1);
+    }
+
+    @Override
+    public long getDepartureEpoch(int segmentIndex) {
+        return departureEpochs.getLong(segmentIndex);
+    }
+
+    @Override
+    public long getArrivalEpoch(int segmentIndex) {
+        return arrivalEpochs.getLong(segmentIndex);
+    }
+}
@@ -0,0 +1,171 @@
+package com.gridnine.testing.db;
+
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.Flight;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of filter results, used by <code>{@link FlightsDao#query(FlightsFilter)}</code>.
+ * <p>
+ * Results are keyed by the condition set of the filter (see <code>{@link FlightsFilter#equals(Object)}</code>),
+ * so filters built separately with the same conditions share one entry. The least recently used entries are evicted
+ * when the number of entries or the total number of cached flights exceeds its limit.
+ * All entries belong to one version of the data: a result of another version is never returned by <code>get()</code>,
+ * and the cache is cleared as soon as a newer version is seen. The cleared results are kept as previous results, within
+ * the same limits, so <code>getPrevious()</code> can answer with the latest older result of a filter while its query
+ * is executed again.
+ * Hit, miss, eviction and invalidation counters allow to size the cache.
+ */
+public class QueryCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_MAX_CACHED_FLIGHTS = 10_000_000;
+    private final int maxEntries;
+    private final long maxCachedFlights;
+    private final LinkedHashMap<FlightsFilter, List<Flight>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<FlightsFilter, List<Flight>> previousEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long version = Long.MIN_VALUE;
+    private long cachedFlights;
+    private long previousCachedFlights;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    public QueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_CACHED_FLIGHTS);
+    }
+
+    /**
+     * @param maxEntries       maximum number of cached results
+     * @param maxCachedFlights maximum total number of flights in the cached results
+     */
+    public QueryCache(int maxEntries, long maxCachedFlights) {
+        if (maxEntries < 0 || maxCachedFlights < 0)
+            throw new IllegalArgumentException("QueryCache: limits must not be negative");
+        this.maxEntries = maxEntries;
+        this.maxCachedFlights = maxCachedFlights;
+    }
+
+    private void checkVersion(long dataVersion) {
+        if (dataVersion != version) {
+            if (!entries.isEmpty())
+                invalidationCount++;
+            for (Map.Entry<FlightsFilter, List<Flight>> entry : entries.entrySet()) {
+                List<Flight> replaced = previousEntries.put(entry.getKey(), entry.getValue());
+                previousCachedFlights += entry.getValue().size() - (replaced == null ? 0 : replaced.size());
+            }
+            previousCachedFlights = evict(previousEntries, previousCachedFlights);
+            entries.clear();
+            cachedFlights = 0;
+            version = dataVersion;
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the entries are within the limits.
+     *
+     * @return number of flights in the remaining entries
+     */
+    private long evict(LinkedHashMap<FlightsFilter, List<Flight>> map, long flights) {
+        Iterator<Map.Entry<FlightsFilter, List<Flight>>> eldest = map.entrySet().iterator();
+        while (map.size() > maxEntries || flights > maxCachedFlights) {
+            flights -= eldest.next().getValue().size();
+            eldest.remove();
+        }
+        return flights;
+    }
+
+    /**
+     * @param flightsFilter filter of the query
+     * @param dataVersion   current version of the data
+     * @return cached result or null if there is none for this version of the data
+     */
+    public synchronized List<Flight> get(FlightsFilter flightsFilter, long dataVersion) {
+        if (dataVersion == version) {
+            List<Flight> result = entries.get(flightsFilter);
+            if (result != null) {
+                hitCount++;
+                return result;
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * @param flightsFilter filter of the query
+     * @param dataVersion   current version of the data
+     * @return result of the filter cached for the latest version older than the current one, or null if there is none
+     */
+    public synchronized List<Flight> getPrevious(FlightsFilter flightsFilter, long dataVersion) {
+        List<Flight> result = version < dataVersion ? entries.get(flightsFilter) : null;
+        return result != null ? result : previousEntries.get(flightsFilter);
+    }
+
+    /**
+     * Caches the result, unless it was computed from older data than the cached results.
+     *
+     * @param flightsFilter filter of the query
+     * @param dataVersion   version of the data the result was computed from
+     * @param result        unmodifiable result of the query
+     */
+    public synchronized void put(FlightsFilter flightsFilter, long dataVersion, List<Flight> result) {
+        if (dataVersion < version || result.size() > maxCachedFlights || maxEntries == 0)
+            return;
+        checkVersion(dataVersion);
+        List<Flight> previous = entries.put(flightsFilter, result);
+        cachedFlights += result.size() - (previous == null ? 0 : previous.size());
+        int size = entries.size();
+        cachedFlights = evict(entries, cachedFlights);
+        evictionCount += size - entries.size();
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public synchronized void clear() {
+        if (!entries.isEmpty())
+            invalidationCount++;
+        entries.clear();
+        previousEntries.clear();
+        cachedFlights = 0;
+        previousCachedFlights = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getCachedFlights() {
+        return cachedFlights;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return number of times the cache was cleared because of a data version change or a <code>clear()</code> call
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{size=" + entries.size() + ", cachedFlights=" + cachedFlights + ", hits=" + hitCount
+                + ", misses=" + missCount + ", evictions=" + evictionCount + ", invalidations=" + invalidationCount + '}';
+    }
+}
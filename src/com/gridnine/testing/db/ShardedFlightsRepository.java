@@ -0,0 +1,183 @@
+package com.gridnine.testing.db;
+
+import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.interfaces.Filter;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.Segment;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Read-only flight repository partitioned into independent shards by a key of the flight, e.g. the departure day.
+ * <p>
+ * Every shard keeps the range of the departure and arrival times of its segments. <code>FlightsFilter</code> skips the
+ * shards whose ranges cannot satisfy the arrival and departure conditions and filters the remaining shards
+ * independently, in parallel if the execution mode of the filter allows it. Since a shard is a data base of its own,
+ * shards can also be served by different processes.
+ * <p>
+ * Shards are ordered by the first occurrence of their key in the source list, <code>getAll()</code> returns the flights
+ * shard by shard.
+ */
+public class ShardedFlightsRepository implements DataBaseInterface<Flight> {
+    private final List<Shard> shards;
+    private final List<Flight> flightList;
+
+    /**
+     * Flights of one shard with the range of their segment times.
+     */
+    public static final class Shard implements DataBaseInterface<Flight> {
+        private final Object key;
+        private final List<Flight> flightList;
+        private long minDeparture = Long.MAX_VALUE;
+        private long maxDeparture = Long.MIN_VALUE;
+        private long minArrival = Long.MAX_VALUE;
+        private long maxArrival = Long.MIN_VALUE;
+
+        private Shard(Object key, List<Flight> flightList) {
+            this.key = key;
+            this.flightList = Collections.unmodifiableList(flightList);
+            for (Flight flight : flightList) {
+                for (Segment segment : flight.getSegments()) {
+                    long departure = segment.getDepartureDate().toEpochSecond(ZoneOffset.UTC);
+                    long arrival = segment.getArrivalDate().toEpochSecond(ZoneOffset.UTC);
+                    minDeparture = Math.min(minDeparture, departure);
+                    maxDeparture = Math.max(maxDeparture, departure);
+                    minArrival = Math.min(minArrival, arrival);
+                    maxArrival = Math.max(maxArrival, arrival);
+                }
+            }
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public List<Flight> getAll() {
+            return flightList;
+        }
+
+        /**
+         * @param type target type
+         * @return earliest time of the target in the shard, <code>Long.MAX_VALUE</code> if the shard has no segments
+         */
+        public long getMinEpoch(FlightFilterType type) {
+            return type == FlightFilterType.ARRIVAL ? minArrival : minDeparture;
+        }
+
+        /**
+         * @param type target type
+         * @return latest time of the target in the shard, <code>Long.MIN_VALUE</code> if the shard has no segments
+         */
+        public long getMaxEpoch(FlightFilterType type) {
+            return type == FlightFilterType.ARRIVAL ? maxArrival : maxDeparture;
+        }
+
+        /**
+         * A flight satisfying the conditions reduced to <code>[lowerBound, upperBound]</code> has a segment with time
+         * not earlier than the lower bound and a segment with time not later than the upper bound.
+         *
+         * @param type       target type
+         * @param lowerBound lowest time allowed by the conditions of the target
+         * @param upperBound highest time allowed by the conditions of the target
+         * @return false if no flight of the shard can satisfy the conditions
+         */
+        public boolean mayMatch(FlightFilterType type, long lowerBound, long upperBound) {
+            return getMaxEpoch(type) >= lowerBound && getMinEpoch(type) <= upperBound;
+        }
+    }
+
+    /**
+     * @param flightList flights to partition
+     * @param shardKey   key of the shard of a flight
+     */
+    public ShardedFlightsRepository(List<Flight> flightList, Function<Flight, ?> shardKey) {
+        Map<Object, List<Flight>> partitions = new LinkedHashMap<>();
+        for (Flight flight : flightList) {
+            partitions.computeIfAbsent(shardKey.apply(flight), key -> new ArrayList<>()).add(flight);
+        }
+        List<Shard> shardList = new ArrayList<>(partitions.size());
+        List<Flight> allFlights = new ArrayList<>(flightList.size());
+        for (Map.Entry<Object, List<Flight>> partition : partitions.entrySet()) {
+            shardList.add(new Shard(partition.getKey(), partition.getValue()));
+            allFlights.addAll(partition.getValue());
+        }
+        this.shards = Collections.unmodifiableList(shardList);
+        this.flightList = Collections.unmodifiableList(allFlights);
+    }
+
+    /**
+     * Partitions the flights by the day (UTC) of their first departure.
+     *
+     * @param flightList flights to partition
+     * @return ShardedFlightsRepository
+     */
+    public static ShardedFlightsRepository byDepartureDay(List<Flight> flightList) {
+        return new ShardedFlightsRepository(flightList, ShardedFlightsRepository::getDepartureDay);
+    }
+
+    private static LocalDate getDepartureDay(Flight flight) {
+        return flight.getSegments().isEmpty() ? null : flight.getSegments().get(0).getDepartureDate().toLocalDate();
+    }
+
+    @Override
+    public List<Flight> getAll() {
+        return flightList;
+    }
+
+    /**
+     * Scatter-gather of a <code>FlightsFilter</code> over the shards that may match, in the execution mode of the
+     * filter. In parallel execution every shard is filtered by its own task.
+     *
+     * @param filter filter of the flights
+     * @return flights that pass the filter, in the order of the shards
+     */
+    @Override
+    public List<Flight> scan(Filter<List<Flight>> filter) {
+        if (!(filter instanceof FlightsFilter))
+            return filter.filter(flightList);
+        FlightsFilter flightsFilter = (FlightsFilter) filter;
+        List<Shard> candidateShards = new ArrayList<>();
+        int candidateFlightCount = 0;
+        for (Shard shard : shards) {
+            if (mayMatch(shard, flightsFilter)) {
+                candidateShards.add(shard);
+                candidateFlightCount += shard.getAll().size();
+            }
+        }
+        return flightsFilter.filterParts(candidateShards, candidateFlightCount, shardList -> {
+            List<Flight> filteredFlights = new ArrayList<>();
+            for (Shard shard : shardList) {
+                for (Flight flight : shard.getAll()) {
+                    if (flightsFilter.test(flight))
+                        filteredFlights.add(flight);
+                }
+            }
+            return filteredFlights;
+        });
+    }
+
+    private static boolean mayMatch(Shard shard, FlightsFilter flightsFilter) {
+        for (FlightFilterType type : FlightFilterType.values()) {
+            if (flightsFilter.hasConditions(type) && !shard.mayMatch(type, flightsFilter.getLowerBound(type), flightsFilter.getUpperBound(type)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return unmodifiable list of the shards
+     */
+    public List<Shard> getShards() {
+        return shards;
+    }
+}
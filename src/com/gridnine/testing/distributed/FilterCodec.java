@@ -0,0 +1,188 @@
+package com.gridnine.testing.distributed;
+
+import com.gridnine.testing.enums.ExpressionType;
+import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FlightAggregate;
+import com.gridnine.testing.filter.FlightExpression;
+import com.gridnine.testing.filter.FlightsFilter;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary wire format of the condition sets of a <code>{@link FlightsFilter}</code>.
+ * <pre>
+ * byte     format version: 1 for a filter without an expression, 2 otherwise
+ * filter:
+ *   byte     flags, bit 0: allowInvalidFlights, other bits must be 0
+ *   for every target: arrival, departure, idle, then the aggregates in the order of {@link FlightAggregate}
+ *     byte   bit set of the operators of the target, bit i stands for FilterOperator.values()[i]
+ *     varint zigzag-encoded operand of every operator of the set, in the order of the bits
+ *   expression, version 2 only
+ * expression:
+ *   byte     0: none, otherwise 1 + ordinal of the {@link ExpressionType}
+ *   CONDITIONS: filter
+ *   AND, OR:    varint number of operands, then every operand as an expression
+ *   NOT:        operand as an expression
+ * </pre>
+ * A filter with one epoch time condition takes 13 bytes. The execution mode is not encoded: the receiver chooses its own.
+ * Decoded expressions are planned again by the receiver.
+ */
+public final class FilterCodec {
+    private static final int FORMAT_VERSION = 1;
+    private static final int EXPRESSION_FORMAT_VERSION = 2;
+    private static final int ALLOW_INVALID_FLIGHTS = 1;
+    private static final int NO_EXPRESSION = 0;
+    /**
+     * Deepest nesting of expressions accepted by <code>decode()</code>.
+     */
+    private static final int MAX_EXPRESSION_DEPTH = 64;
+
+    private FilterCodec() {
+    }
+
+    /**
+     * @param flightsFilter filter to encode
+     * @return encoded condition sets
+     */
+    public static byte[] encode(FlightsFilter flightsFilter) {
+        WireBuffer buffer = new WireBuffer();
+        boolean hasExpression = flightsFilter.getExpression() != null;
+        buffer.writeByte(hasExpression ? EXPRESSION_FORMAT_VERSION : FORMAT_VERSION);
+        writeFilter(buffer, flightsFilter, hasExpression);
+        return buffer.toByteArray();
+    }
+
+    private static void writeFilter(WireBuffer buffer, FlightsFilter flightsFilter, boolean withExpression) {
+        buffer.writeByte(flightsFilter.isAllowInvalidFlights() ? ALLOW_INVALID_FLIGHTS : 0);
+        for (Map<FilterOperator, Long> conditionMap : getConditionMaps(flightsFilter)) {
+            int operatorSet = 0;
+            for (FilterOperator operator : conditionMap.keySet()) {
+                operatorSet |= 1 << operator.ordinal();
+            }
+            buffer.writeByte(operatorSet);
+            for (Long operand : conditionMap.values()) {
+                buffer.writeSignedVarLong(operand);
+            }
+        }
+        if (withExpression)
+            writeExpression(buffer, flightsFilter.getExpression());
+    }
+
+    private static void writeExpression(WireBuffer buffer, FlightExpression expression) {
+        if (expression == null) {
+            buffer.writeByte(NO_EXPRESSION);
+            return;
+        }
+        buffer.writeByte(1 + expression.getType().ordinal());
+        switch (expression.getType()) {
+            case CONDITIONS:
+                writeFilter(buffer, expression.getConditions(), true);
+                break;
+            case AND:
+            case OR:
+                buffer.writeVarLong(expression.getOperands().size());
+                for (FlightExpression operand : expression.getOperands()) {
+                    writeExpression(buffer, operand);
+                }
+                break;
+            case NOT:
+                writeExpression(buffer, expression.getOperands().get(0));
+                break;
+        }
+    }
+
+    /**
+     * @param bytes encoded condition sets
+     * @return sequential filter with the decoded condition sets
+     * @throws IllegalArgumentException if the bytes are not a filter of a supported format version
+     */
+    public static FlightsFilter decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            int version = buffer.get();
+            if (version != FORMAT_VERSION && version != EXPRESSION_FORMAT_VERSION)
+                throw new IllegalArgumentException("FilterCodec: unsupported format version");
+            FlightsFilter flightsFilter = readFilter(buffer, version == EXPRESSION_FORMAT_VERSION, 0);
+            if (buffer.hasRemaining())
+                throw new IllegalArgumentException("FilterCodec: unexpected bytes after the filter");
+            return flightsFilter;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("FilterCodec: truncated filter", e);
+        }
+    }
+
+    private static FlightsFilter readFilter(ByteBuffer buffer, boolean withExpression, int depth) {
+        int flags = buffer.get() & 0xFF;
+        if ((flags & ~ALLOW_INVALID_FLIGHTS) != 0)
+            throw new IllegalArgumentException("FilterCodec: unknown flags");
+        boolean allowInvalidFlights = (flags & ALLOW_INVALID_FLIGHTS) != 0;
+        List<Map<FilterOperator, Long>> conditionMaps = new ArrayList<>();
+        for (int target = 0; target < 3 + FlightAggregate.values().length; target++) {
+            int operatorSet = buffer.get() & 0xFF;
+            if (operatorSet >>> FilterOperator.values().length != 0)
+                throw new IllegalArgumentException("FilterCodec: unknown operator");
+            Map<FilterOperator, Long> conditionMap = new EnumMap<>(FilterOperator.class);
+            for (FilterOperator operator : FilterOperator.values()) {
+                if ((operatorSet & (1 << operator.ordinal())) != 0)
+                    conditionMap.put(operator, WireBuffer.readSignedVarLong(buffer));
+            }
+            conditionMaps.add(conditionMap);
+        }
+        Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap = new EnumMap<>(FlightAggregate.class);
+        for (FlightAggregate aggregate : FlightAggregate.values()) {
+            aggregateStatementsMap.put(aggregate, conditionMaps.get(3 + aggregate.ordinal()));
+        }
+        FlightExpression expression = withExpression ? readExpression(buffer, depth) : null;
+        return new FlightsFilter(conditionMaps.get(0), conditionMaps.get(1), conditionMaps.get(2), aggregateStatementsMap, expression, allowInvalidFlights);
+    }
+
+    private static FlightExpression readExpression(ByteBuffer buffer, int depth) {
+        if (depth >= MAX_EXPRESSION_DEPTH)
+            throw new IllegalArgumentException("FilterCodec: expression is nested too deeply");
+        int tag = buffer.get() & 0xFF;
+        if (tag == NO_EXPRESSION)
+            return null;
+        if (tag > ExpressionType.values().length)
+            throw new IllegalArgumentException("FilterCodec: unknown expression type");
+        switch (ExpressionType.values()[tag - 1]) {
+            case CONDITIONS:
+                return FlightExpression.of(readFilter(buffer, true, depth + 1));
+            case AND:
+                return FlightExpression.and(readOperands(buffer, depth));
+            case OR:
+                return FlightExpression.or(readOperands(buffer, depth));
+            default:
+            case NOT:
+                FlightExpression operand = readExpression(buffer, depth + 1);
+                if (operand == null)
+                    throw new IllegalArgumentException("FilterCodec: missing operand");
+                return FlightExpression.not(operand);
+        }
+    }
+
+    private static FlightExpression[] readOperands(ByteBuffer buffer, int depth) {
+        FlightExpression[] operands = new FlightExpression[WireBuffer.readCount(buffer)];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = readExpression(buffer, depth + 1);
+            if (operands[i] == null)
+                throw new IllegalArgumentException("FilterCodec: missing operand");
+        }
+        return operands;
+    }
+
+    private static List<Map<FilterOperator, Long>> getConditionMaps(FlightsFilter flightsFilter) {
+        List<Map<FilterOperator, Long>> conditionMaps = new ArrayList<>();
+        conditionMaps.add(flightsFilter.getArrivalStatementsMap());
+        conditionMaps.add(flightsFilter.getDepartureStatementsMap());
+        conditionMaps.add(flightsFilter.getIdleStatementsMap());
+        for (FlightAggregate aggregate : FlightAggregate.values()) {
+            conditionMaps.add(flightsFilter.getAggregateStatementsMap().getOrDefault(aggregate, Map.of()));
+        }
+        return conditionMaps;
+    }
+}
@@ -0,0 +1,59 @@
+package com.gridnine.testing.distributed;
+
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.models.Flight;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Coordinator of distributed filtering. Every worker owns a partition of the flights; the coordinator encodes the
+ * condition sets of a filter once, broadcasts them to all workers through the <code>{@link FilterTransport}</code>
+ * and gathers the matching flights.
+ * <p>
+ * The result lists the flights of the workers in the order of the workers. If any worker fails, the whole request
+ * fails.
+ */
+public class FilterCoordinator {
+    private final FilterTransport transport;
+
+    /**
+     * @param transport transport to the workers
+     */
+    public FilterCoordinator(FilterTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Filters the flights of all workers.
+     *
+     * @param flightsFilter filter to broadcast
+     * @return future of the flights that satisfy all conditions
+     */
+    public CompletableFuture<List<Flight>> filterAsync(FlightsFilter flightsFilter) {
+        byte[] request = FilterCodec.encode(flightsFilter);
+        List<CompletableFuture<List<Flight>>> responses = new ArrayList<>(transport.getWorkerCount());
+        for (int worker = 0; worker < transport.getWorkerCount(); worker++) {
+            responses.add(transport.send(worker, request).thenApply(FlightCodec::decode));
+        }
+        return CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<Flight> result = new ArrayList<>();
+            for (CompletableFuture<List<Flight>> response : responses) {
+                result.addAll(response.join());
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Filters the flights of all workers and waits for the result.
+     *
+     * @param flightsFilter filter to broadcast
+     * @return flights that satisfy all conditions
+     * @throws java.util.concurrent.CompletionException if a worker failed
+     */
+    public List<Flight> filter(FlightsFilter flightsFilter) {
+        return filterAsync(flightsFilter).join();
+    }
+}
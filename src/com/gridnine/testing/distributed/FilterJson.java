@@ -0,0 +1,347 @@
+package com.gridnine.testing.distributed;
+
+import com.gridnine.testing.enums.ExpressionType;
+import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FlightAggregate;
+import com.gridnine.testing.filter.FlightExpression;
+import com.gridnine.testing.filter.FlightsFilter;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JSON wire format of the condition sets of a <code>{@link FlightsFilter}</code>:
+ * <pre>
+ * {"arrival":{"gte":1704067200,"lt":1704153600},"idle":{"gt":7200},"removeInvalidFlights":true}
+ * </pre>
+ * Targets are <code>arrival</code>, <code>departure</code>, <code>idle</code>, <code>totalIdle</code>,
+ * <code>maxIdle</code> and <code>duration</code>, each an object of operators <code>eq</code>, <code>gt</code>,
+ * <code>gte</code>, <code>lt</code>, <code>lte</code> with integer operands (epoch seconds or seconds). Absent targets
+ * have no conditions. An <code>expression</code> is one of <code>{"conditions":filter}</code>,
+ * <code>{"and":[expressions]}</code>, <code>{"or":[expressions]}</code> and <code>{"not":expression}</code>.
+ * <p>
+ * <code>toJson()</code> writes the canonical form: targets and operators in the order above, no whitespace, empty
+ * targets and a false flag omitted. <code>fromJson()</code> reads any order and whitespace. The parser works directly
+ * on the characters of the input: keys are matched in place and numbers are accumulated digit by digit, without
+ * tokens or substrings. Unknown keys, duplicate operators and malformed input are rejected.
+ */
+public final class FilterJson {
+    private static final String[] TARGET_NAMES = {"arrival", "departure", "idle", "totalIdle", "maxIdle", "duration"};
+    private static final String[] OPERATOR_NAMES = {"eq", "gte", "gt", "lt", "lte"};
+    private static final String REMOVE_INVALID_FLIGHTS = "removeInvalidFlights";
+    private static final String EXPRESSION = "expression";
+    private static final String CONDITIONS = "conditions";
+    private static final String AND = "and";
+    private static final String OR = "or";
+    private static final String NOT = "not";
+    /**
+     * Deepest nesting of expressions accepted by <code>fromJson()</code>.
+     */
+    private static final int MAX_EXPRESSION_DEPTH = 64;
+
+    private FilterJson() {
+    }
+
+    /**
+     * @param flightsFilter filter to write
+     * @return canonical JSON of the condition sets
+     */
+    public static String toJson(FlightsFilter flightsFilter) {
+        StringBuilder json = new StringBuilder();
+        writeFilter(json, flightsFilter);
+        return json.toString();
+    }
+
+    private static void writeFilter(StringBuilder json, FlightsFilter flightsFilter) {
+        json.append('{');
+        List<Map<FilterOperator, Long>> conditionMaps = getConditionMaps(flightsFilter);
+        boolean first = true;
+        for (int target = 0; target < TARGET_NAMES.length; target++) {
+            Map<FilterOperator, Long> conditionMap = conditionMaps.get(target);
+            if (conditionMap.isEmpty())
+                continue;
+            first = writeKey(json, TARGET_NAMES[target], first);
+            json.append('{');
+            boolean firstCondition = true;
+            for (Map.Entry<FilterOperator, Long> condition : conditionMap.entrySet()) {
+                firstCondition = writeKey(json, OPERATOR_NAMES[condition.getKey().ordinal()], firstCondition);
+                json.append(condition.getValue().longValue());
+            }
+            json.append('}');
+        }
+        if (!flightsFilter.isAllowInvalidFlights()) {
+            first = writeKey(json, REMOVE_INVALID_FLIGHTS, first);
+            json.append("true");
+        }
+        if (flightsFilter.getExpression() != null) {
+            writeKey(json, EXPRESSION, first);
+            writeExpression(json, flightsFilter.getExpression());
+        }
+        json.append('}');
+    }
+
+    private static void writeExpression(StringBuilder json, FlightExpression expression) {
+        json.append('{');
+        switch (expression.getType()) {
+            case CONDITIONS:
+                writeKey(json, CONDITIONS, true);
+                writeFilter(json, expression.getConditions());
+                break;
+            case AND:
+            case OR:
+                writeKey(json, expression.getType() == ExpressionType.AND ? AND : OR, true);
+                json.append('[');
+                for (int i = 0; i < expression.getOperands().size(); i++) {
+                    if (i > 0)
+                        json.append(',');
+                    writeExpression(json, expression.getOperands().get(i));
+                }
+                json.append(']');
+                break;
+            case NOT:
+                writeKey(json, NOT, true);
+                writeExpression(json, expression.getOperands().get(0));
+                break;
+        }
+        json.append('}');
+    }
+
+    private static boolean writeKey(StringBuilder json, String key, boolean first) {
+        if (!first)
+            json.append(',');
+        json.append('"').append(key).append("\":");
+        return false;
+    }
+
+    /**
+     * @param json JSON of the condition sets
+     * @return sequential filter with the parsed condition sets
+     * @throws IllegalArgumentException if the input is not a valid filter
+     */
+    public static FlightsFilter fromJson(CharSequence json) {
+        Reader reader = new Reader(json);
+        FlightsFilter flightsFilter = reader.readFilter(0);
+        reader.skipWhitespace();
+        if (reader.position != json.length())
+            throw reader.error("unexpected characters after the filter");
+        return flightsFilter;
+    }
+
+    private static List<Map<FilterOperator, Long>> getConditionMaps(FlightsFilter flightsFilter) {
+        List<Map<FilterOperator, Long>> conditionMaps = new ArrayList<>();
+        conditionMaps.add(flightsFilter.getArrivalStatementsMap());
+        conditionMaps.add(flightsFilter.getDepartureStatementsMap());
+        conditionMaps.add(flightsFilter.getIdleStatementsMap());
+        for (FlightAggregate aggregate : FlightAggregate.values()) {
+            conditionMaps.add(flightsFilter.getAggregateStatementsMap().getOrDefault(aggregate, Map.of()));
+        }
+        return conditionMaps;
+    }
+
+    /**
+     * Parser over the characters of the input.
+     */
+    private static final class Reader {
+        private final CharSequence json;
+        private int position;
+
+        private Reader(CharSequence json) {
+            this.json = json;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("FilterJson: " + message + " at position " + position);
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length()) {
+                char c = json.charAt(position);
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                    return;
+                position++;
+            }
+        }
+
+        private void expect(char expected) {
+            skipWhitespace();
+            if (position >= json.length() || json.charAt(position) != expected)
+                throw error("'" + expected + "' expected");
+            position++;
+        }
+
+        /**
+         * @return true and consumes the character if it is next in the input
+         */
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (position < json.length() && json.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Reads a quoted key and matches it in place against the names.
+         *
+         * @return index of the matching name
+         */
+        private int readKey(String... names) {
+            expect('"');
+            int start = position;
+            while (position < json.length() && json.charAt(position) != '"') {
+                if (json.charAt(position) == '\\')
+                    throw error("escaped keys are not supported");
+                position++;
+            }
+            if (position >= json.length())
+                throw error("unterminated key");
+            int length = position - start;
+            position++;
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].length() == length && regionMatches(start, names[i]))
+                    return i;
+            }
+            position = start;
+            throw error("unknown key");
+        }
+
+        private boolean regionMatches(int start, String name) {
+            for (int i = 0; i < name.length(); i++) {
+                if (json.charAt(start + i) != name.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+
+        private long readLong() {
+            skipWhitespace();
+            boolean negative = consume('-');
+            int start = position;
+            long value = 0;
+            while (position < json.length() && json.charAt(position) >= '0' && json.charAt(position) <= '9') {
+                int digit = json.charAt(position) - '0';
+                // accumulated as a negative number, which also holds Long.MIN_VALUE
+                if (value < (Long.MIN_VALUE + digit) / 10)
+                    throw error("number out of range");
+                value = value * 10 - digit;
+                position++;
+            }
+            if (position == start)
+                throw error("number expected");
+            if (!negative && value == Long.MIN_VALUE)
+                throw error("number out of range");
+            return negative ? value : -value;
+        }
+
+        private boolean readBoolean() {
+            skipWhitespace();
+            if (matchesAhead("true")) {
+                position += 4;
+                return true;
+            }
+            if (matchesAhead("false")) {
+                position += 5;
+                return false;
+            }
+            throw error("boolean expected");
+        }
+
+        private boolean matchesAhead(String literal) {
+            return position + literal.length() <= json.length() && regionMatches(position, literal);
+        }
+
+        private Map<FilterOperator, Long> readConditions() {
+            Map<FilterOperator, Long> conditionMap = new EnumMap<>(FilterOperator.class);
+            expect('{');
+            if (consume('}'))
+                return conditionMap;
+            do {
+                FilterOperator operator = FilterOperator.values()[readKey(OPERATOR_NAMES)];
+                expect(':');
+                if (conditionMap.put(operator, readLong()) != null)
+                    throw error("duplicate operator");
+            } while (consume(','));
+            expect('}');
+            return conditionMap;
+        }
+
+        private FlightsFilter readFilter(int depth) {
+            List<Map<FilterOperator, Long>> conditionMaps = new ArrayList<>();
+            for (int target = 0; target < TARGET_NAMES.length; target++) {
+                conditionMaps.add(null);
+            }
+            boolean allowInvalidFlights = true;
+            FlightExpression expression = null;
+            expect('{');
+            if (!consume('}')) {
+                do {
+                    int key = readKey(TARGET_NAMES[0], TARGET_NAMES[1], TARGET_NAMES[2], TARGET_NAMES[3], TARGET_NAMES[4],
+                            TARGET_NAMES[5], REMOVE_INVALID_FLIGHTS, EXPRESSION);
+                    expect(':');
+                    if (key < TARGET_NAMES.length) {
+                        if (conditionMaps.get(key) != null)
+                            throw error("duplicate target");
+                        conditionMaps.set(key, readConditions());
+                    } else if (key == TARGET_NAMES.length) {
+                        allowInvalidFlights = !readBoolean();
+                    } else {
+                        expression = readExpression(depth + 1);
+                    }
+                } while (consume(','));
+                expect('}');
+            }
+            Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap = new EnumMap<>(FlightAggregate.class);
+            for (FlightAggregate aggregate : FlightAggregate.values()) {
+                Map<FilterOperator, Long> conditionMap = conditionMaps.get(3 + aggregate.ordinal());
+                if (conditionMap != null)
+                    aggregateStatementsMap.put(aggregate, conditionMap);
+            }
+            return new FlightsFilter(orEmpty(conditionMaps.get(0)), orEmpty(conditionMaps.get(1)), orEmpty(conditionMaps.get(2)),
+                    aggregateStatementsMap, expression, allowInvalidFlights);
+        }
+
+        private static Map<FilterOperator, Long> orEmpty(Map<FilterOperator, Long> conditionMap) {
+            return conditionMap == null ? Map.of() : conditionMap;
+        }
+
+        private FlightExpression readExpression(int depth) {
+            if (depth >= MAX_EXPRESSION_DEPTH)
+                throw error("expression is nested too deeply");
+            expect('{');
+            int type = readKey(CONDITIONS, AND, OR, NOT);
+            expect(':');
+            FlightExpression expression;
+            switch (type) {
+                case 0:
+                    expression = FlightExpression.of(readFilter(depth + 1));
+                    break;
+                case 1:
+                    expression = FlightExpression.and(readOperands(depth));
+                    break;
+                case 2:
+                    expression = FlightExpression.or(readOperands(depth));
+                    break;
+                default:
+                    expression = FlightExpression.not(readExpression(depth + 1));
+                    break;
+            }
+            expect('}');
+            return expression;
+        }
+
+        private FlightExpression[] readOperands(int depth) {
+            List<FlightExpression> operands = new ArrayList<>();
+            expect('[');
+            if (!consume(']')) {
+                do {
+                    operands.add(readExpression(depth + 1));
+                } while (consume(','));
+                expect(']');
+            }
+            return operands.toArray(new FlightExpression[0]);
+        }
+    }
+}
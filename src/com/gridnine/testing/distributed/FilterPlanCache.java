@@ -0,0 +1,165 @@
+package com.gridnine.testing.distributed;
+
+import com.gridnine.testing.filter.FlightsFilter;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of compiled filters for the specs received with every request, in the <code>{@link FilterCodec}</code>
+ * or <code>{@link FilterJson}</code> format.
+ * <p>
+ * A request seen before is answered by its exact bytes or text, without parsing or compiling. A new request is parsed,
+ * and its filter is interned by the condition sets (see <code>{@link FlightsFilter#equals(Object)}</code>): specs
+ * written differently, e.g. with another key order or whitespace, share one compiled filter, which is also the key of
+ * <code>QueryCache</code> and <code>BitmapIndex</code>. Both maps evict the least recently used entries.
+ * Parsing and compilation run outside the lock, so concurrent misses of the same spec may parse it twice and the first
+ * interned filter wins.
+ */
+public class FilterPlanCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    private final int maxEntries;
+    private final LinkedHashMap<Object, FlightsFilter> requests;
+    private final LinkedHashMap<FlightsFilter, FlightsFilter> plans;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Bytes of a binary request, compared by content.
+     */
+    private static final class BinaryRequest {
+        private final byte[] bytes;
+        private final int hash;
+
+        private BinaryRequest(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BinaryRequest && Arrays.equals(bytes, ((BinaryRequest) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public FilterPlanCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries maximum number of cached requests and of interned filters
+     */
+    public FilterPlanCache(int maxEntries) {
+        if (maxEntries < 0)
+            throw new IllegalArgumentException("FilterPlanCache: limit must not be negative");
+        this.maxEntries = maxEntries;
+        this.requests = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, FlightsFilter> eldest) {
+                return size() > FilterPlanCache.this.maxEntries;
+            }
+        };
+        this.plans = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<FlightsFilter, FlightsFilter> eldest) {
+                return size() > FilterPlanCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param request filter encoded by <code>{@link FilterCodec}</code>; it is not modified and not kept
+     * @return compiled sequential filter
+     * @throws IllegalArgumentException if the request is not a valid filter
+     */
+    public FlightsFilter fromBinary(byte[] request) {
+        BinaryRequest key = new BinaryRequest(request);
+        FlightsFilter flightsFilter = lookup(key);
+        if (flightsFilter != null)
+            return flightsFilter;
+        return store(new BinaryRequest(request.clone()), FilterCodec.decode(request));
+    }
+
+    /**
+     * @param request filter written in <code>{@link FilterJson}</code>
+     * @return compiled sequential filter
+     * @throws IllegalArgumentException if the request is not a valid filter
+     */
+    public FlightsFilter fromJson(CharSequence request) {
+        String key = request.toString();
+        FlightsFilter flightsFilter = lookup(key);
+        if (flightsFilter != null)
+            return flightsFilter;
+        return store(key, FilterJson.fromJson(key));
+    }
+
+    /**
+     * @param flightsFilter filter
+     * @return the interned filter with the same condition sets, this filter if there was none
+     */
+    public synchronized FlightsFilter intern(FlightsFilter flightsFilter) {
+        FlightsFilter interned = plans.get(flightsFilter);
+        if (interned != null)
+            return interned;
+        if (maxEntries > 0)
+            plans.put(flightsFilter, flightsFilter);
+        return flightsFilter;
+    }
+
+    private synchronized FlightsFilter lookup(Object key) {
+        FlightsFilter flightsFilter = requests.get(key);
+        if (flightsFilter != null)
+            hitCount++;
+        else
+            missCount++;
+        return flightsFilter;
+    }
+
+    private synchronized FlightsFilter store(Object key, FlightsFilter parsedFilter) {
+        FlightsFilter flightsFilter = intern(parsedFilter);
+        if (maxEntries > 0)
+            requests.put(key, flightsFilter);
+        return flightsFilter;
+    }
+
+    /**
+     * Removes all cached requests and interned filters.
+     */
+    public synchronized void clear() {
+        requests.clear();
+        plans.clear();
+    }
+
+    /**
+     * @return number of cached requests
+     */
+    public synchronized int size() {
+        return requests.size();
+    }
+
+    /**
+     * @return number of interned filters
+     */
+    public synchronized int getPlanCount() {
+        return plans.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FilterPlanCache{requests=" + requests.size() + ", plans=" + plans.size() + ", hits=" + hitCount + ", misses=" + missCount + '}';
+    }
+}
@@ -0,0 +1,23 @@
+package com.gridnine.testing.distributed;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Delivers encoded requests of a <code>{@link FilterCoordinator}</code> to its workers and returns their responses.
+ * Implementations may use any network protocol; <code>{@link LoopbackTransport}</code> runs the workers in-process.
+ */
+public interface FilterTransport {
+    /**
+     * @return number of workers reachable through the transport
+     */
+    int getWorkerCount();
+
+    /**
+     * Sends the request to one worker.
+     *
+     * @param workerIndex index of the worker, from 0 to <code>getWorkerCount() - 1</code>
+     * @param request     encoded request
+     * @return future of the encoded response, completed exceptionally if the request failed
+     */
+    CompletableFuture<byte[]> send(int workerIndex, byte[] request);
+}
@@ -0,0 +1,62 @@
+package com.gridnine.testing.distributed;
+
+import com.gridnine.testing.enums.ExecutionMode;
+import com.gridnine.testing.filter.AdaptiveParallelism;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.models.Flight;
+
+/**
+ * Worker of distributed filtering. Owns a partition of the flights and answers the filter requests of a
+ * <code>{@link FilterCoordinator}</code>: the request is a filter encoded by <code>{@link FilterCodec}</code>,
+ * the response is the list of matching flights encoded by <code>{@link FlightCodec}</code>.
+ * In adaptive mode all requests share one <code>{@link AdaptiveParallelism}</code> of the worker, so the calibration
+ * measured on its partition is kept from one request to the next.
+ */
+public class FilterWorker {
+    private final DataBaseInterface<Flight> db;
+    private final ExecutionMode executionMode;
+    private final AdaptiveParallelism adaptiveParallelism = new AdaptiveParallelism();
+
+    /**
+     * @param db partition of the flights owned by the worker
+     */
+    public FilterWorker(DataBaseInterface<Flight> db) {
+        this(db, ExecutionMode.ADAPTIVE);
+    }
+
+    /**
+     * @param db            partition of the flights owned by the worker
+     * @param executionMode execution mode of the decoded filters
+     */
+    public FilterWorker(DataBaseInterface<Flight> db, ExecutionMode executionMode) {
+        this.db = db;
+        this.executionMode = executionMode;
+    }
+
+    /**
+     * Filters the partition of the worker.
+     *
+     * @param request filter encoded by <code>{@link FilterCodec}</code>
+     * @return matching flights encoded by <code>{@link FlightCodec}</code>
+     * @throws IllegalArgumentException if the request is not a valid filter
+     */
+    public byte[] handle(byte[] request) {
+        FlightsFilter flightsFilter = FilterCodec.decode(request);
+        switch (executionMode) {
+            case PARALLEL:
+                flightsFilter = flightsFilter.doParallel();
+                break;
+            case ADAPTIVE:
+                flightsFilter = flightsFilter.doAdaptive(adaptiveParallelism);
+                break;
+            default:
+                break;
+        }
+        return FlightCodec.encode(flightsFilter.filter(db));
+    }
+
+    public DataBaseInterface<Flight> getDataBase() {
+        return db;
+    }
+}
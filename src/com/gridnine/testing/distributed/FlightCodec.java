@@ -0,0 +1,79 @@
+package com.gridnine.testing.distributed;
+
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.Segment;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary wire format of a list of flights.
+ * <pre>
+ * varint      number of flights
+ * per flight  varint number of segments,
+ *             per segment: zigzag varint departure minus the previous arrival of the flight (0 for the first segment),
+ *                          zigzag varint arrival minus departure
+ * </pre>
+ * Times are epoch seconds (UTC), so they are transferred with a precision of one second. The first departure of a
+ * flight is encoded in full, every other time as a short delta.
+ */
+public final class FlightCodec {
+    private FlightCodec() {
+    }
+
+    /**
+     * @param flightList flights to encode
+     * @return encoded flights
+     */
+    public static byte[] encode(List<Flight> flightList) {
+        WireBuffer buffer = new WireBuffer();
+        buffer.writeVarLong(flightList.size());
+        for (Flight flight : flightList) {
+            buffer.writeVarLong(flight.getSegments().size());
+            long previousEpoch = 0;
+            for (Segment segment : flight.getSegments()) {
+                long departure = segment.getDepartureDate().toEpochSecond(ZoneOffset.UTC);
+                long arrival = segment.getArrivalDate().toEpochSecond(ZoneOffset.UTC);
+                buffer.writeSignedVarLong(departure - previousEpoch);
+                buffer.writeSignedVarLong(arrival - departure);
+                previousEpoch = arrival;
+            }
+        }
+        return buffer.toByteArray();
+    }
+
+    /**
+     * @param bytes encoded flights
+     * @return decoded flights
+     * @throws IllegalArgumentException if the bytes are not a valid list of flights
+     */
+    public static List<Flight> decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            int flightCount = WireBuffer.readCount(buffer);
+            List<Flight> flightList = new ArrayList<>(flightCount);
+            for (int i = 0; i < flightCount; i++) {
+                int segmentCount = WireBuffer.readCount(buffer);
+                List<Segment> segments = new ArrayList<>(segmentCount);
+                long previousEpoch = 0;
+                for (int j = 0; j < segmentCount; j++) {
+                    long departure = previousEpoch + WireBuffer.readSignedVarLong(buffer);
+                    long arrival = departure + WireBuffer.readSignedVarLong(buffer);
+                    segments.add(new Segment(LocalDateTime.ofEpochSecond(departure, 0, ZoneOffset.UTC), LocalDateTime.ofEpochSecond(arrival, 0, ZoneOffset.UTC)));
+                    previousEpoch = arrival;
+                }
+                flightList.add(new Flight(segments));
+            }
+            if (buffer.hasRemaining())
+                throw new IllegalArgumentException("FlightCodec: unexpected bytes after the flights");
+            return flightList;
+        } catch (BufferUnderflowException | DateTimeException e) {
+            throw new IllegalArgumentException("FlightCodec: malformed flights", e);
+        }
+    }
+}
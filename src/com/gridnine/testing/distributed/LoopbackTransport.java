@@ -0,0 +1,45 @@
+package com.gridnine.testing.distributed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * In-process transport: every request is handled by a local <code>{@link FilterWorker}</code> on an executor.
+ * Requests and responses are passed as copies of the encoded bytes, so the coordinator and the workers share no
+ * objects, as if they were on different nodes. Allows to run and test distributed filtering on one machine.
+ */
+public class LoopbackTransport implements FilterTransport {
+    private final List<FilterWorker> workers;
+    private final Executor executor;
+
+    /**
+     * @param workers local workers, handled in the common <code>ForkJoinPool</code>
+     */
+    public LoopbackTransport(List<FilterWorker> workers) {
+        this(workers, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param workers  local workers
+     * @param executor executor running the requests
+     */
+    public LoopbackTransport(List<FilterWorker> workers, Executor executor) {
+        this.workers = new ArrayList<>(workers);
+        this.executor = executor;
+    }
+
+    @Override
+    public int getWorkerCount() {
+        return workers.size();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> send(int workerIndex, byte[] request) {
+        FilterWorker worker = workers.get(workerIndex);
+        byte[] requestCopy = request.clone();
+        return CompletableFuture.supplyAsync(() -> worker.handle(requestCopy).clone(), executor);
+    }
+}
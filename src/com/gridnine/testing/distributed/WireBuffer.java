@@ -0,0 +1,61 @@
+package com.gridnine.testing.distributed;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with variable-length integer encoding, used by the wire formats of this package.
+ * Signed numbers are zigzag-encoded, so small negative numbers are as short as small positive ones.
+ */
+final class WireBuffer {
+    private byte[] bytes = new byte[64];
+    private int size;
+
+    void writeByte(int value) {
+        if (size == bytes.length)
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        bytes[size++] = (byte) value;
+    }
+
+    void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            if (shift == 63 && (b & 0x7E) != 0)
+                throw new IllegalArgumentException("WireBuffer: variable-length number does not fit in 64 bits");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IllegalArgumentException("WireBuffer: variable-length number is too long");
+    }
+
+    static long readSignedVarLong(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int readCount(ByteBuffer buffer) {
+        long count = readVarLong(buffer);
+        if (count < 0 || count > buffer.remaining())
+            throw new BufferUnderflowException();
+        return (int) count;
+    }
+}
@@ -0,0 +1,7 @@
+package com.gridnine.testing.enums;
+
+public enum ExecutionMode {
+    SEQUENTIAL,
+    PARALLEL,
+    ADAPTIVE
+}
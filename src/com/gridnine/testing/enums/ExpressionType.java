@@ -0,0 +1,8 @@
+package com.gridnine.testing.enums;
+
+/**
+ * Node types of a <code>FlightExpression</code>: a condition set, or a boolean operator over other expressions.
+ */
+public enum ExpressionType {
+    CONDITIONS, AND, OR, NOT
+}
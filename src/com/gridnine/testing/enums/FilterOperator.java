@@ -1,5 +1,30 @@
 package com.gridnine.testing.enums;
 
 public enum FilterOperator {
-    EQ, GTE, GT, LT, LTE
+    EQ, GTE, GT, LT, LTE;
+
+    /**
+     * Applies the operator to a pair of values.
+     * Equivalent expression: value OPERATOR operand.
+     *
+     * @param value   left side of the comparison (time of the selected target)
+     * @param operand right side of the comparison (time from the condition)
+     * @return comparison result
+     */
+    public boolean test(long value, long operand) {
+        switch (this) {
+            case EQ:
+                return value == operand;
+            case GTE:
+                return value >= operand;
+            case GT:
+                return value > operand;
+            case LT:
+                return value < operand;
+            case LTE:
+                return value <= operand;
+            default:
+                return false;
+        }
+    }
 }
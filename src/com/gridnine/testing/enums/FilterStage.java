@@ -0,0 +1,9 @@
+package com.gridnine.testing.enums;
+
+/**
+ * Stages of an instrumented filter call, in the order they are evaluated: validity, aggregate, idle, arrival and
+ * departure conditions, then the expression of the filter.
+ */
+public enum FilterStage {
+    INVALID, AGGREGATE, IDLE, ARRIVAL, DEPARTURE, EXPRESSION
+}
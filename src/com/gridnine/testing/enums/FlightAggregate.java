@@ -0,0 +1,26 @@
+package com.gridnine.testing.enums;
+
+import com.gridnine.testing.models.FlightSummary;
+
+public enum FlightAggregate {
+    TOTAL_IDLE, MAX_IDLE, DURATION;
+
+    /**
+     * Selects the aggregate from the summary of a flight.
+     *
+     * @param summary aggregates of the flight
+     * @return value of the aggregate, seconds
+     */
+    public long getValue(FlightSummary summary) {
+        switch (this) {
+            case TOTAL_IDLE:
+                return summary.getTotalGroundTime();
+            case MAX_IDLE:
+                return summary.getMaxGroundTime();
+            case DURATION:
+                return summary.getDuration();
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.gridnine.testing.enums;
+
+import com.gridnine.testing.models.FlightSummary;
+
+/**
+ * Orders of the flights returned by paged queries. Flights with equal keys keep the order of the input.
+ */
+public enum FlightOrdering {
+    INPUT, DEPARTURE, ARRIVAL, TOTAL_GROUND_TIME;
+
+    /**
+     * Selects the sort key from the summary of a flight, flights are sorted in ascending order of the key.
+     *
+     * @param summary aggregates of the flight
+     * @return sort key of the flight, 0 for the input order
+     */
+    public long getKey(FlightSummary summary) {
+        switch (this) {
+            case DEPARTURE:
+                return summary.getFirstDeparture();
+            case ARRIVAL:
+                return summary.getLastArrival();
+            case TOTAL_GROUND_TIME:
+                return summary.getTotalGroundTime();
+            default:
+            case INPUT:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.gridnine.testing.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calibration of the adaptive execution mode of <code>{@link FlightsFilter}</code>.
+ * <p>
+ * Keeps a moving average of the measured cost of checking one flight. A call is executed in parallel if its
+ * estimated sequential duration (input size multiplied by the cost of one flight) reaches the threshold.
+ * The estimate is updated after every sequential adaptive call, so the decision follows the actual cost of the filter
+ * conditions and of the data. Parallel calls are not measured, since their duration includes the split and merge
+ * overhead and the load of other tasks in the pool. Instead, every <code>SAMPLE_PERIOD</code>-th call estimated to
+ * run in parallel filters a prefix of <code>SAMPLE_FLIGHTS</code> flights sequentially and measures it before the rest
+ * of the input is filtered in parallel, so an estimate raised by one slow measurement, e.g. during garbage collection
+ * or JIT warm-up, is corrected and the decision can return to sequential execution, while a sample costs a bounded
+ * sequential duration whatever the size of the input.
+ * All methods are safe to call concurrently, the average is updated atomically.
+ */
+public class AdaptiveParallelism {
+    /**
+     * Sequential duration, from which parallel execution pays off on a typical server.
+     */
+    public static final long DEFAULT_PARALLEL_THRESHOLD_NANOS = 1_000_000;
+    private static final double INITIAL_FLIGHT_COST_NANOS = 50;
+    /**
+     * Weight of the latest measurement in the moving average.
+     */
+    private static final double SMOOTHING_FACTOR = 0.2;
+    /**
+     * Calls with fewer flights are not measured, their duration is dominated by the call overhead.
+     */
+    private static final int MIN_MEASURED_FLIGHTS = 64;
+    /**
+     * One of this many calls estimated to run in parallel is executed sequentially to measure the cost again.
+     */
+    private static final int SAMPLE_PERIOD = 32;
+    /**
+     * Number of leading flights of a sample that are filtered sequentially and measured.
+     */
+    private static final int SAMPLE_FLIGHTS = 4096;
+    private final long parallelThresholdNanos;
+    /**
+     * Bits of the <code>double</code> cost of checking one flight.
+     */
+    private final AtomicLong flightCostBits = new AtomicLong(Double.doubleToRawLongBits(INITIAL_FLIGHT_COST_NANOS));
+    private final AtomicLong parallelDecisionCount = new AtomicLong();
+
+    public AdaptiveParallelism() {
+        this(DEFAULT_PARALLEL_THRESHOLD_NANOS);
+    }
+
+    /**
+     * @param parallelThresholdNanos estimated sequential duration, from which the filter runs in parallel
+     */
+    public AdaptiveParallelism(long parallelThresholdNanos) {
+        if (parallelThresholdNanos < 0)
+            throw new IllegalArgumentException("AdaptiveParallelism: threshold must not be negative");
+        this.parallelThresholdNanos = parallelThresholdNanos;
+    }
+
+    /**
+     * @param flightCount number of flights at the filter input
+     * @return true if the call should be executed in parallel, false if it is cheaper sequentially
+     */
+    public boolean isParallel(int flightCount) {
+        return flightCount * getFlightCostNanos() >= parallelThresholdNanos;
+    }
+
+    /**
+     * Chooses every <code>SAMPLE_PERIOD</code>-th call executed in parallel as a sample.
+     *
+     * @param flightCount number of flights at the input of a call executed in parallel
+     * @return number of leading flights to filter sequentially and measure before the rest is filtered in parallel,
+     * 0 if the call is not a sample
+     */
+    public int getSampleFlightCount(int flightCount) {
+        // with a zero threshold every call runs in parallel whatever the cost, a sample would change nothing
+        if (parallelThresholdNanos == 0 || flightCount < MIN_MEASURED_FLIGHTS
+                || parallelDecisionCount.incrementAndGet() % SAMPLE_PERIOD != 0)
+            return 0;
+        return Math.min(flightCount, SAMPLE_FLIGHTS);
+    }
+
+    /**
+     * Updates the cost of checking one flight with the measurement of a finished sequential call.
+     *
+     * @param flightCount  number of flights at the filter input
+     * @param elapsedNanos duration of the call
+     */
+    public void record(int flightCount, long elapsedNanos) {
+        if (flightCount < MIN_MEASURED_FLIGHTS)
+            return;
+        double measuredCost = (double) elapsedNanos / flightCount;
+        long currentBits;
+        long updatedBits;
+        do {
+            currentBits = flightCostBits.get();
+            double currentCost = Double.longBitsToDouble(currentBits);
+            updatedBits = Double.doubleToRawLongBits(currentCost + SMOOTHING_FACTOR * (measuredCost - currentCost));
+        } while (!flightCostBits.compareAndSet(currentBits, updatedBits));
+    }
+
+    public long getParallelThresholdNanos() {
+        return parallelThresholdNanos;
+    }
+
+    /**
+     * @return current estimate of the cost of checking one flight
+     */
+    public double getFlightCostNanos() {
+        return Double.longBitsToDouble(flightCostBits.get());
+    }
+}
@@ -0,0 +1,89 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.models.FlightTable;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Cache of per-condition bitmaps over one <code>{@link FlightTable}</code>.
+ * <p>
+ * A filter is split into its conditions (see <code>{@link FlightsFilter#getConditionFilters()}</code>); the bitmap of
+ * every condition is computed once with a bulk scan and kept, and the result of the filter is the intersection of the
+ * bitmaps of its conditions. A new query sharing conditions with earlier ones only scans for its new conditions.
+ * The least recently used bitmaps are evicted when the number of cached bitmaps exceeds its limit.
+ * <p>
+ * The table must not change while the index is used.
+ */
+public class BitmapIndex {
+    public static final int DEFAULT_MAX_BITMAPS = 1024;
+    private final FlightTable flightTable;
+    private final int maxBitmaps;
+    private final LinkedHashMap<FlightsFilter, FlightBitmap> bitmaps = new LinkedHashMap<>(16, 0.75f, true);
+    private long hitCount;
+    private long missCount;
+
+    public BitmapIndex(FlightTable flightTable) {
+        this(flightTable, DEFAULT_MAX_BITMAPS);
+    }
+
+    /**
+     * @param flightTable indexed flights
+     * @param maxBitmaps  maximum number of cached condition bitmaps
+     */
+    public BitmapIndex(FlightTable flightTable, int maxBitmaps) {
+        this.flightTable = flightTable;
+        this.maxBitmaps = maxBitmaps;
+    }
+
+    /**
+     * @param flightsFilter filter of the query
+     * @return bitmap of the flights of the table that satisfy all conditions
+     */
+    public FlightBitmap filter(FlightsFilter flightsFilter) {
+        FlightBitmap result = FlightBitmap.full(flightTable.getFlightCount());
+        for (FlightsFilter conditionFilter : flightsFilter.getConditionFilters()) {
+            result = result.and(getBitmap(conditionFilter.withKernel(flightsFilter.getKernel())));
+        }
+        return result;
+    }
+
+    /**
+     * @param conditionFilter filter of one condition
+     * @return cached or computed bitmap of the condition
+     */
+    public FlightBitmap getBitmap(FlightsFilter conditionFilter) {
+        synchronized (this) {
+            FlightBitmap bitmap = bitmaps.get(conditionFilter);
+            if (bitmap != null) {
+                hitCount++;
+                return bitmap;
+            }
+            missCount++;
+        }
+        // scanned without the lock, a concurrent query of the same condition at worst scans it twice
+        FlightBitmap bitmap = conditionFilter.filterBitmap(flightTable);
+        synchronized (this) {
+            bitmaps.put(conditionFilter, bitmap);
+            while (bitmaps.size() > maxBitmaps) {
+                bitmaps.remove(bitmaps.keySet().iterator().next());
+            }
+        }
+        return bitmap;
+    }
+
+    public FlightTable getFlightTable() {
+        return flightTable;
+    }
+
+    public synchronized int size() {
+        return bitmaps.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+}
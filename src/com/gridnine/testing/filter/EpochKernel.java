@@ -0,0 +1,37 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.enums.FilterOperator;
+
+/**
+ * Bulk comparisons over primitive epoch columns. The result of a comparison of the elements <code>[from, to)</code>
+ * is a bit mask: bit <code>i - from</code> of the mask is set if element <code>i</code> satisfies the comparison.
+ * The mask must have at least <code>(to - from + 63) / 64</code> words; the words of the range are overwritten.
+ * <p>
+ * <code>{@link EpochKernels#getDefault()}</code> returns the fastest implementation available in the running JVM.
+ */
+public interface EpochKernel {
+    /**
+     * Compares every element with the operand.
+     * Equivalent expression: values[i] OPERATOR operand.
+     *
+     * @param operator comparison operator
+     * @param values   compared column
+     * @param from     first compared element
+     * @param to       element following the last compared one
+     * @param operand  right side of every comparison
+     * @param mask     result mask
+     */
+    void compare(FilterOperator operator, long[] values, int from, int to, long operand, long[] mask);
+
+    /**
+     * Compares two columns element by element.
+     * Equivalent expression: left[i] &lt; right[i].
+     *
+     * @param left  left side of the comparisons
+     * @param right right side of the comparisons
+     * @param from  first compared element
+     * @param to    element following the last compared one
+     * @param mask  result mask
+     */
+    void lessThan(long[] left, long[] right, int from, int to, long[] mask);
+}
@@ -0,0 +1,51 @@
+package com.gridnine.testing.filter;
+
+/**
+ * Selects the <code>{@link EpochKernel}</code> implementation.
+ * <p>
+ * The vectorized kernel is used if it was compiled from <code>src-vector</code> onto the class path, the JVM was started
+ * with <code>--add-modules jdk.incubator.vector</code> and the vector shape of the CPU is supported, otherwise the
+ * scalar one. The vectorized kernel can be disabled with the system property
+ * <code>-Dcom.gridnine.testing.vectorKernel=false</code>, e.g. to compare both implementations.
+ */
+public final class EpochKernels {
+    private static final String VECTOR_KERNEL_CLASS = "com.gridnine.testing.filter.VectorEpochKernel";
+    private static final EpochKernel SCALAR = new ScalarEpochKernel();
+    private static final EpochKernel DEFAULT = loadDefault();
+
+    private EpochKernels() {
+    }
+
+    private static EpochKernel loadDefault() {
+        if (!Boolean.parseBoolean(System.getProperty("com.gridnine.testing.vectorKernel", "true")))
+            return SCALAR;
+        try {
+            // the kernel class links against jdk.incubator.vector, so it is loaded only by name
+            EpochKernel kernel = (EpochKernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredMethod("create").invoke(null);
+            return kernel == null ? SCALAR : kernel;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return SCALAR;
+        }
+    }
+
+    /**
+     * @return vectorized kernel if available, scalar kernel otherwise
+     */
+    public static EpochKernel getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return scalar kernel
+     */
+    public static EpochKernel scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return true if the default kernel is vectorized
+     */
+    public static boolean isVectorized() {
+        return DEFAULT != SCALAR;
+    }
+}
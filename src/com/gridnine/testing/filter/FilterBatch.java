@@ -0,0 +1,222 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.enums.ExecutionMode;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightTable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates many filters in one shared pass over the same flights.
+ * <p>
+ * The flights are split into blocks of <code>BLOCK_FLIGHTS</code>. Every block is decoded once into a
+ * <code>{@link FlightTable}</code>, so the epoch times of its segments are computed once for all filters, and then
+ * scanned by every filter with its <code>{@link EpochKernel}</code> while the block is still in the cache. The memory
+ * read and written by a call is proportional to the number of flights, not to the number of flights multiplied by the
+ * number of filters. Equal filters are evaluated once and share their result.
+ * <p>
+ * Blocks are independent, so parallel execution processes them in parallel and concatenates the results of every
+ * filter in the order of the blocks. Filters are evaluated with their compiled predicates only: their execution modes,
+ * executors and metrics listeners are ignored.
+ * <p>
+ * The batch is immutable and thread-safe.
+ */
+public final class FilterBatch {
+    /**
+     * Number of flights decoded and scanned together.
+     */
+    private static final int BLOCK_FLIGHTS = 4096;
+    private final List<FlightsFilter> flightsFilters;
+    private final List<FlightsFilter> distinctFilters;
+    /**
+     * Index of the distinct filter evaluating every filter of the batch.
+     */
+    private final int[] distinctIndices;
+    private final AdaptiveParallelism adaptiveParallelism = new AdaptiveParallelism();
+
+    /**
+     * @param flightsFilters filters of the batch
+     */
+    public FilterBatch(List<FlightsFilter> flightsFilters) {
+        this.flightsFilters = Collections.unmodifiableList(new ArrayList<>(flightsFilters));
+        Map<FlightsFilter, Integer> distinct = new HashMap<>();
+        List<FlightsFilter> distinctFilters = new ArrayList<>();
+        this.distinctIndices = new int[this.flightsFilters.size()];
+        for (int i = 0; i < distinctIndices.length; i++) {
+            FlightsFilter flightsFilter = Objects.requireNonNull(this.flightsFilters.get(i));
+            Integer index = distinct.get(flightsFilter);
+            if (index == null) {
+                index = distinctFilters.size();
+                distinct.put(flightsFilter, index);
+                distinctFilters.add(flightsFilter);
+            }
+            distinctIndices[i] = index;
+        }
+        this.distinctFilters = Collections.unmodifiableList(distinctFilters);
+    }
+
+    /**
+     * @return filters of the batch, in the order of the results
+     */
+    public List<FlightsFilter> getFilters() {
+        return flightsFilters;
+    }
+
+    /**
+     * Filters the list sequentially.
+     *
+     * @param flightList input data
+     * @return one list per filter of the batch, in the order of the filters, with the flights satisfying the filter
+     * in the order of the input list
+     */
+    public List<List<Flight>> filter(final List<Flight> flightList) {
+        return filter(flightList, ExecutionMode.SEQUENTIAL);
+    }
+
+    /**
+     * Filters the list in the given execution mode. The adaptive mode is calibrated per batch.
+     *
+     * @param flightList    input data
+     * @param executionMode execution mode of this call
+     * @return one list per filter of the batch, in the order of the filters
+     * @see #filter(List)
+     */
+    public List<List<Flight>> filter(final List<Flight> flightList, ExecutionMode executionMode) {
+        int flightCount = flightList.size();
+        int blockCount = (flightCount + BLOCK_FLIGHTS - 1) / BLOCK_FLIGHTS;
+        List<int[][]> blockMatches = execute(executionMode, flightCount, blockCount, block -> {
+            int from = block * BLOCK_FLIGHTS;
+            FlightTable blockTable = FlightTable.of(flightList.subList(from, Math.min(flightCount, from + BLOCK_FLIGHTS)));
+            return scanBlock(blockTable, 0, blockTable.getFlightCount(), from);
+        });
+        List<List<Flight>> distinctResults = new ArrayList<>(distinctFilters.size());
+        for (int filter = 0; filter < distinctFilters.size(); filter++) {
+            int resultSize = 0;
+            for (int[][] matches : blockMatches) {
+                resultSize += matches[filter].length;
+            }
+            List<Flight> result = new ArrayList<>(resultSize);
+            for (int[][] matches : blockMatches) {
+                for (int position : matches[filter]) {
+                    result.add(flightList.get(position));
+                }
+            }
+            distinctResults.add(result);
+        }
+        List<List<Flight>> results = new ArrayList<>(distinctIndices.length);
+        for (int i = 0; i < distinctIndices.length; i++) {
+            List<Flight> result = distinctResults.get(distinctIndices[i]);
+            // filters sharing one result get their own copies
+            results.add(isFirstOccurrence(i) ? result : new ArrayList<>(result));
+        }
+        return results;
+    }
+
+    /**
+     * Filters the columnar table sequentially, block by block, without decoding.
+     *
+     * @param flightTable input data
+     * @return one array per filter of the batch, in the order of the filters, with the ascending indices of the
+     * flights satisfying the filter
+     */
+    public int[][] filterIndices(final FlightTable flightTable) {
+        return filterIndices(flightTable, ExecutionMode.SEQUENTIAL);
+    }
+
+    /**
+     * Filters the columnar table in the given execution mode, block by block, without decoding.
+     *
+     * @param flightTable   input data
+     * @param executionMode execution mode of this call
+     * @return one array per filter of the batch, in the order of the filters, with the ascending indices of the
+     * flights satisfying the filter
+     */
+    public int[][] filterIndices(final FlightTable flightTable, ExecutionMode executionMode) {
+        int flightCount = flightTable.getFlightCount();
+        int blockCount = (flightCount + BLOCK_FLIGHTS - 1) / BLOCK_FLIGHTS;
+        List<int[][]> blockMatches = execute(executionMode, flightCount, blockCount, block -> {
+            int from = block * BLOCK_FLIGHTS;
+            return scanBlock(flightTable, from, Math.min(flightCount, from + BLOCK_FLIGHTS), 0);
+        });
+        int[][] results = new int[distinctIndices.length][];
+        for (int i = 0; i < distinctIndices.length; i++) {
+            int filter = distinctIndices[i];
+            results[i] = blockMatches.stream().flatMapToInt(matches -> IntStream.of(matches[filter])).toArray();
+        }
+        return results;
+    }
+
+    private boolean isFirstOccurrence(int filterIndex) {
+        for (int i = 0; i < filterIndex; i++) {
+            if (distinctIndices[i] == distinctIndices[filterIndex])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scans a block with every distinct filter. The scratch arrays of the scans are shared by the filters, so the
+     * memory allocated per block does not grow with the number of filters, apart from the results.
+     *
+     * @param table  flights of the block
+     * @param from   first flight of the block in the table
+     * @param to     flight following the last flight of the block in the table
+     * @param offset added to the indices of the table to get the positions of the matching flights in the input
+     * @return positions of the matching flights in the input, per distinct filter
+     */
+    private int[][] scanBlock(FlightTable table, int from, int to, int offset) {
+        ScanBuffers buffers = new ScanBuffers();
+        int[][] matches = new int[distinctFilters.size()][];
+        for (int filter = 0; filter < matches.length; filter++) {
+            FlightsFilter flightsFilter = distinctFilters.get(filter);
+            int matchCount = flightsFilter.getPredicate().scan(table, from, to, flightsFilter.getKernel(), buffers);
+            int[] blockMatches = new int[matchCount];
+            for (int i = 0; i < matchCount; i++) {
+                blockMatches[i] = buffers.getResult()[i] + offset;
+            }
+            matches[filter] = blockMatches;
+        }
+        return matches;
+    }
+
+    /**
+     * Processes all blocks sequentially or in parallel, according to the execution mode.
+     *
+     * @return results of the blocks, in the order of the blocks
+     */
+    private List<int[][]> execute(ExecutionMode executionMode, int flightCount, int blockCount, IntFunction<int[][]> blockTask) {
+        // every flight is checked by every distinct filter
+        int checkCount = (int) Math.min(Integer.MAX_VALUE, (long) flightCount * Math.max(1, distinctFilters.size()));
+        boolean parallel;
+        switch (executionMode) {
+            case PARALLEL:
+                parallel = true;
+                break;
+            case ADAPTIVE:
+                parallel = adaptiveParallelism.isParallel(checkCount);
+                break;
+            default:
+            case SEQUENTIAL:
+                parallel = false;
+                break;
+        }
+        if (parallel)
+            return IntStream.range(0, blockCount).parallel().mapToObj(blockTask).collect(Collectors.toList());
+        long startNanos = System.nanoTime();
+        List<int[][]> blockMatches = new ArrayList<>(blockCount);
+        for (int block = 0; block < blockCount; block++) {
+            blockMatches.add(blockTask.apply(block));
+        }
+        if (executionMode == ExecutionMode.ADAPTIVE)
+            adaptiveParallelism.record(checkCount, System.nanoTime() - startNanos);
+        return blockMatches;
+    }
+}
@@ -0,0 +1,133 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.enums.ExecutionMode;
+import com.gridnine.testing.enums.FilterStage;
+import com.gridnine.testing.interfaces.FilterMetricsListener;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregated metrics of filter calls: flight counts and duration histogram of every stage, and the duration
+ * histograms of sequential and parallel calls. All counters are lock-free, so one instance can be shared by any
+ * number of filters and threads.
+ * <p>
+ * The selectivity of the stages can be passed to a planner, and the cost of one flight in sequential calls helps to
+ * choose the threshold of <code>{@link AdaptiveParallelism}</code>.
+ */
+public class FilterMetrics implements FilterMetricsListener {
+    private final Map<FilterStage, StageMetrics> stageMetrics;
+    private final LatencyHistogram sequentialCalls = new LatencyHistogram();
+    private final LatencyHistogram parallelCalls = new LatencyHistogram();
+    private final LongAdder sequentialFlights = new LongAdder();
+    private final LongAdder parallelFlights = new LongAdder();
+    private final LongAdder sequentialNanos = new LongAdder();
+
+    /**
+     * Metrics of one stage.
+     */
+    private static final class StageMetrics {
+        private final LongAdder inputCount = new LongAdder();
+        private final LongAdder outputCount = new LongAdder();
+        private final LatencyHistogram durations = new LatencyHistogram();
+    }
+
+    public FilterMetrics() {
+        Map<FilterStage, StageMetrics> metrics = new EnumMap<>(FilterStage.class);
+        for (FilterStage stage : FilterStage.values()) {
+            metrics.put(stage, new StageMetrics());
+        }
+        this.stageMetrics = Collections.unmodifiableMap(metrics);
+    }
+
+    @Override
+    public void onStage(FilterStage stage, long inputCount, long outputCount, long durationNanos) {
+        StageMetrics metrics = stageMetrics.get(stage);
+        metrics.inputCount.add(inputCount);
+        metrics.outputCount.add(outputCount);
+        metrics.durations.record(durationNanos);
+    }
+
+    @Override
+    public void onExecution(ExecutionMode executionMode, boolean parallel, int flightCount, long durationNanos) {
+        if (parallel) {
+            parallelCalls.record(durationNanos);
+            parallelFlights.add(flightCount);
+        } else {
+            sequentialCalls.record(durationNanos);
+            sequentialFlights.add(flightCount);
+            sequentialNanos.add(durationNanos);
+        }
+    }
+
+    /**
+     * @param stage filter stage
+     * @return total number of flights checked by the stage
+     */
+    public long getInputCount(FilterStage stage) {
+        return stageMetrics.get(stage).inputCount.sum();
+    }
+
+    /**
+     * @param stage filter stage
+     * @return total number of flights satisfying the stage
+     */
+    public long getOutputCount(FilterStage stage) {
+        return stageMetrics.get(stage).outputCount.sum();
+    }
+
+    /**
+     * @param stage filter stage
+     * @return share of the checked flights satisfying the stage, <code>NaN</code> if the stage has not run
+     */
+    public double getSelectivity(FilterStage stage) {
+        long inputCount = getInputCount(stage);
+        return inputCount == 0 ? Double.NaN : (double) getOutputCount(stage) / inputCount;
+    }
+
+    /**
+     * @param stage filter stage
+     * @return durations of the stage, nanoseconds
+     */
+    public LatencyHistogram getStageDurations(FilterStage stage) {
+        return stageMetrics.get(stage).durations;
+    }
+
+    /**
+     * @param parallel selects parallel or sequential calls
+     * @return durations of the calls, nanoseconds
+     */
+    public LatencyHistogram getCallDurations(boolean parallel) {
+        return parallel ? parallelCalls : sequentialCalls;
+    }
+
+    /**
+     * @param parallel selects parallel or sequential calls
+     * @return total number of flights at the input of the calls
+     */
+    public long getFlightCount(boolean parallel) {
+        return parallel ? parallelFlights.sum() : sequentialFlights.sum();
+    }
+
+    /**
+     * @return mean cost of one flight in sequential calls, nanoseconds, <code>NaN</code> if there were none
+     */
+    public double getSequentialFlightCostNanos() {
+        long flightCount = sequentialFlights.sum();
+        return flightCount == 0 ? Double.NaN : (double) sequentialNanos.sum() / flightCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("FilterMetrics{sequential=").append(sequentialCalls)
+                .append(", parallel=").append(parallelCalls);
+        for (FilterStage stage : FilterStage.values()) {
+            if (getInputCount(stage) > 0)
+                builder.append(", ").append(stage).append("{selectivity=").append(getSelectivity(stage))
+                        .append(", durations=").append(getStageDurations(stage)).append('}');
+        }
+        return builder.append('}').toString();
+    }
+}
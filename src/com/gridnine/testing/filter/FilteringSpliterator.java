@@ -0,0 +1,79 @@
+package com.gridnine.testing.filter;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Lazy filtering view of a source <code>{@link Spliterator}</code>.
+ * Elements are checked one by one as they are requested, so the memory use does not depend on the size of the source
+ * and the traversal can be stopped at any time. The view splits together with the source.
+ *
+ * @param <T> type of the elements
+ */
+class FilteringSpliterator<T> implements Spliterator<T>, Consumer<T> {
+    private final Spliterator<T> source;
+    private final Predicate<? super T> predicate;
+    private T current;
+    private boolean matched;
+
+    FilteringSpliterator(Spliterator<T> source, Predicate<? super T> predicate) {
+        this.source = source;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Receives the next element of the source during <code>tryAdvance</code>.
+     */
+    @Override
+    public void accept(T element) {
+        matched = predicate.test(element);
+        current = element;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        while (source.tryAdvance(this)) {
+            T element = current;
+            current = null;
+            if (matched) {
+                action.accept(element);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        source.forEachRemaining(element -> {
+            if (predicate.test(element))
+                action.accept(element);
+        });
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        Spliterator<T> prefix = source.trySplit();
+        return prefix == null ? null : new FilteringSpliterator<>(prefix, predicate);
+    }
+
+    /**
+     * @return number of the remaining source elements, an upper bound of the number of the remaining matches
+     */
+    @Override
+    public long estimateSize() {
+        return source.estimateSize();
+    }
+
+    @Override
+    public int characteristics() {
+        return source.characteristics() & ~(SIZED | SUBSIZED);
+    }
+
+    @Override
+    public Comparator<? super T> getComparator() {
+        return source.getComparator();
+    }
+}
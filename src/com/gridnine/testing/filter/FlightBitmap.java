@@ -0,0 +1,203 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.models.Flight;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable set of flight ordinals <code>[0, size)</code>, backed by a <code>long[]</code> with one bit per flight.
+ * <p>
+ * Results of conditions are combined with word-level <code>and()</code>, <code>or()</code>, <code>andNot()</code> and
+ * <code>not()</code>, 64 flights per operation, and only the final bitmap is materialized, as ascending indices or as a
+ * list view over the flights.
+ */
+public final class FlightBitmap {
+    private final long[] words;
+    private final int size;
+
+    private FlightBitmap(long[] words, int size) {
+        this.words = words;
+        this.size = size;
+    }
+
+    /**
+     * @param size number of flights
+     * @return bitmap without flights
+     */
+    public static FlightBitmap empty(int size) {
+        return new FlightBitmap(new long[(size + 63) >>> 6], size);
+    }
+
+    /**
+     * @param size number of flights
+     * @return bitmap with all flights
+     */
+    public static FlightBitmap full(int size) {
+        return empty(size).not();
+    }
+
+    /**
+     * @param size    number of flights
+     * @param indices ordinals of the flights in the bitmap
+     * @return bitmap with the given flights
+     */
+    public static FlightBitmap of(int size, int... indices) {
+        long[] words = new long[(size + 63) >>> 6];
+        for (int index : indices) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("FlightBitmap: flight " + index + " is out of range " + size);
+            words[index >>> 6] |= 1L << index;
+        }
+        return new FlightBitmap(words, size);
+    }
+
+    private void checkSize(FlightBitmap other) {
+        if (other.size != size)
+            throw new IllegalArgumentException("FlightBitmap: bitmaps of " + size + " and " + other.size + " flights");
+    }
+
+    /**
+     * @return number of flights the bitmap is defined for
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of flights in the bitmap
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+        return cardinality;
+    }
+
+    /**
+     * @param index ordinal of the flight
+     * @return true if the flight is in the bitmap
+     */
+    public boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public FlightBitmap and(FlightBitmap other) {
+        checkSize(other);
+        long[] result = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = words[i] & other.words[i];
+        }
+        return new FlightBitmap(result, size);
+    }
+
+    public FlightBitmap or(FlightBitmap other) {
+        checkSize(other);
+        long[] result = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = words[i] | other.words[i];
+        }
+        return new FlightBitmap(result, size);
+    }
+
+    public FlightBitmap andNot(FlightBitmap other) {
+        checkSize(other);
+        long[] result = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = words[i] & ~other.words[i];
+        }
+        return new FlightBitmap(result, size);
+    }
+
+    /**
+     * @return complement of the bitmap within <code>[0, size)</code>
+     */
+    public FlightBitmap not() {
+        long[] result = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            result[i] = ~words[i];
+        }
+        if ((size & 63) != 0)
+            result[result.length - 1] &= -1L >>> -size;
+        return new FlightBitmap(result, size);
+    }
+
+    /**
+     * @return ascending ordinals of the flights in the bitmap
+     */
+    public int[] toIndices() {
+        int[] indices = new int[cardinality()];
+        int count = 0;
+        for (int i = 0; i < words.length; i++) {
+            for (long word = words[i]; word != 0; word &= word - 1) {
+                indices[count++] = (i << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * @return stream of the ascending ordinals of the flights in the bitmap
+     */
+    public IntStream stream() {
+        return IntStream.of(toIndices());
+    }
+
+    /**
+     * Index view of the flights in the bitmap. Only the ordinals are computed, the flights are read from the source
+     * list on access.
+     *
+     * @param flightList flights the ordinals refer to
+     * @return unmodifiable list of the flights in the bitmap, in the order of the ordinals
+     */
+    public List<Flight> select(List<Flight> flightList) {
+        if (flightList.size() != size)
+            throw new IllegalArgumentException("FlightBitmap: bitmap of " + size + " flights over a list of " + flightList.size());
+        int[] indices = toIndices();
+        return new IndexView(flightList, indices);
+    }
+
+    private static final class IndexView extends AbstractList<Flight> implements RandomAccess {
+        private final List<Flight> flightList;
+        private final int[] indices;
+
+        private IndexView(List<Flight> flightList, int[] indices) {
+            this.flightList = flightList;
+            this.indices = indices;
+        }
+
+        @Override
+        public Flight get(int index) {
+            return flightList.get(indices[index]);
+        }
+
+        @Override
+        public int size() {
+            return indices.length;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof FlightBitmap))
+            return false;
+        FlightBitmap that = (FlightBitmap) o;
+        return size == that.size && Arrays.equals(words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        return "FlightBitmap{size=" + size + ", cardinality=" + cardinality() + '}';
+    }
+}
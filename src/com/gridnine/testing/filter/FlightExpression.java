@@ -0,0 +1,545 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.enums.ExpressionType;
+import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FlightAggregate;
+import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.interfaces.FlightColumns;
+import com.gridnine.testing.models.Flight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Boolean expression over condition sets of flights: a condition set (see <code>{@link #of(FlightsFilter)}</code>),
+ * or <code>and</code>, <code>or</code> and <code>not</code> of other expressions.
+ * <p>
+ * Every expression carries an estimate of its selectivity (share of the flights satisfying it) and of its cost
+ * (relative time to check one flight). The planner orders the operands of <code>and</code> and <code>or</code> by
+ * these estimates, so that cheap operands deciding the result for most flights are checked first.
+ * By default the selectivity of a condition set is estimated from its operators; <code>{@link #plan(List)}</code>
+ * measures it on a sample of flights instead. Planning never changes the result of an expression.
+ * <p>
+ * Expressions are immutable. The operands of <code>and</code> and <code>or</code> are compared as multisets, so
+ * equal expressions have equal operands in any order and planning keeps an expression equal to the original.
+ */
+public abstract class FlightExpression {
+    /**
+     * Relative cost of checking the arrival and departure conditions of a flight, which converts the time of every
+     * segment.
+     */
+    static final double SEGMENT_SCAN_COST = 4;
+    /**
+     * Relative cost of checking the idle conditions of a flight over the cached ground times.
+     */
+    static final double GROUND_TIME_SCAN_COST = 2;
+    /**
+     * Relative cost of a check answered in constant time from the cached aggregates of a flight.
+     */
+    static final double AGGREGATE_COST = 1;
+    private static final double EQ_SELECTIVITY = 0.05;
+    private static final double RANGE_SELECTIVITY = 0.5;
+    private static final double VALIDITY_SELECTIVITY = 0.95;
+
+    private final double selectivity;
+    private final double cost;
+
+    private FlightExpression(double selectivity, double cost) {
+        this.selectivity = selectivity;
+        this.cost = cost;
+    }
+
+    /**
+     * @param flightsFilter condition set; its execution mode is ignored
+     * @return expression satisfied by the flights satisfying all conditions of the set
+     */
+    public static FlightExpression of(FlightsFilter flightsFilter) {
+        return new Leaf(flightsFilter, estimateSelectivity(flightsFilter));
+    }
+
+    public static FlightExpression and(FlightExpression... operands) {
+        return new And(Arrays.asList(operands)).plan();
+    }
+
+    public static FlightExpression or(FlightExpression... operands) {
+        return new Or(Arrays.asList(operands)).plan();
+    }
+
+    public static FlightExpression not(FlightExpression operand) {
+        return new Not(operand);
+    }
+
+    /**
+     * @return estimated share of the flights satisfying the expression, from 0 to 1
+     */
+    public double getSelectivity() {
+        return selectivity;
+    }
+
+    /**
+     * @return estimated relative cost of checking one flight
+     */
+    public double getCost() {
+        return cost;
+    }
+
+    /**
+     * Plans the expression with the selectivities measured on the sample.
+     *
+     * @param sample flights representative of the filtered data
+     * @return equivalent expression with the operands ordered by the measured selectivities
+     */
+    public abstract FlightExpression plan(List<Flight> sample);
+
+    abstract boolean test(Flight flight);
+
+    abstract boolean test(FlightColumns table, int flightIndex);
+
+    /**
+     * @param type target type
+     * @return lowest time of the target some segment of every satisfying flight reaches, <code>Long.MIN_VALUE</code>
+     * if unbounded
+     */
+    abstract long getLowerBound(FlightFilterType type);
+
+    /**
+     * @param type target type
+     * @return highest time of the target some segment of every satisfying flight reaches, <code>Long.MAX_VALUE</code>
+     * if unbounded
+     */
+    abstract long getUpperBound(FlightFilterType type);
+
+    private static double estimateSelectivity(FlightsFilter flightsFilter) {
+        double selectivity = flightsFilter.isAllowInvalidFlights() ? 1 : VALIDITY_SELECTIVITY;
+        List<Map<FilterOperator, Long>> conditionMaps = new ArrayList<>(List.of(flightsFilter.getArrivalStatementsMap(),
+                flightsFilter.getDepartureStatementsMap(), flightsFilter.getIdleStatementsMap()));
+        conditionMaps.addAll(flightsFilter.getAggregateStatementsMap().values());
+        for (Map<FilterOperator, Long> conditionMap : conditionMaps) {
+            for (FilterOperator operator : conditionMap.keySet()) {
+                selectivity *= operator == FilterOperator.EQ ? EQ_SELECTIVITY : RANGE_SELECTIVITY;
+            }
+        }
+        if (flightsFilter.getExpression() != null)
+            selectivity *= flightsFilter.getExpression().getSelectivity();
+        return selectivity;
+    }
+
+    private static double estimateCost(FlightsFilter flightsFilter) {
+        double cost = 0;
+        if (!flightsFilter.getArrivalStatementsMap().isEmpty() || !flightsFilter.getDepartureStatementsMap().isEmpty())
+            cost += SEGMENT_SCAN_COST;
+        if (!flightsFilter.getIdleStatementsMap().isEmpty())
+            cost += GROUND_TIME_SCAN_COST;
+        if (!flightsFilter.getAggregateStatementsMap().isEmpty() || !flightsFilter.isAllowInvalidFlights())
+            cost += AGGREGATE_COST;
+        if (flightsFilter.getExpression() != null)
+            cost += flightsFilter.getExpression().getCost();
+        return cost;
+    }
+
+    private static double measureSelectivity(FlightExpression expression, List<Flight> sample) {
+        if (sample.isEmpty())
+            return expression.getSelectivity();
+        return (double) sample.stream().filter(expression::test).count() / sample.size();
+    }
+
+    /**
+     * @return true if the operands are equal as multisets, whatever their order
+     */
+    private static boolean equalOperands(FlightExpression[] left, FlightExpression[] right) {
+        if (left.length != right.length)
+            return false;
+        Map<FlightExpression, Integer> counts = new HashMap<>();
+        for (FlightExpression operand : left) {
+            counts.merge(operand, 1, Integer::sum);
+        }
+        for (FlightExpression operand : right) {
+            Integer count = counts.get(operand);
+            if (count == null)
+                return false;
+            if (count == 1)
+                counts.remove(operand);
+            else
+                counts.put(operand, count - 1);
+        }
+        return true;
+    }
+
+    /**
+     * @return hash code of the operands that does not depend on their order
+     */
+    private static int hashOperands(FlightExpression[] operands) {
+        int hashCode = 0;
+        for (FlightExpression operand : operands) {
+            hashCode += operand.hashCode();
+        }
+        return hashCode;
+    }
+
+    private static List<FlightExpression> planAll(List<FlightExpression> operands, List<Flight> sample) {
+        return operands.stream().map(operand -> operand.plan(sample)).collect(Collectors.toList());
+    }
+
+    /**
+     * Condition set of a <code>FlightsFilter</code>.
+     */
+    private static final class Leaf extends FlightExpression {
+        private final FlightsFilter flightsFilter;
+        private final FlightPredicate predicate;
+
+        private Leaf(FlightsFilter flightsFilter, double selectivity) {
+            super(selectivity, estimateCost(flightsFilter));
+            this.flightsFilter = flightsFilter;
+            this.predicate = flightsFilter.getPredicate();
+        }
+
+        @Override
+        public FlightExpression plan(List<Flight> sample) {
+            return new Leaf(flightsFilter, measureSelectivity(this, sample));
+        }
+
+        @Override
+        boolean test(Flight flight) {
+            return predicate.test(flight);
+        }
+
+        @Override
+        boolean test(FlightColumns table, int flightIndex) {
+            return predicate.test(table, flightIndex);
+        }
+
+        @Override
+        long getLowerBound(FlightFilterType type) {
+            return predicate.getLowerBound(type);
+        }
+
+        @Override
+        long getUpperBound(FlightFilterType type) {
+            return predicate.getUpperBound(type);
+        }
+
+        @Override
+        public ExpressionType getType() {
+            return ExpressionType.CONDITIONS;
+        }
+
+        @Override
+        public List<FlightExpression> getOperands() {
+            return List.of();
+        }
+
+        @Override
+        public FlightsFilter getConditions() {
+            return flightsFilter;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Leaf && flightsFilter.equals(((Leaf) o).flightsFilter);
+        }
+
+        @Override
+        public int hashCode() {
+            return flightsFilter.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            List<String> conditions = new ArrayList<>();
+            addConditions(conditions, "arrival", flightsFilter.getArrivalStatementsMap());
+            addConditions(conditions, "departure", flightsFilter.getDepartureStatementsMap());
+            addConditions(conditions, "idle", flightsFilter.getIdleStatementsMap());
+            for (Map.Entry<FlightAggregate, Map<FilterOperator, Long>> aggregateEntry : flightsFilter.getAggregateStatementsMap().entrySet()) {
+                addConditions(conditions, aggregateEntry.getKey().name().toLowerCase(), aggregateEntry.getValue());
+            }
+            if (!flightsFilter.isAllowInvalidFlights())
+                conditions.add("valid");
+            if (flightsFilter.getExpression() != null)
+                conditions.add(flightsFilter.getExpression().toString());
+            return '(' + String.join(" and ", conditions) + ')';
+        }
+
+        private static void addConditions(List<String> conditions, String target, Map<FilterOperator, Long> conditionMap) {
+            for (Map.Entry<FilterOperator, Long> condition : conditionMap.entrySet()) {
+                conditions.add(target + ' ' + condition.getKey().name().toLowerCase() + ' ' + condition.getValue());
+            }
+        }
+    }
+
+    /**
+     * Satisfied if all operands are satisfied. Operands are checked in the ascending order of
+     * <code>cost / (1 - selectivity)</code>: the cheapest operands most likely to reject the flight come first.
+     */
+    private static final class And extends FlightExpression {
+        private final FlightExpression[] operands;
+        private final int hashCode;
+
+        private And(List<FlightExpression> operands) {
+            super(operands.stream().mapToDouble(FlightExpression::getSelectivity).reduce(1, (a, b) -> a * b), expectedCost(operands, true));
+            this.operands = operands.toArray(new FlightExpression[0]);
+            this.hashCode = 31 * hashOperands(this.operands) + 1;
+        }
+
+        private FlightExpression plan() {
+            List<FlightExpression> ordered = new ArrayList<>(Arrays.asList(operands));
+            ordered.sort(Comparator.comparingDouble(operand -> rank(operand.getCost(), 1 - operand.getSelectivity())));
+            return new And(ordered);
+        }
+
+        @Override
+        public FlightExpression plan(List<Flight> sample) {
+            return new And(planAll(Arrays.asList(operands), sample)).plan();
+        }
+
+        @Override
+        boolean test(Flight flight) {
+            for (FlightExpression operand : operands) {
+                if (!operand.test(flight))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        boolean test(FlightColumns table, int flightIndex) {
+            for (FlightExpression operand : operands) {
+                if (!operand.test(table, flightIndex))
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        long getLowerBound(FlightFilterType type) {
+            long lowerBound = Long.MIN_VALUE;
+            for (FlightExpression operand : operands) {
+                lowerBound = Math.max(lowerBound, operand.getLowerBound(type));
+            }
+            return lowerBound;
+        }
+
+        @Override
+        long getUpperBound(FlightFilterType type) {
+            long upperBound = Long.MAX_VALUE;
+            for (FlightExpression operand : operands) {
+                upperBound = Math.min(upperBound, operand.getUpperBound(type));
+            }
+            return upperBound;
+        }
+
+        @Override
+        public ExpressionType getType() {
+            return ExpressionType.AND;
+        }
+
+        @Override
+        public List<FlightExpression> getOperands() {
+            return List.of(operands);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof And && hashCode == o.hashCode() && equalOperands(operands, ((And) o).operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.stream(operands).map(Object::toString).collect(Collectors.joining(" and ", "(", ")"));
+        }
+    }
+
+    /**
+     * Satisfied if any operand is satisfied. Operands are checked in the ascending order of
+     * <code>cost / selectivity</code>: the cheapest operands most likely to accept the flight come first.
+     */
+    private static final class Or extends FlightExpression {
+        private final FlightExpression[] operands;
+        private final int hashCode;
+
+        private Or(List<FlightExpression> operands) {
+            super(1 - operands.stream().mapToDouble(operand -> 1 - operand.getSelectivity()).reduce(1, (a, b) -> a * b), expectedCost(operands, false));
+            this.operands = operands.toArray(new FlightExpression[0]);
+            this.hashCode = 31 * hashOperands(this.operands) + 2;
+        }
+
+        private FlightExpression plan() {
+            List<FlightExpression> ordered = new ArrayList<>(Arrays.asList(operands));
+            ordered.sort(Comparator.comparingDouble(operand -> rank(operand.getCost(), operand.getSelectivity())));
+            return new Or(ordered);
+        }
+
+        @Override
+        public FlightExpression plan(List<Flight> sample) {
+            return new Or(planAll(Arrays.asList(operands), sample)).plan();
+        }
+
+        @Override
+        boolean test(Flight flight) {
+            for (FlightExpression operand : operands) {
+                if (operand.test(flight))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        boolean test(FlightColumns table, int flightIndex) {
+            for (FlightExpression operand : operands) {
+                if (operand.test(table, flightIndex))
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        long getLowerBound(FlightFilterType type) {
+            long lowerBound = operands.length == 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+            for (FlightExpression operand : operands) {
+                lowerBound = Math.min(lowerBound, operand.getLowerBound(type));
+            }
+            return lowerBound;
+        }
+
+        @Override
+        long getUpperBound(FlightFilterType type) {
+            long upperBound = operands.length == 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+            for (FlightExpression operand : operands) {
+                upperBound = Math.max(upperBound, operand.getUpperBound(type));
+            }
+            return upperBound;
+        }
+
+        @Override
+        public ExpressionType getType() {
+            return ExpressionType.OR;
+        }
+
+        @Override
+        public List<FlightExpression> getOperands() {
+            return List.of(operands);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Or && hashCode == o.hashCode() && equalOperands(operands, ((Or) o).operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.stream(operands).map(Object::toString).collect(Collectors.joining(" or ", "(", ")"));
+        }
+    }
+
+    /**
+     * Satisfied if the operand is not satisfied. Says nothing about the times of the segments.
+     */
+    private static final class Not extends FlightExpression {
+        private final FlightExpression operand;
+
+        private Not(FlightExpression operand) {
+            super(1 - operand.getSelectivity(), operand.getCost());
+            this.operand = Objects.requireNonNull(operand);
+        }
+
+        @Override
+        public FlightExpression plan(List<Flight> sample) {
+            return new Not(operand.plan(sample));
+        }
+
+        @Override
+        boolean test(Flight flight) {
+            return !operand.test(flight);
+        }
+
+        @Override
+        boolean test(FlightColumns table, int flightIndex) {
+            return !operand.test(table, flightIndex);
+        }
+
+        @Override
+        long getLowerBound(FlightFilterType type) {
+            return Long.MIN_VALUE;
+        }
+
+        @Override
+        long getUpperBound(FlightFilterType type) {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public ExpressionType getType() {
+            return ExpressionType.NOT;
+        }
+
+        @Override
+        public List<FlightExpression> getOperands() {
+            return List.of(operand);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Not && operand.equals(((Not) o).operand);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * operand.hashCode() + 3;
+        }
+
+        @Override
+        public String toString() {
+            return "not " + operand;
+        }
+    }
+
+    private static double rank(double cost, double decisiveProbability) {
+        return decisiveProbability <= 0 ? Double.MAX_VALUE : cost / decisiveProbability;
+    }
+
+    /**
+     * Expected cost of short-circuit evaluation: an operand is checked only if the previous ones did not decide.
+     */
+    private static double expectedCost(List<FlightExpression> operands, boolean conjunction) {
+        double cost = 0;
+        double reachProbability = 1;
+        for (FlightExpression operand : operands) {
+            cost += reachProbability * operand.getCost();
+            reachProbability *= conjunction ? operand.getSelectivity() : 1 - operand.getSelectivity();
+        }
+        return cost;
+    }
+
+    /**
+     * @return type of the expression
+     */
+    public abstract ExpressionType getType();
+
+    /**
+     * @return operands of <code>and</code>, <code>or</code> and <code>not</code> in the planned order, an empty list for
+     * a condition set
+     */
+    public abstract List<FlightExpression> getOperands();
+
+    /**
+     * @return condition set of a <code>CONDITIONS</code> expression, null for the other types
+     */
+    public FlightsFilter getConditions() {
+        return null;
+    }
+}
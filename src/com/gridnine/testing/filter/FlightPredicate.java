@@ -0,0 +1,421 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FlightAggregate;
+import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.interfaces.FlightColumns;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightSummary;
+import com.gridnine.testing.models.FlightTable;
+import com.gridnine.testing.models.Segment;
+
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Fused flight predicate. Compiled once from the condition sets of <code>{@link FlightsFilter}</code>.
+ * <p>
+ * All conditions are checked in a single pass over the segments of a flight:
+ * every arrival and departure condition must be satisfied by at least one segment,
+ * every idle condition must be satisfied by at least one pair of adjacent segments and,
+ * if invalid flights are not allowed, no segment may arrive before its departure.
+ * Epoch times of each segment are computed only once per flight, regardless of the number of conditions.
+ * Idle, aggregate (total idle, maximum idle, duration) and validity conditions are answered from the cached
+ * <code>{@link FlightSummary}</code> of the flight, so they do not convert the segment times again on later calls.
+ * The same conditions can be evaluated against the primitive columns of a <code>{@link FlightColumns}</code> source,
+ * and in bulk against the arrays of a <code>{@link FlightTable}</code> with an <code>{@link EpochKernel}</code>.
+ * A <code>{@link FlightExpression}</code> of the filter is checked after the condition sets, only for the flights
+ * satisfying them.
+ */
+final class FlightPredicate implements Predicate<Flight> {
+    /**
+     * Number of segments compared by one kernel call in <code>scan()</code>.
+     */
+    static final int SCAN_BLOCK_SEGMENTS = 4096;
+    private final FilterOperator[] arrivalOperators;
+    private final long[] arrivalValues;
+    private final FilterOperator[] departureOperators;
+    private final long[] departureValues;
+    private final FilterOperator[] idleOperators;
+    private final long[] idleValues;
+    private final FlightAggregate[] aggregates;
+    private final FilterOperator[] aggregateOperators;
+    private final long[] aggregateValues;
+    private final boolean allowInvalidFlights;
+    private final boolean summaryRequired;
+    private final FlightExpression expression;
+
+    /**
+     * @param arrivalStatementsMap   set of conditions for arrival times
+     * @param departureStatementsMap set of conditions for departure times
+     * @param idleStatementsMap      set of conditions for downtime on the ground
+     * @param aggregateStatementsMap sets of conditions for the aggregates of a flight
+     * @param expression             expression the flights must also satisfy, or null
+     * @param allowInvalidFlights    allows invalid flights (arrivalTime < departureTime) in the result
+     */
+    FlightPredicate(Map<FilterOperator, Long> arrivalStatementsMap, Map<FilterOperator, Long> departureStatementsMap, Map<FilterOperator, Long> idleStatementsMap, Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap, FlightExpression expression, boolean allowInvalidFlights) {
+        this.arrivalOperators = operators(arrivalStatementsMap);
+        this.arrivalValues = values(arrivalStatementsMap);
+        this.departureOperators = operators(departureStatementsMap);
+        this.departureValues = values(departureStatementsMap);
+        this.idleOperators = operators(idleStatementsMap);
+        this.idleValues = values(idleStatementsMap);
+        int aggregateConditionCount = aggregateStatementsMap.values().stream().mapToInt(Map::size).sum();
+        this.aggregates = new FlightAggregate[aggregateConditionCount];
+        this.aggregateOperators = new FilterOperator[aggregateConditionCount];
+        this.aggregateValues = new long[aggregateConditionCount];
+        int i = 0;
+        for (Map.Entry<FlightAggregate, Map<FilterOperator, Long>> aggregateEntry : aggregateStatementsMap.entrySet()) {
+            for (Map.Entry<FilterOperator, Long> condition : aggregateEntry.getValue().entrySet()) {
+                aggregates[i] = aggregateEntry.getKey();
+                aggregateOperators[i] = condition.getKey();
+                aggregateValues[i++] = condition.getValue();
+            }
+        }
+        this.allowInvalidFlights = allowInvalidFlights;
+        this.summaryRequired = !allowInvalidFlights || idleOperators.length > 0 || aggregateConditionCount > 0;
+        this.expression = expression;
+    }
+
+    private static FilterOperator[] operators(Map<FilterOperator, Long> conditionMap) {
+        return conditionMap.keySet().toArray(new FilterOperator[0]);
+    }
+
+    private static long[] values(Map<FilterOperator, Long> conditionMap) {
+        return conditionMap.values().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static int allPending(FilterOperator[] operators) {
+        return (1 << operators.length) - 1;
+    }
+
+    /**
+     * Clears the bits of the pending conditions satisfied by the given value.
+     *
+     * @param pending   bit set of not yet satisfied conditions
+     * @param operators condition operators
+     * @param values    condition operands
+     * @param value     time of the selected target
+     * @return bit set of conditions that are still not satisfied
+     */
+    private static int clearSatisfied(int pending, FilterOperator[] operators, long[] values, long value) {
+        for (int i = 0; i < operators.length; i++) {
+            if ((pending & (1 << i)) != 0 && operators[i].test(value, values[i]))
+                pending &= ~(1 << i);
+        }
+        return pending;
+    }
+
+    private FilterOperator[] getOperators(FlightFilterType type) {
+        return type == FlightFilterType.ARRIVAL ? arrivalOperators : departureOperators;
+    }
+
+    private long[] getValues(FlightFilterType type) {
+        return type == FlightFilterType.ARRIVAL ? arrivalValues : departureValues;
+    }
+
+    /**
+     * @param type target type
+     * @return true if there is at least one condition for the target or the expression bounds the target
+     */
+    boolean hasConditions(FlightFilterType type) {
+        return getOperators(type).length > 0 || expression != null
+                && (expression.getLowerBound(type) != Long.MIN_VALUE || expression.getUpperBound(type) != Long.MAX_VALUE);
+    }
+
+    /**
+     * Every flight that satisfies the conditions of the target has a segment with time not earlier than the bound.
+     *
+     * @param type target type
+     * @return lowest time allowed by the conditions of the target, <code>Long.MIN_VALUE</code> if unbounded
+     */
+    long getLowerBound(FlightFilterType type) {
+        long lowerBound = getLowerBound(getOperators(type), getValues(type));
+        return expression == null ? lowerBound : Math.max(lowerBound, expression.getLowerBound(type));
+    }
+
+    /**
+     * Every flight that satisfies the conditions of the target has a segment with time not later than the bound.
+     *
+     * @param type target type
+     * @return highest time allowed by the conditions of the target, <code>Long.MAX_VALUE</code> if unbounded
+     */
+    long getUpperBound(FlightFilterType type) {
+        long upperBound = getUpperBound(getOperators(type), getValues(type));
+        return expression == null ? upperBound : Math.min(upperBound, expression.getUpperBound(type));
+    }
+
+    /**
+     * @return true if there is at least one idle condition
+     */
+    boolean hasIdleConditions() {
+        return idleOperators.length > 0;
+    }
+
+    /**
+     * Every flight that satisfies the idle conditions has a ground time not shorter than the bound. The expression is
+     * not taken into account.
+     *
+     * @return shortest ground time allowed by the idle conditions, <code>Long.MIN_VALUE</code> if unbounded
+     */
+    long getIdleLowerBound() {
+        return getLowerBound(idleOperators, idleValues);
+    }
+
+    /**
+     * Every flight that satisfies the idle conditions has a ground time not longer than the bound. The expression is
+     * not taken into account.
+     *
+     * @return longest ground time allowed by the idle conditions, <code>Long.MAX_VALUE</code> if unbounded
+     */
+    long getIdleUpperBound() {
+        return getUpperBound(idleOperators, idleValues);
+    }
+
+    private static long getLowerBound(FilterOperator[] operators, long[] values) {
+        long lowerBound = Long.MIN_VALUE;
+        for (int i = 0; i < operators.length; i++) {
+            if (operators[i] == FilterOperator.EQ || operators[i] == FilterOperator.GTE)
+                lowerBound = Math.max(lowerBound, values[i]);
+            else if (operators[i] == FilterOperator.GT && values[i] != Long.MAX_VALUE)
+                lowerBound = Math.max(lowerBound, values[i] + 1);
+        }
+        return lowerBound;
+    }
+
+    private static long getUpperBound(FilterOperator[] operators, long[] values) {
+        long upperBound = Long.MAX_VALUE;
+        for (int i = 0; i < operators.length; i++) {
+            if (operators[i] == FilterOperator.EQ || operators[i] == FilterOperator.LTE)
+                upperBound = Math.min(upperBound, values[i]);
+            else if (operators[i] == FilterOperator.LT && values[i] != Long.MIN_VALUE)
+                upperBound = Math.min(upperBound, values[i] - 1);
+        }
+        return upperBound;
+    }
+
+    private boolean testAggregates(long totalIdle, long maxIdle, long duration) {
+        for (int i = 0; i < aggregates.length; i++) {
+            long value = aggregates[i] == FlightAggregate.TOTAL_IDLE ? totalIdle : aggregates[i] == FlightAggregate.MAX_IDLE ? maxIdle : duration;
+            if (!aggregateOperators[i].test(value, aggregateValues[i]))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean test(Flight flight) {
+        return testConditions(flight) && (expression == null || expression.test(flight));
+    }
+
+    private boolean testConditions(Flight flight) {
+        if (summaryRequired) {
+            FlightSummary summary = flight.getSummary();
+            if (!allowInvalidFlights && !summary.isValid())
+                return false;
+            if (!testAggregates(summary.getTotalGroundTime(), summary.getMaxGroundTime(), summary.getDuration()))
+                return false;
+            int pendingIdle = allPending(idleOperators);
+            for (int i = 0; i < summary.getGroundTimeCount() && pendingIdle != 0; i++) {
+                pendingIdle = clearSatisfied(pendingIdle, idleOperators, idleValues, summary.getGroundTime(i));
+            }
+            if (pendingIdle != 0)
+                return false;
+        }
+        int pendingArrival = allPending(arrivalOperators);
+        int pendingDeparture = allPending(departureOperators);
+        if ((pendingArrival | pendingDeparture) == 0)
+            return true;
+        List<Segment> segments = flight.getSegments();
+        for (int i = 0; i < segments.size() && (pendingArrival | pendingDeparture) != 0; i++) {
+            Segment segment = segments.get(i);
+            if (pendingArrival != 0)
+                pendingArrival = clearSatisfied(pendingArrival, arrivalOperators, arrivalValues, segment.getArrivalDate().toEpochSecond(ZoneOffset.UTC));
+            if (pendingDeparture != 0)
+                pendingDeparture = clearSatisfied(pendingDeparture, departureOperators, departureValues, segment.getDepartureDate().toEpochSecond(ZoneOffset.UTC));
+        }
+        return (pendingArrival | pendingDeparture) == 0;
+    }
+
+    /**
+     * Checks the flight stored in the columns.
+     *
+     * @param table       columnar flights
+     * @param flightIndex index of the flight in the columns
+     * @return true if the flight satisfies all conditions
+     */
+    boolean test(FlightColumns table, int flightIndex) {
+        return testConditions(table, flightIndex) && (expression == null || expression.test(table, flightIndex));
+    }
+
+    private boolean testConditions(FlightColumns table, int flightIndex) {
+        int start = table.getSegmentStart(flightIndex);
+        int end = table.getSegmentEnd(flightIndex);
+        int pendingArrival = allPending(arrivalOperators);
+        int pendingDeparture = allPending(departureOperators);
+        int pendingIdle = allPending(idleOperators);
+        if (aggregates.length > 0) {
+            long totalIdle = 0;
+            long maxIdle = 0;
+            for (int i = start + 1; i < end; i++) {
+                long idle = table.getDepartureEpoch(i) - table.getArrivalEpoch(i - 1);
+                totalIdle += idle;
+                maxIdle = i == start + 1 ? idle : Math.max(maxIdle, idle);
+            }
+            long duration = end > start ? table.getArrivalEpoch(end - 1) - table.getDepartureEpoch(start) : 0;
+            if (!testAggregates(totalIdle, maxIdle, duration))
+                return false;
+        }
+        for (int i = start; i < end && (!allowInvalidFlights || (pendingArrival | pendingDeparture | pendingIdle) != 0); i++) {
+            long departureEpoch = table.getDepartureEpoch(i);
+            long arrivalEpoch = table.getArrivalEpoch(i);
+            if (!allowInvalidFlights && arrivalEpoch < departureEpoch)
+                return false;
+            if (pendingArrival != 0)
+                pendingArrival = clearSatisfied(pendingArrival, arrivalOperators, arrivalValues, arrivalEpoch);
+            if (pendingDeparture != 0)
+                pendingDeparture = clearSatisfied(pendingDeparture, departureOperators, departureValues, departureEpoch);
+            if (pendingIdle != 0 && i > start)
+                pendingIdle = clearSatisfied(pendingIdle, idleOperators, idleValues, departureEpoch - table.getArrivalEpoch(i - 1));
+        }
+        return (pendingArrival | pendingDeparture | pendingIdle) == 0;
+    }
+
+    /**
+     * Checks the flights <code>[from, to)</code> of the table in blocks. For every condition, the kernel compares the
+     * whole column of a block with the operand into a bit mask of segments; a flight satisfies the condition if
+     * any bit of its segments is set. Idle conditions compare the ground times of the block, and validity compares
+     * the arrival column with the departure column. Aggregate conditions and the expression are checked for the remaining
+     * flights only.
+     *
+     * @param table  columnar flights
+     * @param from   first checked flight
+     * @param to     flight following the last checked one
+     * @param kernel comparison kernel
+     * @return ascending indices of the flights that satisfy all conditions
+     */
+    int[] scan(FlightTable table, int from, int to, EpochKernel kernel) {
+        ScanBuffers buffers = new ScanBuffers();
+        int resultSize = scan(table, from, to, kernel, buffers);
+        return Arrays.copyOf(buffers.result, resultSize);
+    }
+
+    /**
+     * Checks the flights <code>[from, to)</code> of the table with the scratch arrays of the buffers, so consecutive
+     * scans with the same buffers allocate nothing once the arrays have grown to the block size.
+     *
+     * @param table   columnar flights
+     * @param from    first checked flight
+     * @param to      flight following the last checked one
+     * @param kernel  comparison kernel
+     * @param buffers scratch arrays, receiving the ascending indices of the matching flights in <code>result</code>
+     * @return number of matching flights
+     * @see #scan(FlightTable, int, int, EpochKernel)
+     */
+    int scan(FlightTable table, int from, int to, EpochKernel kernel, ScanBuffers buffers) {
+        long[] departures = table.getDepartureEpochs();
+        long[] arrivals = table.getArrivalEpochs();
+        int[] segmentOffsets = table.getSegmentOffsets();
+        int[] result = buffers.result = grow(buffers.result, to - from);
+        int resultSize = 0;
+        for (int blockFrom = from; blockFrom < to; ) {
+            int segmentFrom = segmentOffsets[blockFrom];
+            int blockTo = blockFrom + 1;
+            while (blockTo < to && segmentOffsets[blockTo + 1] - segmentFrom <= SCAN_BLOCK_SEGMENTS) {
+                blockTo++;
+            }
+            int segmentTo = segmentOffsets[blockTo];
+            int segmentCount = segmentTo - segmentFrom;
+            if (buffers.segmentMask.length < (segmentCount + 63) >>> 6)
+                buffers.segmentMask = new long[(segmentCount + 63) >>> 6];
+            long[] segmentMask = buffers.segmentMask;
+            if (buffers.rejected.length < blockTo - blockFrom)
+                buffers.rejected = new boolean[Math.max(blockTo - blockFrom, SCAN_BLOCK_SEGMENTS)];
+            boolean[] rejected = buffers.rejected;
+            Arrays.fill(rejected, 0, blockTo - blockFrom, false);
+            if (!allowInvalidFlights) {
+                kernel.lessThan(arrivals, departures, segmentFrom, segmentTo, segmentMask);
+                rejectFlights(segmentOffsets, blockFrom, blockTo, segmentFrom, 0, segmentMask, true, rejected);
+            }
+            for (int i = 0; i < arrivalOperators.length; i++) {
+                kernel.compare(arrivalOperators[i], arrivals, segmentFrom, segmentTo, arrivalValues[i], segmentMask);
+                rejectFlights(segmentOffsets, blockFrom, blockTo, segmentFrom, 0, segmentMask, false, rejected);
+            }
+            for (int i = 0; i < departureOperators.length; i++) {
+                kernel.compare(departureOperators[i], departures, segmentFrom, segmentTo, departureValues[i], segmentMask);
+                rejectFlights(segmentOffsets, blockFrom, blockTo, segmentFrom, 0, segmentMask, false, rejected);
+            }
+            if (idleOperators.length > 0) {
+                long[] groundTimes = buffers.groundTimes = grow(buffers.groundTimes, Math.max(segmentCount, SCAN_BLOCK_SEGMENTS));
+                // the ground time before the first segment of a flight is computed too, but never looked at
+                for (int segment = Math.max(segmentFrom, 1); segment < segmentTo; segment++) {
+                    groundTimes[segment - segmentFrom] = departures[segment] - arrivals[segment - 1];
+                }
+                for (int i = 0; i < idleOperators.length; i++) {
+                    kernel.compare(idleOperators[i], groundTimes, 0, segmentCount, idleValues[i], segmentMask);
+                    rejectFlights(segmentOffsets, blockFrom, blockTo, segmentFrom, 1, segmentMask, false, rejected);
+                }
+            }
+            for (int flight = blockFrom; flight < blockTo; flight++) {
+                if (!rejected[flight - blockFrom] && (aggregates.length == 0 || testConditions(table, flight))
+                        && (expression == null || expression.test(table, flight)))
+                    result[resultSize++] = flight;
+            }
+            blockFrom = blockTo;
+        }
+        return resultSize;
+    }
+
+    private static int[] grow(int[] array, int length) {
+        return array.length < length ? new int[length] : array;
+    }
+
+    private static long[] grow(long[] array, int length) {
+        return array.length < length ? new long[length] : array;
+    }
+
+    /**
+     * Rejects the flights of the block depending on the bits of their segments.
+     *
+     * @param segmentOffsets offsets of the first segment of each flight
+     * @param blockFrom      first flight of the block
+     * @param blockTo        flight following the last flight of the block
+     * @param segmentFrom    first segment of the block, bit 0 of the mask
+     * @param skip           number of leading segments of every flight to ignore
+     * @param segmentMask    bit mask of the segments of the block
+     * @param rejectIfAny    rejects the flights with any bit set if true, the flights with no bit set otherwise
+     * @param rejected       rejection flags of the flights of the block
+     */
+    private static void rejectFlights(int[] segmentOffsets, int blockFrom, int blockTo, int segmentFrom, int skip, long[] segmentMask, boolean rejectIfAny, boolean[] rejected) {
+        for (int flight = blockFrom; flight < blockTo; flight++) {
+            if (!rejected[flight - blockFrom]) {
+                boolean any = anyBit(segmentMask, segmentOffsets[flight] - segmentFrom + skip, segmentOffsets[flight + 1] - segmentFrom);
+                rejected[flight - blockFrom] = any == rejectIfAny;
+            }
+        }
+    }
+
+    /**
+     * @return true if any bit in range <code>[from, to)</code> of the mask is set
+     */
+    private static boolean anyBit(long[] mask, int from, int to) {
+        if (from >= to)
+            return false;
+        int fromWord = from >>> 6;
+        int toWord = (to - 1) >>> 6;
+        long fromBits = -1L << from;
+        long toBits = -1L >>> -to;
+        if (fromWord == toWord)
+            return (mask[fromWord] & fromBits & toBits) != 0;
+        if ((mask[fromWord] & fromBits) != 0 || (mask[toWord] & toBits) != 0)
+            return true;
+        for (int word = fromWord + 1; word < toWord; word++) {
+            if (mask[word] != 0)
+                return true;
+        }
+        return false;
+    }
+}
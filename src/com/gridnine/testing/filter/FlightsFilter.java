@@ -1,14 +1,39 @@
 package com.gridnine.testing.filter;
 
+import com.gridnine.testing.enums.ExecutionMode;
 import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FilterStage;
+import com.gridnine.testing.enums.FlightAggregate;
 import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.enums.FlightOrdering;
+import com.gridnine.testing.interfaces.DataBaseInterface;
 import com.gridnine.testing.interfaces.Filter;
+import com.gridnine.testing.interfaces.FilterMetricsListener;
+import com.gridnine.testing.interfaces.FlightColumns;
+import com.gridnine.testing.interfaces.StreamFilter;
 import com.gridnine.testing.models.Flight;
-import com.gridnine.testing.models.Segment;
+import com.gridnine.testing.models.FlightTable;
 
-import java.time.ZoneOffset;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -18,16 +43,60 @@ import java.util.stream.Stream;
  * <code>idleStatementsMap</code> - set of conditions for downtime on the ground.
  * Parameter <code>allowInvalidFlights</code> allows to exclude from the result flights in which there are segments
  * with an arrival time before departure time.
+ * Sets of conditions on the aggregates of a flight (<code>{@link FlightAggregate}</code>: total and maximum idle time,
+ * duration) are satisfied when the aggregate satisfies all of them.
+ * An optional <code>{@link FlightExpression}</code> combines further condition sets with <code>and</code>,
+ * <code>or</code> and <code>not</code>; the flights must satisfy it together with the condition sets above.
+ * The condition sets are compiled once into a single fused predicate, so every flight is checked against all
+ * conditions in one pass and the result is collected into one output list. Operator <code>specialize()</code> compiles
+ * them further into a predicate generated for the exact condition set.
+ * Results can also be written into caller-provided buffers, a collection or an <code>int[]</code> of positions,
+ * without any allocation per call.
+ * Paged queries return a limited number of matching flights in the input order or sorted by a
+ * <code>{@link FlightOrdering}</code>, without computing and sorting the whole result.
+ * Sources that do not fit in memory can be filtered lazily as a <code>Stream</code>, <code>Spliterator</code> or
+ * <code>Iterator</code> with the same semantics as a list.
+ * Flights stored in a columnar <code>{@link FlightTable}</code> can be filtered directly over its primitive columns,
+ * in blocks of segments compared by a vectorized <code>{@link EpochKernel}</code> when the JVM supports it.
+ * A data base is filtered the way it chooses (<code>{@link DataBaseInterface#scan(Filter)}</code>): the repositories
+ * answer arrival and departure conditions from a time index, skip the shards or compressed blocks whose time ranges
+ * cannot match, or scan their columns, with the condition bounds and the scans the filter provides.
  * Operators <code>doParallel()</code> and <code>doSequential</code> allow to switch the filter on the use of parallel
  * or sequential flow streams for faster performance depending on the amount of data received at the filter input.
+ * Operator <code>doAdaptive()</code> makes the filter choose between them on every call, based on the input size and
+ * the measured cost of checking one flight (see <code>{@link AdaptiveParallelism}</code>).
+ * Operator <code>withExecutor()</code> runs parallel filtering in a caller-supplied pool instead of the common
+ * <code>ForkJoinPool</code>.
+ * Operator <code>withMetrics()</code> reports the duration and execution mode of every call to a
+ * <code>{@link FilterMetricsListener}</code>; calls filtering a flight list then evaluate the conditions in stages and
+ * report the flight counts and duration of every stage as well.
+ * <p>
+ * Filters are immutable and thread-safe: the condition sets are copied when the filter is created, the operators
+ * above return derived filters sharing the compiled predicate, and the execution mode can also be passed per call.
+ * One filter can be cached and used by any number of threads at the same time.
  */
-public class FlightsFilter implements Filter<List<Flight>> {
+public class FlightsFilter implements Filter<List<Flight>>, StreamFilter<Flight> {
+    /**
+     * Number of tasks a parallel call is split into when it is executed by an <code>Executor</code>.
+     */
+    private static final int EXECUTOR_CHUNK_COUNT = 4 * Runtime.getRuntime().availableProcessors();
+    /**
+     * Number of flights of a <code>FlightTable</code> scanned by one task in parallel execution.
+     */
+    private static final int SCAN_CHUNK_FLIGHTS = 1 << 14;
     private final Map<FilterOperator, Long> arrivalStatementsMap;
     private final Map<FilterOperator, Long> departureStatementsMap;
     private final Map<FilterOperator, Long> idleStatementsMap;
+    private final Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap;
+    private final FlightExpression expression;
     private final boolean allowInvalidFlights;
-    private boolean useParallelStream = false;
-    private boolean invalidFlightsRemoved = false;
+    private final FlightPredicate predicate;
+    private final Predicate<Flight> flightPredicate;
+    private final ExecutionMode executionMode;
+    private final AdaptiveParallelism adaptiveParallelism;
+    private final Executor executor;
+    private final EpochKernel kernel;
+    private final FilterMetricsListener metricsListener;
 
     /**
      * @param arrivalStatementsMap   set of conditions for arrival times
@@ -36,170 +105,909 @@ public class FlightsFilter implements Filter<List<Flight>> {
      * @param allowInvalidFlights    allows to exclude from the result invalid flights (departureTime < arrivalTime)
      */
     public FlightsFilter(Map<FilterOperator, Long> arrivalStatementsMap, Map<FilterOperator, Long> departureStatementsMap, Map<FilterOperator, Long> idleStatementsMap, boolean allowInvalidFlights) {
-        this.arrivalStatementsMap = arrivalStatementsMap;
-        this.departureStatementsMap = departureStatementsMap;
-        this.idleStatementsMap = idleStatementsMap;
+        this(arrivalStatementsMap, departureStatementsMap, idleStatementsMap, Collections.emptyMap(), allowInvalidFlights);
+    }
+
+    /**
+     * @param arrivalStatementsMap   set of conditions for arrival times
+     * @param departureStatementsMap set of conditions for departure times
+     * @param idleStatementsMap      set of conditions for downtime on the ground
+     * @param aggregateStatementsMap sets of conditions for the aggregates of a flight
+     * @param allowInvalidFlights    allows to exclude from the result invalid flights (departureTime < arrivalTime)
+     */
+    public FlightsFilter(Map<FilterOperator, Long> arrivalStatementsMap, Map<FilterOperator, Long> departureStatementsMap, Map<FilterOperator, Long> idleStatementsMap, Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap, boolean allowInvalidFlights) {
+        this(arrivalStatementsMap, departureStatementsMap, idleStatementsMap, aggregateStatementsMap, null, allowInvalidFlights);
+    }
+
+    /**
+     * @param arrivalStatementsMap   set of conditions for arrival times
+     * @param departureStatementsMap set of conditions for departure times
+     * @param idleStatementsMap      set of conditions for downtime on the ground
+     * @param aggregateStatementsMap sets of conditions for the aggregates of a flight
+     * @param expression             expression the flights must also satisfy, or null
+     * @param allowInvalidFlights    allows to exclude from the result invalid flights (departureTime < arrivalTime)
+     */
+    public FlightsFilter(Map<FilterOperator, Long> arrivalStatementsMap, Map<FilterOperator, Long> departureStatementsMap, Map<FilterOperator, Long> idleStatementsMap, Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap, FlightExpression expression, boolean allowInvalidFlights) {
+        this.arrivalStatementsMap = snapshot(arrivalStatementsMap);
+        this.departureStatementsMap = snapshot(departureStatementsMap);
+        this.idleStatementsMap = snapshot(idleStatementsMap);
+        this.aggregateStatementsMap = snapshotAggregates(aggregateStatementsMap);
+        this.expression = expression;
         this.allowInvalidFlights = allowInvalidFlights;
+        this.predicate = new FlightPredicate(this.arrivalStatementsMap, this.departureStatementsMap, this.idleStatementsMap, this.aggregateStatementsMap, expression, allowInvalidFlights);
+        this.flightPredicate = predicate;
+        this.executionMode = ExecutionMode.SEQUENTIAL;
+        this.adaptiveParallelism = new AdaptiveParallelism();
+        this.executor = null;
+        this.kernel = EpochKernels.getDefault();
+        this.metricsListener = FilterMetricsListener.NO_OP;
     }
 
-    private Stream<Flight> getFlightStream(List<Flight> flightList) {
-        return useParallelStream ? flightList.parallelStream() : flightList.stream();
+    private FlightsFilter(FlightsFilter source, ExecutionMode executionMode, AdaptiveParallelism adaptiveParallelism, Executor executor) {
+        this(source, executionMode, adaptiveParallelism, executor, source.kernel);
     }
 
-    private long getSegmentEpochByType(Segment segment, FlightFilterType flightFilterType) {
-        switch (flightFilterType) {
-            case ARRIVAL:
-                return segment.getArrivalDate().toEpochSecond(ZoneOffset.UTC);
-            default:
-            case DEPARTURE:
-                return segment.getDepartureDate().toEpochSecond(ZoneOffset.UTC);
-        }
-    }
-
-    private boolean filterStatementResult(Segment segment, long epochTimeToCompare, FilterOperator filterOperator, FlightFilterType flightFilterType) {
-        switch (filterOperator) {
-            case EQ:
-                return getSegmentEpochByType(segment, flightFilterType) == epochTimeToCompare;
-            case GTE:
-                return getSegmentEpochByType(segment, flightFilterType) >= epochTimeToCompare;
-            case GT:
-                return getSegmentEpochByType(segment, flightFilterType) > epochTimeToCompare;
-            case LT:
-                return getSegmentEpochByType(segment, flightFilterType) < epochTimeToCompare;
-            case LTE:
-                return getSegmentEpochByType(segment, flightFilterType) <= epochTimeToCompare;
-            default:
-                return false;
-        }
+    private FlightsFilter(FlightsFilter source, ExecutionMode executionMode, AdaptiveParallelism adaptiveParallelism, Executor executor, EpochKernel kernel) {
+        this(source, executionMode, adaptiveParallelism, executor, kernel, source.metricsListener);
     }
 
-    private boolean isValidSegment(Segment segment) {
-        if (!(allowInvalidFlights || invalidFlightsRemoved)) {
-            return segment.getArrivalDate().toEpochSecond(ZoneOffset.UTC) < segment.getDepartureDate().toEpochSecond(ZoneOffset.UTC);
-        }
-        return true;
+    private FlightsFilter(FlightsFilter source, ExecutionMode executionMode, AdaptiveParallelism adaptiveParallelism, Executor executor, EpochKernel kernel, FilterMetricsListener metricsListener) {
+        this(source, source.flightPredicate, executionMode, adaptiveParallelism, executor, kernel, metricsListener);
     }
 
-    private boolean isValidFlight(Flight flight) {
-        boolean isValid = false;
-        if (allowInvalidFlights && invalidFlightsRemoved) {
-            return true;
-        }
-        for (Segment segment : flight.getSegments()) {
-            isValid |= isValidSegment(segment);
+    private FlightsFilter(FlightsFilter source, Predicate<Flight> flightPredicate, ExecutionMode executionMode, AdaptiveParallelism adaptiveParallelism, Executor executor, EpochKernel kernel, FilterMetricsListener metricsListener) {
+        this.arrivalStatementsMap = source.arrivalStatementsMap;
+        this.departureStatementsMap = source.departureStatementsMap;
+        this.idleStatementsMap = source.idleStatementsMap;
+        this.aggregateStatementsMap = source.aggregateStatementsMap;
+        this.expression = source.expression;
+        this.allowInvalidFlights = source.allowInvalidFlights;
+        this.predicate = source.predicate;
+        this.flightPredicate = flightPredicate;
+        this.executionMode = executionMode;
+        this.adaptiveParallelism = adaptiveParallelism;
+        this.executor = executor;
+        this.kernel = Objects.requireNonNull(kernel);
+        this.metricsListener = Objects.requireNonNull(metricsListener);
+    }
+
+    private static Map<FilterOperator, Long> snapshot(Map<FilterOperator, Long> conditionMap) {
+        Map<FilterOperator, Long> copy = new EnumMap<>(FilterOperator.class);
+        copy.putAll(conditionMap);
+        return Collections.unmodifiableMap(copy);
+    }
+
+    private static Map<FlightAggregate, Map<FilterOperator, Long>> snapshotAggregates(Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap) {
+        Map<FlightAggregate, Map<FilterOperator, Long>> copy = new EnumMap<>(FlightAggregate.class);
+        for (Map.Entry<FlightAggregate, Map<FilterOperator, Long>> entry : aggregateStatementsMap.entrySet()) {
+            if (!entry.getValue().isEmpty())
+                copy.put(entry.getKey(), snapshot(entry.getValue()));
         }
-        return isValid;
+        return Collections.unmodifiableMap(copy);
     }
 
-    private boolean isPassedSegment(Segment segment, long epochTimeToCompare, FilterOperator filterOperator, FlightFilterType filterType) {
-        if (!isValidSegment(segment))
-            return false;
-        return filterStatementResult(segment, epochTimeToCompare, filterOperator, filterType);
-    }
-
-    private boolean isAllowedSegmentDiff(long diffEpochTime, long toleranceSeconds, FilterOperator filterOperator) {
-        switch (filterOperator) {
-            case EQ:
-                return diffEpochTime == toleranceSeconds;
-            case GTE:
-                return diffEpochTime >= toleranceSeconds;
-            case GT:
-                return diffEpochTime > toleranceSeconds;
-            case LT:
-                return diffEpochTime < toleranceSeconds;
-            case LTE:
-                return diffEpochTime <= toleranceSeconds;
+    private boolean isParallel(ExecutionMode mode, int flightCount) {
+        switch (mode) {
+            case PARALLEL:
+                return true;
+            case ADAPTIVE:
+                return adaptiveParallelism.isParallel(flightCount);
             default:
+            case SEQUENTIAL:
                 return false;
         }
     }
 
-    private boolean isAllowedFlightIdleTime(Flight flight, long toleranceSeconds, FilterOperator filterOperator) {
-        boolean isPassed = false;
-        List<Segment> segmentList = flight.getSegments();
-        for (int nextSegmentIndex = 1; nextSegmentIndex <= (segmentList.size() - 1); nextSegmentIndex++) {
-            Segment currentSegment = segmentList.get(nextSegmentIndex - 1);
-            Segment nextSegment = segmentList.get(nextSegmentIndex);
-            long currentArrivalEpoch = currentSegment.getArrivalDate().toEpochSecond(ZoneOffset.UTC);
-            long nextDepartureEpoch = nextSegment.getDepartureDate().toEpochSecond(ZoneOffset.UTC);
-            isPassed |= (isAllowedSegmentDiff(nextDepartureEpoch - currentArrivalEpoch, toleranceSeconds, filterOperator));
+    /**
+     * Runs the task sequentially or in parallel, according to the execution mode, and reports the call to the metrics
+     * listener.
+     *
+     * @param mode           execution mode of the call
+     * @param flightCount    number of flights at the filter input
+     * @param itemCount      number of items the input consists of, flights or shards
+     * @param sequentialTask filters the whole input in the calling thread
+     * @param parallelTask   filters the whole input with a parallel stream
+     * @param chunkTask      filters the items in range <code>[from, to)</code> in the calling thread
+     * @param merger         concatenates the chunk results in their order
+     * @return filter result
+     */
+    private <R> R execute(ExecutionMode mode, int flightCount, int itemCount, Supplier<R> sequentialTask, Supplier<R> parallelTask, BiFunction<Integer, Integer, R> chunkTask, Function<List<R>, R> merger) {
+        boolean parallel = isParallel(mode, flightCount);
+        if (metricsListener == FilterMetricsListener.NO_OP)
+            return run(parallel, mode, flightCount, itemCount, sequentialTask, parallelTask, chunkTask, merger);
+        long startNanos = System.nanoTime();
+        R result = run(parallel, mode, flightCount, itemCount, sequentialTask, parallelTask, chunkTask, merger);
+        metricsListener.onExecution(mode, parallel, flightCount, System.nanoTime() - startNanos);
+        return result;
+    }
+
+    /**
+     * Runs the task sequentially or in parallel, as decided by the caller.
+     */
+    private <R> R run(boolean parallel, ExecutionMode mode, int flightCount, int itemCount, Supplier<R> sequentialTask, Supplier<R> parallelTask, BiFunction<Integer, Integer, R> chunkTask, Function<List<R>, R> merger) {
+        Executor parallelExecutor = executor;
+        if (!parallel) {
+            if (mode != ExecutionMode.ADAPTIVE)
+                return sequentialTask.get();
+            long startNanos = System.nanoTime();
+            R result = sequentialTask.get();
+            adaptiveParallelism.record(flightCount, System.nanoTime() - startNanos);
+            return result;
+        }
+        if (mode == ExecutionMode.ADAPTIVE) {
+            int sampleFlightCount = adaptiveParallelism.getSampleFlightCount(flightCount);
+            if (sampleFlightCount > 0)
+                return runSample(sampleFlightCount, flightCount, itemCount, chunkTask, merger);
         }
-        return isPassed;
+        if (parallelExecutor == null)
+            return parallelTask.get();
+        if (parallelExecutor instanceof ForkJoinPool)
+            return ((ForkJoinPool) parallelExecutor).submit(parallelTask::get).join();
+        return merger.apply(runChunks(parallelExecutor, 0, itemCount, chunkTask));
+    }
+
+    /**
+     * Runs a parallel adaptive call chosen as a sample: the leading items holding about
+     * <code>sampleFlightCount</code> flights are filtered in the calling thread and measured, the remaining items in
+     * parallel chunks. Items that are parts are assumed to hold similar numbers of flights, so at least one part is
+     * measured.
+     */
+    private <R> R runSample(int sampleFlightCount, int flightCount, int itemCount, BiFunction<Integer, Integer, R> chunkTask, Function<List<R>, R> merger) {
+        int sampleItemCount = (int) Math.min(itemCount, Math.max(1, (long) itemCount * sampleFlightCount / flightCount));
+        long startNanos = System.nanoTime();
+        R sample = chunkTask.apply(0, sampleItemCount);
+        adaptiveParallelism.record((int) ((long) flightCount * sampleItemCount / itemCount), System.nanoTime() - startNanos);
+        List<R> chunkResults = new ArrayList<>();
+        chunkResults.add(sample);
+        chunkResults.addAll(runChunks(executor == null ? ForkJoinPool.commonPool() : executor, sampleItemCount, itemCount, chunkTask));
+        return merger.apply(chunkResults);
     }
 
-    private List<Flight> conditionalFilter(List<Flight> flightList, Map<FilterOperator, Long> conditionMap, FlightFilterType flightFilterType) {
-        List<Flight> filteredList = new ArrayList<>(flightList);
-        for (Map.Entry<FilterOperator, Long> conditions : conditionMap.entrySet()) {
-            filteredList = getFlightStream(filteredList)
-                    .filter(flight ->
-                            flight.getSegments().stream().
-                                    anyMatch(segment ->
-                                            isPassedSegment(segment, conditions.getValue(), conditions.getKey(), flightFilterType)))
-                    .collect(Collectors.toList());
+    /**
+     * Filters the items in range <code>[from, to)</code> in up to <code>EXECUTOR_CHUNK_COUNT</code> chunks on the
+     * executor.
+     *
+     * @return chunk results in their order
+     */
+    private static <R> List<R> runChunks(Executor parallelExecutor, int from, int to, BiFunction<Integer, Integer, R> chunkTask) {
+        int chunkSize = Math.max(1, (to - from + EXECUTOR_CHUNK_COUNT - 1) / EXECUTOR_CHUNK_COUNT);
+        List<CompletableFuture<R>> chunks = new ArrayList<>();
+        for (int chunkFrom = from; chunkFrom < to; chunkFrom += chunkSize) {
+            int start = chunkFrom;
+            int end = Math.min(chunkFrom + chunkSize, to);
+            chunks.add(CompletableFuture.supplyAsync(() -> chunkTask.apply(start, end), parallelExecutor));
+        }
+        List<R> chunkResults = new ArrayList<>(chunks.size());
+        for (CompletableFuture<R> chunk : chunks) {
+            chunkResults.add(chunk.join());
         }
-        invalidFlightsRemoved = true;
-        return filteredList;
+        return chunkResults;
     }
 
-    private List<Flight> idleFlightsFilter(List<Flight> flightList, Map<FilterOperator, Long> conditionMap) {
-        List<Flight> filteredList = new ArrayList<>(flightList);
-        for (Map.Entry<FilterOperator, Long> conditions : conditionMap.entrySet()) {
-            long toleranceSeconds = conditions.getValue();
-            filteredList = getFlightStream(filteredList)
-                    .filter(flight -> isAllowedFlightIdleTime(flight, toleranceSeconds, conditions.getKey()))
-                    .filter(this::isValidFlight)
-                    .collect(Collectors.toList());
+    private static List<Flight> concatLists(List<List<Flight>> lists) {
+        List<Flight> result = new ArrayList<>();
+        for (List<Flight> list : lists) {
+            result.addAll(list);
         }
-        invalidFlightsRemoved = true;
-        return filteredList;
+        return result;
     }
 
-    private List<Flight> invalidFlightsFilter(List<Flight> flightList) {
-        List<Flight> filteredList = getFlightStream(flightList)
-                .filter(flight -> flight.getSegments().stream().noneMatch(this::isValidSegment))
-                .collect(Collectors.toList());
-        invalidFlightsRemoved = true;
-        return filteredList;
+    private static int[] concatArrays(List<int[]> arrays) {
+        return arrays.stream().flatMapToInt(IntStream::of).toArray();
     }
 
     /**
      * Switching the filter to use parallel streams.
      *
-     * @return this
+     * @return filter with the same conditions, executed in parallel
      */
     public FlightsFilter doParallel() {
-        this.useParallelStream = true;
-        return this;
+        return new FlightsFilter(this, ExecutionMode.PARALLEL, adaptiveParallelism, executor);
     }
 
     /**
      * Switching the filter to use sequential streams.
      *
-     * @return this
+     * @return filter with the same conditions, executed sequentially
      */
     public FlightsFilter doSequential() {
-        this.useParallelStream = false;
-        return this;
+        return new FlightsFilter(this, ExecutionMode.SEQUENTIAL, adaptiveParallelism, executor);
+    }
+
+    /**
+     * Switching the filter to choose sequential or parallel streams on every call.
+     * All filters derived from the same filter share its calibration.
+     *
+     * @return filter with the same conditions, executed in adaptive mode
+     */
+    public FlightsFilter doAdaptive() {
+        return new FlightsFilter(this, ExecutionMode.ADAPTIVE, adaptiveParallelism, executor);
+    }
+
+    /**
+     * Switching the filter to choose sequential or parallel streams on every call.
+     * The calibration can be shared by several filters with a similar cost.
+     *
+     * @param adaptiveParallelism calibration of the choice
+     * @return filter with the same conditions, executed in adaptive mode
+     */
+    public FlightsFilter doAdaptive(AdaptiveParallelism adaptiveParallelism) {
+        return new FlightsFilter(this, ExecutionMode.ADAPTIVE, Objects.requireNonNull(adaptiveParallelism), executor);
+    }
+
+    /**
+     * Sets the pool for parallel execution. A <code>ForkJoinPool</code> runs the parallel streams of the filter,
+     * any other <code>Executor</code> runs the input split into chunks. By default, the common
+     * <code>ForkJoinPool</code> is used.
+     *
+     * @param executor pool for parallel execution, or null for the common pool
+     * @return filter with the same conditions, executed in the pool
+     */
+    public FlightsFilter withExecutor(Executor executor) {
+        return new FlightsFilter(this, executionMode, adaptiveParallelism, executor);
+    }
+
+    /**
+     * Derived filter scanning <code>FlightTable</code> arrays with the given kernel instead of
+     * <code>{@link EpochKernels#getDefault()}</code>.
+     *
+     * @param kernel comparison kernel
+     * @return filter with the same conditions and the given kernel
+     */
+    public FlightsFilter withKernel(EpochKernel kernel) {
+        return new FlightsFilter(this, executionMode, adaptiveParallelism, executor, kernel);
+    }
+
+    /**
+     * Derived filter with the expression planned for the flights of the sample: the operands of <code>and</code> and
+     * <code>or</code> are ordered by their selectivity measured on the sample instead of the estimated one.
+     *
+     * @param sample flights representative of the filtered data
+     * @return filter with the same conditions and the planned expression, this filter if it has no expression
+     */
+    public FlightsFilter plan(List<Flight> sample) {
+        if (expression == null)
+            return this;
+        FlightsFilter planned = new FlightsFilter(arrivalStatementsMap, departureStatementsMap, idleStatementsMap, aggregateStatementsMap, expression.plan(sample), allowInvalidFlights);
+        planned = new FlightsFilter(planned, executionMode, adaptiveParallelism, executor, kernel, metricsListener);
+        return isSpecialized() ? planned.specialize() : planned;
+    }
+
+    /**
+     * Derived filter checking flight objects with a predicate compiled for its exact condition sets: every condition is
+     * a method handle with the operand folded in, and the chain of conditions is a constant of its own hidden class,
+     * so the JIT compiler inlines it without any dispatch on operators or targets (see
+     * <code>{@link SpecializedPredicates}</code>). Compiling defines a class, so it pays off for filters that are kept
+     * and used many times. If the JVM cannot define the class, the derived filter uses the interpreted predicate.
+     * Columnar tables are always scanned by the interpreted predicate and the <code>{@link EpochKernel}</code>.
+     *
+     * @return filter with the same conditions and a specialized predicate, this filter if it is already specialized
+     */
+    public FlightsFilter specialize() {
+        if (isSpecialized())
+            return this;
+        Predicate<Flight> specializedPredicate = SpecializedPredicates.compile(arrivalStatementsMap, departureStatementsMap, idleStatementsMap, aggregateStatementsMap, expression, allowInvalidFlights, predicate);
+        return new FlightsFilter(this, specializedPredicate, executionMode, adaptiveParallelism, executor, kernel, metricsListener);
+    }
+
+    /**
+     * @return true if flight objects are checked by a specialized predicate, see <code>{@link #specialize()}</code>
+     */
+    public boolean isSpecialized() {
+        return flightPredicate != predicate;
+    }
+
+    /**
+     * Derived filter reporting its calls to the listener.
+     *
+     * @param metricsListener receiver of the metrics, <code>{@link FilterMetricsListener#NO_OP}</code> to switch the
+     *                        metrics off
+     * @return filter with the same conditions, reporting to the listener
+     */
+    public FlightsFilter withMetrics(FilterMetricsListener metricsListener) {
+        return new FlightsFilter(this, executionMode, adaptiveParallelism, executor, kernel, metricsListener);
+    }
+
+    /**
+     * @return metrics listener of the filter
+     */
+    public FilterMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * @return comparison kernel of the filter
+     */
+    public EpochKernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * @return compiled predicate of the filter
+     */
+    FlightPredicate getPredicate() {
+        return predicate;
+    }
+
+    /**
+     * @return execution mode of the filter
+     */
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * @return unmodifiable set of conditions for arrival times
+     */
+    public Map<FilterOperator, Long> getArrivalStatementsMap() {
+        return arrivalStatementsMap;
+    }
+
+    /**
+     * @return unmodifiable set of conditions for departure times
+     */
+    public Map<FilterOperator, Long> getDepartureStatementsMap() {
+        return departureStatementsMap;
+    }
+
+    /**
+     * @return unmodifiable set of conditions for downtime on the ground
+     */
+    public Map<FilterOperator, Long> getIdleStatementsMap() {
+        return idleStatementsMap;
+    }
+
+    /**
+     * @return unmodifiable sets of conditions for the aggregates of a flight, without empty sets
+     */
+    public Map<FlightAggregate, Map<FilterOperator, Long>> getAggregateStatementsMap() {
+        return aggregateStatementsMap;
+    }
+
+    /**
+     * @return expression the flights must satisfy together with the condition sets, null if there is none
+     */
+    public FlightExpression getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return true if invalid flights (arrivalTime < departureTime) are allowed in the result
+     */
+    public boolean isAllowInvalidFlights() {
+        return allowInvalidFlights;
+    }
+
+    /**
+     * Filters are equal if they have the same condition sets, equal expressions and the same
+     * <code>allowInvalidFlights</code> flag, so
+     * equal filters always return the same result for the same input. The execution mode and the executor are not
+     * compared: they affect only how the result is computed.
+     *
+     * @param o the reference object with which to compare
+     * @return true if the filters have the same conditions
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof FlightsFilter))
+            return false;
+        FlightsFilter that = (FlightsFilter) o;
+        return allowInvalidFlights == that.allowInvalidFlights
+                && arrivalStatementsMap.equals(that.arrivalStatementsMap)
+                && departureStatementsMap.equals(that.departureStatementsMap)
+                && idleStatementsMap.equals(that.idleStatementsMap)
+                && aggregateStatementsMap.equals(that.aggregateStatementsMap)
+                && Objects.equals(expression, that.expression);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(arrivalStatementsMap, departureStatementsMap, idleStatementsMap, aggregateStatementsMap, expression, allowInvalidFlights);
     }
 
     /**
      * Filters the input flight list and returns the filtered list.
+     * The input list is traversed only once.
      *
      * @param flightList input data
-     * @return
+     * @return list of flights that satisfy all conditions, in the order of the input list
      */
     @Override
     public List<Flight> filter(final List<Flight> flightList) {
-        List<Flight> filteredFlights = new ArrayList<>(flightList);
+        return filter(flightList, executionMode);
+    }
+
+    /**
+     * Filters the input flight list in the given execution mode and returns the filtered list.
+     *
+     * @param flightList    input data
+     * @param executionMode execution mode of this call
+     * @return list of flights that satisfy all conditions, in the order of the input list
+     */
+    public List<Flight> filter(final List<Flight> flightList, ExecutionMode executionMode) {
+        if (metricsListener != FilterMetricsListener.NO_OP)
+            return filterInStages(flightList, executionMode);
+        return execute(executionMode, flightList.size(), flightList.size(),
+                () -> flightList.stream().filter(flightPredicate).collect(Collectors.toList()),
+                () -> flightList.parallelStream().filter(flightPredicate).collect(Collectors.toList()),
+                (from, to) -> flightList.subList(from, to).stream().filter(flightPredicate).collect(Collectors.toList()),
+                FlightsFilter::concatLists);
+    }
+
+    /**
+     * Appends the flights of the list that satisfy all conditions to the output, in the calling thread, whatever the
+     * execution mode. Nothing is allocated apart from the growth of the output, so a cleared output list can be reused
+     * to filter without garbage. The flights of a <code>RandomAccess</code> list are read by index.
+     *
+     * @param flightList input data
+     * @param output     receives the matching flights, in the order of the input list
+     * @return number of appended flights
+     */
+    public int filterInto(final List<Flight> flightList, final Collection<? super Flight> output) {
+        long startNanos = metricsListener == FilterMetricsListener.NO_OP ? 0 : System.nanoTime();
+        int count = 0;
+        if (flightList instanceof RandomAccess) {
+            for (int position = 0; position < flightList.size(); position++) {
+                Flight flight = flightList.get(position);
+                if (flightPredicate.test(flight)) {
+                    output.add(flight);
+                    count++;
+                }
+            }
+        } else {
+            for (Flight flight : flightList) {
+                if (flightPredicate.test(flight)) {
+                    output.add(flight);
+                    count++;
+                }
+            }
+        }
+        if (metricsListener != FilterMetricsListener.NO_OP)
+            metricsListener.onExecution(ExecutionMode.SEQUENTIAL, false, flightList.size(), System.nanoTime() - startNanos);
+        return count;
+    }
+
+    /**
+     * Writes the positions of the matching flights of the list into the output, in the calling thread and without
+     * allocation.
+     *
+     * @param flightList input data
+     * @param output     receives the ascending positions of the matching flights
+     * @return number of written positions; if it equals the output length, the output is full and the filtering can be
+     * continued after the last written position with <code>{@link #filterIndices(List, int, int, int[])}</code>
+     */
+    public int filterIndices(final List<Flight> flightList, final int[] output) {
+        return filterIndices(flightList, 0, flightList.size(), output);
+    }
+
+    /**
+     * Writes the positions of the matching flights in range <code>[from, to)</code> of the list into the output, in the
+     * calling thread and without allocation. Filtering stops when the output is full. The flights of a
+     * <code>RandomAccess</code> list are read by index, other lists are iterated from <code>from</code>.
+     *
+     * @param flightList input data
+     * @param from       first checked position
+     * @param to         position following the last checked one
+     * @param output     receives the ascending positions of the matching flights
+     * @return number of written positions
+     */
+    public int filterIndices(final List<Flight> flightList, int from, int to, final int[] output) {
+        long startNanos = metricsListener == FilterMetricsListener.NO_OP ? 0 : System.nanoTime();
+        int count = 0;
+        int position = from;
+        if (flightList instanceof RandomAccess) {
+            for (; position < to && count < output.length; position++) {
+                if (flightPredicate.test(flightList.get(position)))
+                    output[count++] = position;
+            }
+        } else if (from < to) {
+            for (Iterator<Flight> flights = flightList.listIterator(from); position < to && count < output.length; position++) {
+                if (flightPredicate.test(flights.next()))
+                    output[count++] = position;
+            }
+        }
+        if (metricsListener != FilterMetricsListener.NO_OP)
+            metricsListener.onExecution(ExecutionMode.SEQUENTIAL, false, position - from, System.nanoTime() - startNanos);
+        return count;
+    }
+
+    /**
+     * Writes the indices of the matching flights in range <code>[from, to)</code> of the columnar table into the output,
+     * in the calling thread and without allocation. Filtering stops when the output is full.
+     *
+     * @param flightTable input data
+     * @param from        first checked flight
+     * @param to          flight following the last checked one
+     * @param output      receives the ascending indices of the matching flights
+     * @return number of written indices
+     */
+    public int filterIndices(final FlightColumns flightTable, int from, int to, final int[] output) {
+        long startNanos = metricsListener == FilterMetricsListener.NO_OP ? 0 : System.nanoTime();
+        int count = 0;
+        int flightIndex = from;
+        for (; flightIndex < to && count < output.length; flightIndex++) {
+            if (predicate.test(flightTable, flightIndex))
+                output[count++] = flightIndex;
+        }
+        if (metricsListener != FilterMetricsListener.NO_OP)
+            metricsListener.onExecution(ExecutionMode.SEQUENTIAL, false, flightIndex - from, System.nanoTime() - startNanos);
+        return count;
+    }
+
+    /**
+     * Filters the list stage by stage, each stage checking only the flights satisfying the previous ones, and reports
+     * every stage and the whole call to the metrics listener. The conditions are independent, so the result is the
+     * same as with the fused predicate, at the cost of one more pass over the remaining flights per stage.
+     */
+    private List<Flight> filterInStages(final List<Flight> flightList, ExecutionMode executionMode) {
+        boolean parallel = isParallel(executionMode, flightList.size());
+        ExecutionMode stageMode = parallel ? ExecutionMode.PARALLEL : ExecutionMode.SEQUENTIAL;
+        long startNanos = System.nanoTime();
+        List<Flight> flights = flightList;
+        for (Map.Entry<FilterStage, FlightPredicate> stage : getStagePredicates().entrySet()) {
+            long stageStartNanos = System.nanoTime();
+            List<Flight> stageInput = flights;
+            FlightPredicate stagePredicate = stage.getValue();
+            flights = run(parallel, stageMode, stageInput.size(), stageInput.size(),
+                    () -> stageInput.stream().filter(stagePredicate).collect(Collectors.toList()),
+                    () -> stageInput.parallelStream().filter(stagePredicate).collect(Collectors.toList()),
+                    (from, to) -> stageInput.subList(from, to).stream().filter(stagePredicate).collect(Collectors.toList()),
+                    FlightsFilter::concatLists);
+            metricsListener.onStage(stage.getKey(), stageInput.size(), flights.size(), System.nanoTime() - stageStartNanos);
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (executionMode == ExecutionMode.ADAPTIVE && !parallel)
+            adaptiveParallelism.record(flightList.size(), elapsedNanos);
+        metricsListener.onExecution(executionMode, parallel, flightList.size(), elapsedNanos);
+        return flights == flightList ? new ArrayList<>(flightList) : flights;
+    }
+
+    /**
+     * @return predicates of the non-empty stages of the filter, in the order of evaluation
+     */
+    private Map<FilterStage, FlightPredicate> getStagePredicates() {
+        Map<FilterOperator, Long> none = Collections.emptyMap();
+        Map<FlightAggregate, Map<FilterOperator, Long>> noAggregates = Collections.emptyMap();
+        Map<FilterStage, FlightPredicate> stages = new EnumMap<>(FilterStage.class);
+        if (!allowInvalidFlights)
+            stages.put(FilterStage.INVALID, new FlightPredicate(none, none, none, noAggregates, null, false));
+        if (!aggregateStatementsMap.isEmpty())
+            stages.put(FilterStage.AGGREGATE, new FlightPredicate(none, none, none, aggregateStatementsMap, null, true));
+        if (!idleStatementsMap.isEmpty())
+            stages.put(FilterStage.IDLE, new FlightPredicate(none, none, idleStatementsMap, noAggregates, null, true));
         if (!arrivalStatementsMap.isEmpty())
-            filteredFlights = conditionalFilter(filteredFlights, arrivalStatementsMap, FlightFilterType.ARRIVAL);
+            stages.put(FilterStage.ARRIVAL, new FlightPredicate(arrivalStatementsMap, none, none, noAggregates, null, true));
         if (!departureStatementsMap.isEmpty())
-            filteredFlights = conditionalFilter(filteredFlights, departureStatementsMap, FlightFilterType.DEPARTURE);
-        if (!idleStatementsMap.isEmpty())
-            filteredFlights = idleFlightsFilter(filteredFlights, idleStatementsMap);
-        if ((arrivalStatementsMap.isEmpty() && departureStatementsMap.isEmpty() && idleStatementsMap.isEmpty()) || !allowInvalidFlights)
-            filteredFlights = invalidFlightsFilter(filteredFlights);
-        invalidFlightsRemoved = false;
-        return filteredFlights;
+            stages.put(FilterStage.DEPARTURE, new FlightPredicate(none, departureStatementsMap, none, noAggregates, null, true));
+        if (expression != null)
+            stages.put(FilterStage.EXPRESSION, new FlightPredicate(none, none, none, noAggregates, expression, true));
+        return stages;
+    }
+
+    /**
+     * Returns one page of the flights that satisfy all conditions, in the given order.
+     * In the input order, sequential execution stops reading the input as soon as the page is complete. Other
+     * orders keep the <code>offset + limit</code> first flights in a bounded heap, one heap per task in parallel
+     * execution, so the query takes <code>O(n log k)</code> time and <code>O(k)</code> memory for
+     * <code>k = offset + limit</code>. Flights that cannot enter the heap are not checked against the conditions.
+     *
+     * @param flightList input data
+     * @param limit      maximum number of returned flights
+     * @param offset     number of leading flights of the ordered result to skip
+     * @param ordering   order of the result
+     * @return flights from <code>offset</code> to <code>offset + limit</code> of the ordered result
+     */
+    public List<Flight> filter(final List<Flight> flightList, int limit, int offset, FlightOrdering ordering) {
+        return filter(flightList, limit, offset, ordering, executionMode);
+    }
+
+    /**
+     * Returns one page of the flights that satisfy all conditions, in the given order and execution mode.
+     *
+     * @param flightList    input data
+     * @param limit         maximum number of returned flights
+     * @param offset        number of leading flights of the ordered result to skip
+     * @param ordering      order of the result
+     * @param executionMode execution mode of this call
+     * @return flights from <code>offset</code> to <code>offset + limit</code> of the ordered result
+     * @see #filter(List, int, int, FlightOrdering)
+     */
+    public List<Flight> filter(final List<Flight> flightList, int limit, int offset, FlightOrdering ordering, ExecutionMode executionMode) {
+        if (limit < 0 || offset < 0)
+            throw new IllegalArgumentException("FlightsFilter: limit and offset must not be negative");
+        int topCount = (int) Math.min(Integer.MAX_VALUE, (long) limit + offset);
+        int flightCount = flightList.size();
+        if (ordering == FlightOrdering.INPUT) {
+            // an early stop says nothing about the cost of the whole input, so it does not calibrate the adaptive mode
+            ExecutionMode pageMode = isParallel(executionMode, flightCount) ? ExecutionMode.PARALLEL : ExecutionMode.SEQUENTIAL;
+            List<Flight> firstFlights = execute(pageMode, flightCount, flightCount,
+                    () -> firstMatches(flightList, 0, flightCount, topCount),
+                    () -> flightList.parallelStream().filter(flightPredicate).limit(topCount).collect(Collectors.toList()),
+                    (from, to) -> firstMatches(flightList, from, to, topCount),
+                    FlightsFilter::concatLists);
+            return new ArrayList<>(firstFlights.subList(Math.min(offset, firstFlights.size()), Math.min(topCount, firstFlights.size())));
+        }
+        TopFlights topFlights = execute(executionMode, flightCount, flightCount,
+                () -> topMatches(flightList, 0, flightCount, topCount, ordering),
+                () -> IntStream.range(0, flightCount).parallel().collect(() -> new TopFlights(topCount),
+                        (heap, position) -> offerMatch(heap, flightList.get(position), position, ordering), TopFlights::merge),
+                (from, to) -> topMatches(flightList, from, to, topCount, ordering),
+                heaps -> {
+                    TopFlights merged = new TopFlights(topCount);
+                    heaps.forEach(merged::merge);
+                    return merged;
+                });
+        return topFlights.drain(offset);
+    }
+
+    private List<Flight> firstMatches(List<Flight> flightList, int from, int to, int count) {
+        List<Flight> matches = new ArrayList<>();
+        for (int position = from; position < to && matches.size() < count; position++) {
+            Flight flight = flightList.get(position);
+            if (flightPredicate.test(flight))
+                matches.add(flight);
+        }
+        return matches;
+    }
+
+    private TopFlights topMatches(List<Flight> flightList, int from, int to, int count, FlightOrdering ordering) {
+        TopFlights heap = new TopFlights(count);
+        for (int position = from; position < to; position++) {
+            offerMatch(heap, flightList.get(position), position, ordering);
+        }
+        return heap;
+    }
+
+    private void offerMatch(TopFlights heap, Flight flight, int position, FlightOrdering ordering) {
+        long key = ordering.getKey(flight.getSummary());
+        if (heap.accepts(key, position) && flightPredicate.test(flight))
+            heap.offer(key, position, flight);
+    }
+
+    /**
+     * Filters the input stream lazily. Every flight is checked when the stream requests it, so the flights are
+     * processed in constant memory and short-circuiting operations such as <code>limit()</code> and
+     * <code>findFirst()</code> stop reading the source. The stream keeps its own sequential or parallel mode.
+     *
+     * @param flightStream input data
+     * @return stream of flights that satisfy all conditions
+     */
+    @Override
+    public Stream<Flight> filter(final Stream<Flight> flightStream) {
+        return flightStream.filter(flightPredicate);
+    }
+
+    /**
+     * Filters the input spliterator lazily. The result splits together with the source, so it can back a parallel
+     * stream.
+     *
+     * @param flightSpliterator input data
+     * @return spliterator of flights that satisfy all conditions
+     */
+    public Spliterator<Flight> filter(final Spliterator<Flight> flightSpliterator) {
+        return new FilteringSpliterator<>(flightSpliterator, flightPredicate);
+    }
+
+    /**
+     * Filters the input iterator lazily.
+     *
+     * @param flightIterator input data
+     * @return iterator of flights that satisfy all conditions
+     */
+    public Iterator<Flight> filter(final Iterator<Flight> flightIterator) {
+        return Spliterators.iterator(filter(Spliterators.spliteratorUnknownSize(flightIterator, Spliterator.ORDERED | Spliterator.NONNULL)));
+    }
+
+    /**
+     * Filters the flights of the columnar table, e.g. a <code>{@link FlightTable}</code>.
+     *
+     * @param flightTable input data
+     * @return ascending indices of the flights of the table that satisfy all conditions
+     */
+    public int[] filterIndices(final FlightColumns flightTable) {
+        return filterIndices(flightTable, executionMode);
+    }
+
+    /**
+     * Filters the flights of the columnar table in the given execution mode.
+     *
+     * @param flightTable   input data
+     * @param executionMode execution mode of this call
+     * @return ascending indices of the flights of the table that satisfy all conditions
+     */
+    public int[] filterIndices(final FlightColumns flightTable, ExecutionMode executionMode) {
+        if (flightTable instanceof FlightTable)
+            return scanIndices((FlightTable) flightTable, executionMode);
+        return execute(executionMode, flightTable.getFlightCount(), flightTable.getFlightCount(),
+                () -> IntStream.range(0, flightTable.getFlightCount()).filter(flightIndex -> predicate.test(flightTable, flightIndex)).toArray(),
+                () -> IntStream.range(0, flightTable.getFlightCount()).parallel().filter(flightIndex -> predicate.test(flightTable, flightIndex)).toArray(),
+                (from, to) -> IntStream.range(from, to).filter(flightIndex -> predicate.test(flightTable, flightIndex)).toArray(),
+                FlightsFilter::concatArrays);
+    }
+
+    /**
+     * Filters the arrays of the table in bulk with the <code>{@link EpochKernel}</code> of the filter.
+     * Parallel execution scans ranges of <code>SCAN_CHUNK_FLIGHTS</code> flights in parallel.
+     */
+    private int[] scanIndices(final FlightTable flightTable, ExecutionMode executionMode) {
+        int flightCount = flightTable.getFlightCount();
+        int chunkCount = (flightCount + SCAN_CHUNK_FLIGHTS - 1) / SCAN_CHUNK_FLIGHTS;
+        return execute(executionMode, flightCount, flightCount,
+                () -> predicate.scan(flightTable, 0, flightCount, kernel),
+                () -> IntStream.range(0, chunkCount).parallel()
+                        .mapToObj(chunk -> predicate.scan(flightTable, chunk * SCAN_CHUNK_FLIGHTS, Math.min(flightCount, (chunk + 1) * SCAN_CHUNK_FLIGHTS), kernel))
+                        .flatMapToInt(IntStream::of)
+                        .toArray(),
+                (from, to) -> predicate.scan(flightTable, from, to, kernel),
+                FlightsFilter::concatArrays);
+    }
+
+    /**
+     * Filters the flights of the columnar table into a bitmap of flight ordinals.
+     *
+     * @param flightTable input data
+     * @return bitmap of the flights of the table that satisfy all conditions
+     */
+    public FlightBitmap filterBitmap(final FlightColumns flightTable) {
+        return FlightBitmap.of(flightTable.getFlightCount(), filterIndices(flightTable));
+    }
+
+    /**
+     * Splits the filter into filters of one condition each. Conditions are independent, so a flight satisfies this
+     * filter if and only if it satisfies every returned filter. If invalid flights are not allowed, one of the returned
+     * filters has no conditions and only removes invalid flights. The expression of the filter, if any, is returned as
+     * one filter.
+     *
+     * @return filters of one condition each
+     */
+    public List<FlightsFilter> getConditionFilters() {
+        List<FlightsFilter> conditionFilters = new ArrayList<>();
+        Map<FilterOperator, Long> none = Collections.emptyMap();
+        for (Map.Entry<FilterOperator, Long> condition : arrivalStatementsMap.entrySet()) {
+            conditionFilters.add(new FlightsFilter(Map.of(condition.getKey(), condition.getValue()), none, none, true));
+        }
+        for (Map.Entry<FilterOperator, Long> condition : departureStatementsMap.entrySet()) {
+            conditionFilters.add(new FlightsFilter(none, Map.of(condition.getKey(), condition.getValue()), none, true));
+        }
+        for (Map.Entry<FilterOperator, Long> condition : idleStatementsMap.entrySet()) {
+            conditionFilters.add(new FlightsFilter(none, none, Map.of(condition.getKey(), condition.getValue()), true));
+        }
+        for (Map.Entry<FlightAggregate, Map<FilterOperator, Long>> aggregateEntry : aggregateStatementsMap.entrySet()) {
+            for (Map.Entry<FilterOperator, Long> condition : aggregateEntry.getValue().entrySet()) {
+                conditionFilters.add(new FlightsFilter(none, none, none, Map.of(aggregateEntry.getKey(), Map.of(condition.getKey(), condition.getValue())), true));
+            }
+        }
+        if (!allowInvalidFlights)
+            conditionFilters.add(new FlightsFilter(none, none, none, false));
+        if (expression != null)
+            conditionFilters.add(new FlightsFilter(none, none, none, Collections.emptyMap(), expression, true));
+        return conditionFilters;
+    }
+
+    /**
+     * Filters all flights of the data base. The data base chooses how, see
+     * <code>{@link DataBaseInterface#scan(Filter)}</code>: repositories with an index, columns, shards or compressed
+     * blocks override it with the building blocks below, any other data base filters <code>getAll()</code>.
+     *
+     * @param db input data
+     * @return list of flights that satisfy all conditions, in the order of the data base
+     */
+    public List<Flight> filter(final DataBaseInterface<Flight> db) {
+        return db.scan(this);
+    }
+
+    /**
+     * Filters all flights of the data base in the given execution mode.
+     *
+     * @param db            input data
+     * @param executionMode execution mode of this call
+     * @return list of flights that satisfy all conditions, in the order of the data base
+     * @see #filter(DataBaseInterface)
+     */
+    public List<Flight> filter(final DataBaseInterface<Flight> db, ExecutionMode executionMode) {
+        if (executionMode == this.executionMode)
+            return db.scan(this);
+        return db.scan(new FlightsFilter(this, executionMode, adaptiveParallelism, executor, kernel, metricsListener));
+    }
+
+    /**
+     * @param flight checked flight
+     * @return true if the flight satisfies all conditions
+     */
+    public boolean test(Flight flight) {
+        return flightPredicate.test(flight);
+    }
+
+    /**
+     * @param flightTable columnar flights
+     * @param flightIndex index of the checked flight in the table
+     * @return true if the flight satisfies all conditions
+     */
+    public boolean test(FlightColumns flightTable, int flightIndex) {
+        return predicate.test(flightTable, flightIndex);
+    }
+
+    /**
+     * Scans all flights of the table with the <code>{@link EpochKernel}</code> of the filter, in the calling thread.
+     * The scan is not reported to the metrics listener, it is meant for data bases decoding their parts into tables
+     * inside <code>{@link #filterParts(List, int, Function)}</code>.
+     *
+     * @param flightTable input data
+     * @param buffers     scratch arrays of the calling thread, receiving the indices of the matching flights
+     * @return number of matching flights
+     */
+    public int scan(FlightTable flightTable, ScanBuffers buffers) {
+        return predicate.scan(flightTable, 0, flightTable.getFlightCount(), kernel, buffers);
+    }
+
+    /**
+     * Filters independent parts of a data base, e.g. shards or blocks, in the execution mode of the filter, and
+     * reports the call to the metrics listener. Sequential execution passes all parts to one task, parallel execution
+     * runs one task per part or per range of parts.
+     *
+     * @param parts       parts that may contain matching flights
+     * @param flightCount number of flights in the parts
+     * @param partsTask   filters a range of consecutive parts in the calling thread
+     * @return concatenated results of the tasks, in the order of the parts
+     */
+    public <P> List<Flight> filterParts(List<P> parts, int flightCount, Function<List<P>, List<Flight>> partsTask) {
+        return execute(executionMode, flightCount, parts.size(),
+                () -> partsTask.apply(parts),
+                () -> concatLists(parts.parallelStream().map(part -> partsTask.apply(List.of(part))).collect(Collectors.toList())),
+                (from, to) -> partsTask.apply(parts.subList(from, to)),
+                FlightsFilter::concatLists);
+    }
+
+    /**
+     * @param type target of the conditions
+     * @return true if the filter has conditions for the target
+     */
+    public boolean hasConditions(FlightFilterType type) {
+        return predicate.hasConditions(type);
+    }
+
+    /**
+     * Lower bound of the conditions for the target: a flight can satisfy them only if it has a segment with the target
+     * time not earlier. Data bases compare it with their indices and zone maps.
+     *
+     * @param type target of the conditions
+     * @return lower bound in epoch seconds, <code>Long.MIN_VALUE</code> if the conditions do not bound it
+     */
+    public long getLowerBound(FlightFilterType type) {
+        return predicate.getLowerBound(type);
+    }
+
+    /**
+     * Upper bound of the conditions for the target: a flight can satisfy them only if it has a segment with the target
+     * time not later.
+     *
+     * @param type target of the conditions
+     * @return upper bound in epoch seconds, <code>Long.MAX_VALUE</code> if the conditions do not bound it
+     */
+    public long getUpperBound(FlightFilterType type) {
+        return predicate.getUpperBound(type);
+    }
+
+    /**
+     * @return true if the filter has conditions for the ground times
+     */
+    public boolean hasIdleConditions() {
+        return predicate.hasIdleConditions();
+    }
+
+    /**
+     * @return shortest ground time allowed by the idle conditions in seconds, <code>Long.MIN_VALUE</code> if unbounded
+     */
+    public long getIdleLowerBound() {
+        return predicate.getIdleLowerBound();
+    }
+
+    /**
+     * @return longest ground time allowed by the idle conditions in seconds, <code>Long.MAX_VALUE</code> if unbounded
+     */
+    public long getIdleUpperBound() {
+        return predicate.getIdleUpperBound();
     }
 }
@@ -0,0 +1,100 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.models.Flight;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reactive filtering stage. Receives flights from an upstream <code>{@link Flow.Publisher}</code>, checks each of them
+ * against the compiled conditions of a <code>{@link FlightsFilter}</code> and publishes the matching flights to its
+ * subscribers.
+ * <p>
+ * Flights are requested from the upstream in batches of <code>batchSize</code>; the next batch is requested only after
+ * the previous one has been processed and the buffers of all subscribers have room for the whole batch. Matching
+ * flights are delivered to the subscribers on the given executor through bounded buffers of
+ * <code>maxBufferCapacity</code> flights. When a subscriber falls behind, no further flights are requested from the
+ * upstream and the request is retried on the executor after <code>RETRY_DELAY_MILLIS</code>, so the backpressure
+ * propagates without unbounded buffering. Publishing never blocks the thread delivering the upstream flights, so the
+ * upstream and this stage may share any executor, including a single thread.
+ */
+public class FlightsFilterProcessor extends SubmissionPublisher<Flight> implements Flow.Processor<Flight, Flight> {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final long RETRY_DELAY_MILLIS = 1;
+    private final FlightPredicate predicate;
+    private final int batchSize;
+    private Flow.Subscription subscription;
+    private int remainingInBatch;
+
+    /**
+     * Creates the stage delivering to the subscribers on the common <code>ForkJoinPool</code> with the default buffer
+     * capacity and batch size.
+     *
+     * @param flightsFilter filter applied to every flight
+     */
+    public FlightsFilterProcessor(FlightsFilter flightsFilter) {
+        this(flightsFilter, ForkJoinPool.commonPool(), Flow.defaultBufferSize(), DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param flightsFilter     filter applied to every flight
+     * @param executor          executor delivering flights to the subscribers
+     * @param maxBufferCapacity maximum number of buffered flights per subscriber
+     * @param batchSize         number of flights requested from the upstream at once, limited to the buffer capacity
+     */
+    public FlightsFilterProcessor(FlightsFilter flightsFilter, Executor executor, int maxBufferCapacity, int batchSize) {
+        super(executor, maxBufferCapacity);
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("FlightsFilterProcessor: batch size must be positive");
+        this.predicate = flightsFilter.getPredicate();
+        this.batchSize = Math.min(batchSize, getMaxBufferCapacity());
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        requestBatch();
+    }
+
+    @Override
+    public void onNext(Flight flight) {
+        if (predicate.test(Objects.requireNonNull(flight)))
+            submit(flight);
+        if (--remainingInBatch == 0)
+            requestBatch();
+    }
+
+    /**
+     * Requests the next batch if every subscriber can buffer all of its flights, so <code>submit()</code> never
+     * blocks; otherwise retries later on the executor, letting the subscribers drain their buffers meanwhile.
+     */
+    private void requestBatch() {
+        if (isClosed())
+            return;
+        if (estimateMaximumLag() + batchSize > getMaxBufferCapacity()) {
+            CompletableFuture.delayedExecutor(RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS, getExecutor()).execute(this::requestBatch);
+            return;
+        }
+        remainingInBatch = batchSize;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        closeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        close();
+    }
+}
@@ -0,0 +1,152 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.interfaces.ChangeListener;
+import com.gridnine.testing.interfaces.ObservableDataBase;
+import com.gridnine.testing.interfaces.ViewListener;
+import com.gridnine.testing.models.Flight;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Filtered view of an <code>{@link ObservableDataBase}</code> that is kept up to date incrementally.
+ * <p>
+ * The view subscribes to the changes of the data base and filters the snapshot taken with the subscription once.
+ * An inserted, updated or deleted flight is checked by the compiled predicate of the filter, so a change costs time proportional to the
+ * segments of the changed flights, not to the size of the data base. Flights entering or leaving the result are passed
+ * to the view listeners, in the order of the changes.
+ * <p>
+ * Flights are identified by reference. The result keeps the order in which the flights entered the view.
+ * Changes are applied and passed to the listeners under the lock of the view, so listeners should be fast and must not
+ * change the data base. The view stops following the data base when it is closed.
+ */
+public class MaterializedFlightsView implements ChangeListener<Flight>, AutoCloseable {
+    private final FlightsFilter flightsFilter;
+    private final ObservableDataBase<Flight> db;
+    private final Set<Flight> result = new LinkedHashSet<>();
+    private final List<ViewListener<Flight>> listeners = new CopyOnWriteArrayList<>();
+    /**
+     * Changes received before the initial result is set, null afterwards.
+     */
+    private List<Runnable> pendingChanges = new ArrayList<>();
+
+    /**
+     * Subscribes to the data base and computes the initial result.
+     *
+     * @param flightsFilter filter of the view
+     * @param db            observed data base
+     */
+    public MaterializedFlightsView(FlightsFilter flightsFilter, ObservableDataBase<Flight> db) {
+        this.flightsFilter = Objects.requireNonNull(flightsFilter);
+        this.db = db;
+        // the data base notifies the view under its own lock, so the view must not hold its lock while subscribing;
+        // changes made after the snapshot are buffered until the initial result is set and applied afterwards
+        List<Flight> initialResult = flightsFilter.filter(db.subscribe(this));
+        synchronized (this) {
+            result.addAll(initialResult);
+            List<Runnable> changes = pendingChanges;
+            pendingChanges = null;
+            for (Runnable change : changes) {
+                change.run();
+            }
+        }
+    }
+
+    /**
+     * @return filter of the view
+     */
+    public FlightsFilter getFilter() {
+        return flightsFilter;
+    }
+
+    /**
+     * @return copy of the current result
+     */
+    public synchronized List<Flight> getResult() {
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * @return number of flights in the current result
+     */
+    public synchronized int size() {
+        return result.size();
+    }
+
+    /**
+     * @param flight flight to look up
+     * @return true if the flight is in the current result
+     */
+    public synchronized boolean contains(Flight flight) {
+        return result.contains(flight);
+    }
+
+    public void addViewListener(ViewListener<Flight> listener) {
+        listeners.add(Objects.requireNonNull(listener));
+    }
+
+    public void removeViewListener(ViewListener<Flight> listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public synchronized void onInsert(Flight flight) {
+        if (pendingChanges != null) {
+            pendingChanges.add(() -> onInsert(flight));
+            return;
+        }
+        if (flightsFilter.getPredicate().test(flight))
+            enter(flight);
+    }
+
+    @Override
+    public synchronized void onUpdate(Flight oldFlight, Flight newFlight) {
+        if (pendingChanges != null) {
+            pendingChanges.add(() -> onUpdate(oldFlight, newFlight));
+            return;
+        }
+        boolean matches = flightsFilter.getPredicate().test(newFlight);
+        if (oldFlight == newFlight && matches == result.contains(newFlight))
+            return;
+        leave(oldFlight);
+        if (matches)
+            enter(newFlight);
+    }
+
+    @Override
+    public synchronized void onDelete(Flight flight) {
+        if (pendingChanges != null) {
+            pendingChanges.add(() -> onDelete(flight));
+            return;
+        }
+        leave(flight);
+    }
+
+    private void enter(Flight flight) {
+        if (result.add(flight)) {
+            for (ViewListener<Flight> listener : listeners) {
+                listener.onEnter(flight);
+            }
+        }
+    }
+
+    private void leave(Flight flight) {
+        if (result.remove(flight)) {
+            for (ViewListener<Flight> listener : listeners) {
+                listener.onLeave(flight);
+            }
+        }
+    }
+
+    /**
+     * Unsubscribes from the data base. The result is no longer updated.
+     */
+    @Override
+    public void close() {
+        db.removeChangeListener(this);
+    }
+}
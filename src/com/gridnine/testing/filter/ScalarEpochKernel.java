@@ -0,0 +1,54 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.enums.FilterOperator;
+
+import java.util.Arrays;
+
+/**
+ * Portable implementation of <code>{@link EpochKernel}</code>. The operator is selected once per call, so every loop
+ * contains a single comparison, and the comparison result is added to the mask without a branch, so the loops do not
+ * suffer from branch mispredictions on unsorted data.
+ */
+final class ScalarEpochKernel implements EpochKernel {
+    @Override
+    public void compare(FilterOperator operator, long[] values, int from, int to, long operand, long[] mask) {
+        Arrays.fill(mask, 0, (to - from + 63) >>> 6, 0);
+        switch (operator) {
+            case EQ:
+                for (int i = from; i < to; i++) {
+                    mask[(i - from) >>> 6] |= (values[i] == operand ? 1L : 0L) << (i - from);
+                }
+                break;
+            case GTE:
+                for (int i = from; i < to; i++) {
+                    mask[(i - from) >>> 6] |= (values[i] >= operand ? 1L : 0L) << (i - from);
+                }
+                break;
+            case GT:
+                for (int i = from; i < to; i++) {
+                    mask[(i - from) >>> 6] |= (values[i] > operand ? 1L : 0L) << (i - from);
+                }
+                break;
+            case LT:
+                for (int i = from; i < to; i++) {
+                    mask[(i - from) >>> 6] |= (values[i] < operand ? 1L : 0L) << (i - from);
+                }
+                break;
+            case LTE:
+                for (int i = from; i < to; i++) {
+                    mask[(i - from) >>> 6] |= (values[i] <= operand ? 1L : 0L) << (i - from);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("ScalarEpochKernel: unknown operator " + operator);
+        }
+    }
+
+    @Override
+    public void lessThan(long[] left, long[] right, int from, int to, long[] mask) {
+        Arrays.fill(mask, 0, (to - from + 63) >>> 6, 0);
+        for (int i = from; i < to; i++) {
+            mask[(i - from) >>> 6] |= (left[i] < right[i] ? 1L : 0L) << (i - from);
+        }
+    }
+}
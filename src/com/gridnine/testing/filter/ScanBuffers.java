@@ -0,0 +1,21 @@
+package com.gridnine.testing.filter;
+
+/**
+ * Scratch arrays of a columnar scan, reusable by consecutive scans in one thread. Once the arrays have grown to the
+ * size of the scanned tables, a scan allocates nothing.
+ *
+ * @see FlightsFilter#scan(com.gridnine.testing.models.FlightTable, ScanBuffers)
+ */
+public final class ScanBuffers {
+    long[] segmentMask = new long[FlightPredicate.SCAN_BLOCK_SEGMENTS >>> 6];
+    long[] groundTimes = new long[0];
+    boolean[] rejected = new boolean[0];
+    int[] result = new int[0];
+
+    /**
+     * @return ascending indices of the matching flights written by the last scan
+     */
+    public int[] getResult() {
+        return result;
+    }
+}
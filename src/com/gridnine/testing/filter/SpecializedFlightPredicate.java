@@ -0,0 +1,38 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.models.Flight;
+
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.function.Predicate;
+
+/**
+ * Template of the specialized predicates built by <code>{@link SpecializedPredicates}</code>.
+ * <p>
+ * The class is never used directly: its bytes are defined again as a hidden class for every specialized condition
+ * set, with the method handle of the conditions as class data. The handle is a constant of each hidden class, so the
+ * JIT compiler inlines the whole handle tree into <code>test()</code> with the operands folded in.
+ */
+final class SpecializedFlightPredicate implements Predicate<Flight> {
+    private static final MethodHandle CONDITIONS = loadConditions();
+
+    private static MethodHandle loadConditions() {
+        try {
+            return MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean test(Flight flight) {
+        try {
+            return (boolean) CONDITIONS.invokeExact(flight);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
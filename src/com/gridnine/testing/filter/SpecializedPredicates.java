@@ -0,0 +1,224 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FlightAggregate;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightSummary;
+import com.gridnine.testing.models.Segment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Compiles the condition sets of a filter into a predicate specialized for them.
+ * <p>
+ * Every condition becomes a method handle of its own comparison with the operand bound as a constant, so no operator
+ * or target is dispatched when a flight is checked. The conditions are chained with <code>guardWithTest</code> in the
+ * order of <code>{@link FlightPredicate}</code>: validity, aggregates and idle times from the summary of the flight,
+ * then arrival and departure times in one pass over the segments, then the expression. The handle tree is the class
+ * data of a hidden class defined from <code>{@link SpecializedFlightPredicate}</code>, which makes it a constant the JIT
+ * compiler can inline.
+ * <p>
+ * If hidden classes cannot be defined, e.g. the template class file is not readable, or if the system property
+ * <code>-Dcom.gridnine.testing.specializedPredicate=false</code> is set, the interpreted predicate is used instead.
+ */
+final class SpecializedPredicates {
+    private static final String TEMPLATE_RESOURCE = "SpecializedFlightPredicate.class";
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final byte[] TEMPLATE = loadTemplate();
+    private static final MethodType STEP_TYPE = MethodType.methodType(int.class, int.class, long.class);
+
+    private SpecializedPredicates() {
+    }
+
+    private static byte[] loadTemplate() {
+        if (!Boolean.parseBoolean(System.getProperty("com.gridnine.testing.specializedPredicate", "true")))
+            return null;
+        try (InputStream template = SpecializedFlightPredicate.class.getResourceAsStream(TEMPLATE_RESOURCE)) {
+            return template == null ? null : template.readAllBytes();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if specialized predicates can be compiled in the running JVM
+     */
+    static boolean isSupported() {
+        return TEMPLATE != null;
+    }
+
+    /**
+     * @param arrivalStatementsMap   set of conditions for arrival times
+     * @param departureStatementsMap set of conditions for departure times
+     * @param idleStatementsMap      set of conditions for downtime on the ground
+     * @param aggregateStatementsMap sets of conditions for the aggregates of a flight
+     * @param expression             expression the flights must also satisfy, or null
+     * @param allowInvalidFlights    allows invalid flights (arrivalTime < departureTime) in the result
+     * @param fallback               interpreted predicate of the same conditions
+     * @return specialized predicate, the fallback if it cannot be compiled
+     */
+    static Predicate<Flight> compile(Map<FilterOperator, Long> arrivalStatementsMap, Map<FilterOperator, Long> departureStatementsMap, Map<FilterOperator, Long> idleStatementsMap, Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap, FlightExpression expression, boolean allowInvalidFlights, Predicate<Flight> fallback) {
+        if (TEMPLATE == null)
+            return fallback;
+        try {
+            MethodHandle summaryConditions = null;
+            if (!allowInvalidFlights)
+                summaryConditions = LOOKUP.findVirtual(FlightSummary.class, "isValid", MethodType.methodType(boolean.class));
+            for (Map.Entry<FlightAggregate, Map<FilterOperator, Long>> aggregateEntry : aggregateStatementsMap.entrySet()) {
+                MethodHandle getter = getAggregateGetter(aggregateEntry.getKey());
+                for (Map.Entry<FilterOperator, Long> condition : aggregateEntry.getValue().entrySet()) {
+                    summaryConditions = and(summaryConditions, MethodHandles.filterArguments(getCondition(condition.getKey(), condition.getValue()), 0, getter));
+                }
+            }
+            if (!idleStatementsMap.isEmpty()) {
+                MethodHandle idle = LOOKUP.findStatic(SpecializedPredicates.class, "satisfiesGroundTimes",
+                        MethodType.methodType(boolean.class, MethodHandle.class, int.class, FlightSummary.class));
+                summaryConditions = and(summaryConditions, MethodHandles.insertArguments(idle, 0, getStep(idleStatementsMap), allPending(idleStatementsMap)));
+            }
+            MethodHandle conditions = null;
+            if (summaryConditions != null)
+                conditions = MethodHandles.filterArguments(summaryConditions, 0, LOOKUP.findVirtual(Flight.class, "getSummary", MethodType.methodType(FlightSummary.class)));
+            if (!arrivalStatementsMap.isEmpty() || !departureStatementsMap.isEmpty()) {
+                MethodHandle segments = LOOKUP.findStatic(SpecializedPredicates.class, "satisfiesSegments",
+                        MethodType.methodType(boolean.class, MethodHandle.class, int.class, MethodHandle.class, int.class, Flight.class));
+                conditions = and(conditions, MethodHandles.insertArguments(segments, 0, getStep(arrivalStatementsMap), allPending(arrivalStatementsMap),
+                        getStep(departureStatementsMap), allPending(departureStatementsMap)));
+            }
+            if (expression != null)
+                conditions = and(conditions, LOOKUP.findVirtual(FlightExpression.class, "test", MethodType.methodType(boolean.class, Flight.class)).bindTo(expression));
+            if (conditions == null)
+                conditions = MethodHandles.dropArguments(MethodHandles.constant(boolean.class, true), 0, Flight.class);
+            MethodHandles.Lookup predicateLookup = LOOKUP.defineHiddenClassWithClassData(TEMPLATE, conditions, true);
+            @SuppressWarnings("unchecked")
+            Predicate<Flight> predicate = (Predicate<Flight>) predicateLookup.lookupClass().getDeclaredConstructor().newInstance();
+            return predicate;
+        } catch (ReflectiveOperationException | IllegalArgumentException | LinkageError e) {
+            // the JVM cannot define or link the class, any other failure is a bug and propagates
+            return fallback;
+        }
+    }
+
+    private static MethodHandle getAggregateGetter(FlightAggregate aggregate) throws ReflectiveOperationException {
+        MethodType getterType = MethodType.methodType(long.class);
+        switch (aggregate) {
+            case TOTAL_IDLE:
+                return LOOKUP.findVirtual(FlightSummary.class, "getTotalGroundTime", getterType);
+            case MAX_IDLE:
+                return LOOKUP.findVirtual(FlightSummary.class, "getMaxGroundTime", getterType);
+            case DURATION:
+                return LOOKUP.findVirtual(FlightSummary.class, "getDuration", getterType);
+            default:
+                throw new IllegalArgumentException("SpecializedPredicates: unknown aggregate " + aggregate);
+        }
+    }
+
+    /**
+     * @return handle <code>(long value)boolean</code> comparing the value with the constant operand
+     */
+    private static MethodHandle getCondition(FilterOperator operator, long operand) throws ReflectiveOperationException {
+        String name;
+        switch (operator) {
+            case EQ:
+                name = "eq";
+                break;
+            case GTE:
+                name = "gte";
+                break;
+            case GT:
+                name = "gt";
+                break;
+            case LT:
+                name = "lt";
+                break;
+            case LTE:
+                name = "lte";
+                break;
+            default:
+                throw new IllegalArgumentException("SpecializedPredicates: unknown operator " + operator);
+        }
+        MethodHandle comparison = LOOKUP.findStatic(SpecializedPredicates.class, name, MethodType.methodType(boolean.class, long.class, long.class));
+        return MethodHandles.insertArguments(comparison, 1, operand);
+    }
+
+    /**
+     * Chains the checks of a set of conditions on one value. Condition <code>i</code> owns bit <code>i</code> of the
+     * pending bit set, like in <code>{@link FlightPredicate}</code>.
+     *
+     * @return handle <code>(int pending, long value)int</code> clearing the bits of the conditions satisfied by the value
+     */
+    private static MethodHandle getStep(Map<FilterOperator, Long> conditionMap) throws ReflectiveOperationException {
+        MethodHandle clear = LOOKUP.findStatic(SpecializedPredicates.class, "clearIfSatisfied",
+                MethodType.methodType(int.class, MethodHandle.class, int.class, int.class, long.class));
+        MethodHandle step = MethodHandles.dropArguments(MethodHandles.identity(int.class), 1, long.class);
+        int bit = 1;
+        for (Map.Entry<FilterOperator, Long> condition : conditionMap.entrySet()) {
+            MethodHandle conditionStep = MethodHandles.insertArguments(clear, 0, getCondition(condition.getKey(), condition.getValue()), bit);
+            // conditionStep(step(pending, value), value)
+            step = MethodHandles.permuteArguments(MethodHandles.collectArguments(conditionStep, 0, step), STEP_TYPE, 0, 1, 1);
+            bit <<= 1;
+        }
+        return step;
+    }
+
+    private static int allPending(Map<FilterOperator, Long> conditionMap) {
+        return (1 << conditionMap.size()) - 1;
+    }
+
+    private static MethodHandle and(MethodHandle left, MethodHandle right) {
+        if (left == null)
+            return right;
+        Class<?> argumentType = left.type().parameterType(0);
+        return MethodHandles.guardWithTest(left, right, MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, argumentType));
+    }
+
+    private static int clearIfSatisfied(MethodHandle condition, int bit, int pending, long value) throws Throwable {
+        return (pending & bit) != 0 && (boolean) condition.invokeExact(value) ? pending & ~bit : pending;
+    }
+
+    private static boolean satisfiesGroundTimes(MethodHandle idleStep, int pendingIdle, FlightSummary summary) throws Throwable {
+        for (int i = 0; i < summary.getGroundTimeCount() && pendingIdle != 0; i++) {
+            pendingIdle = (int) idleStep.invokeExact(pendingIdle, summary.getGroundTime(i));
+        }
+        return pendingIdle == 0;
+    }
+
+    private static boolean satisfiesSegments(MethodHandle arrivalStep, int pendingArrival, MethodHandle departureStep, int pendingDeparture, Flight flight) throws Throwable {
+        List<Segment> segments = flight.getSegments();
+        for (int i = 0; i < segments.size() && (pendingArrival | pendingDeparture) != 0; i++) {
+            Segment segment = segments.get(i);
+            if (pendingArrival != 0)
+                pendingArrival = (int) arrivalStep.invokeExact(pendingArrival, segment.getArrivalDate().toEpochSecond(ZoneOffset.UTC));
+            if (pendingDeparture != 0)
+                pendingDeparture = (int) departureStep.invokeExact(pendingDeparture, segment.getDepartureDate().toEpochSecond(ZoneOffset.UTC));
+        }
+        return (pendingArrival | pendingDeparture) == 0;
+    }
+
+    private static boolean eq(long value, long operand) {
+        return value == operand;
+    }
+
+    private static boolean gte(long value, long operand) {
+        return value >= operand;
+    }
+
+    private static boolean gt(long value, long operand) {
+        return value > operand;
+    }
+
+    private static boolean lt(long value, long operand) {
+        return value < operand;
+    }
+
+    private static boolean lte(long value, long operand) {
+        return value <= operand;
+    }
+}
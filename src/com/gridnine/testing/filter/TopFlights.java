@@ -0,0 +1,136 @@
+package com.gridnine.testing.filter;
+
+import com.gridnine.testing.models.Flight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded max-heap of the <code>k</code> smallest flights by sort key, ties are broken by the position of the flight
+ * in the input. Offering a flight takes <code>O(log k)</code> time and the heap never holds more than <code>k</code>
+ * flights. Keys, positions and flights are kept in parallel arrays, so no object is allocated per flight.
+ * <p>
+ * Not thread-safe: parallel queries fill one heap per task and merge them.
+ */
+final class TopFlights {
+    private static final int INITIAL_CAPACITY = 64;
+    private final int capacity;
+    private long[] keys;
+    private int[] positions;
+    private Flight[] flights;
+    private int size;
+
+    /**
+     * @param capacity maximum number of kept flights
+     */
+    TopFlights(int capacity) {
+        this.capacity = capacity;
+        int initialCapacity = Math.min(capacity, INITIAL_CAPACITY);
+        this.keys = new long[initialCapacity];
+        this.positions = new int[initialCapacity];
+        this.flights = new Flight[initialCapacity];
+    }
+
+    private boolean less(long key, int position, int node) {
+        return key < keys[node] || key == keys[node] && position < positions[node];
+    }
+
+    /**
+     * @param key      sort key of the flight
+     * @param position position of the flight in the input
+     * @return true if the flight would be kept, so it is worth checking against the filter
+     */
+    boolean accepts(long key, int position) {
+        return size < capacity || capacity > 0 && less(key, position, 0);
+    }
+
+    /**
+     * Keeps the flight if it is among the <code>k</code> smallest ones offered so far.
+     *
+     * @param key      sort key of the flight
+     * @param position position of the flight in the input
+     * @param flight   flight
+     */
+    void offer(long key, int position, Flight flight) {
+        if (size < capacity) {
+            if (size == keys.length) {
+                int newLength = (int) Math.min(capacity, 2L * keys.length);
+                keys = Arrays.copyOf(keys, newLength);
+                positions = Arrays.copyOf(positions, newLength);
+                flights = Arrays.copyOf(flights, newLength);
+            }
+            siftUp(size++, key, position, flight);
+        } else if (capacity > 0 && less(key, position, 0)) {
+            siftDown(0, key, position, flight);
+        }
+    }
+
+    /**
+     * Offers all flights of the other heap to this heap.
+     *
+     * @param other heap filled from another part of the same input
+     */
+    void merge(TopFlights other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.keys[i], other.positions[i], other.flights[i]);
+        }
+    }
+
+    /**
+     * Empties the heap.
+     *
+     * @param offset number of smallest flights to skip
+     * @return kept flights from the given offset, in ascending order of key and position
+     */
+    List<Flight> drain(int offset) {
+        Flight[] sorted = new Flight[size];
+        while (size > 0) {
+            sorted[size - 1] = flights[0];
+            size--;
+            if (size > 0)
+                siftDown(0, keys[size], positions[size], flights[size]);
+            flights[size] = null;
+        }
+        List<Flight> result = new ArrayList<>(Math.max(0, sorted.length - offset));
+        for (int i = offset; i < sorted.length; i++) {
+            result.add(sorted[i]);
+        }
+        return result;
+    }
+
+    private void siftUp(int node, long key, int position, Flight flight) {
+        while (node > 0) {
+            int parent = (node - 1) >>> 1;
+            if (!greater(key, position, parent))
+                break;
+            set(node, keys[parent], positions[parent], flights[parent]);
+            node = parent;
+        }
+        set(node, key, position, flight);
+    }
+
+    private void siftDown(int node, long key, int position, Flight flight) {
+        int half = size >>> 1;
+        while (node < half) {
+            int child = 2 * node + 1;
+            if (child + 1 < size && greater(keys[child + 1], positions[child + 1], child))
+                child++;
+            if (!less(key, position, child))
+                break;
+            set(node, keys[child], positions[child], flights[child]);
+            node = child;
+        }
+        set(node, key, position, flight);
+    }
+
+    private boolean greater(long key, int position, int node) {
+        return key > keys[node] || key == keys[node] && position > positions[node];
+    }
+
+    private void set(int node, long key, int position, Flight flight) {
+        keys[node] = key;
+        positions[node] = position;
+        flights[node] = flight;
+    }
+}
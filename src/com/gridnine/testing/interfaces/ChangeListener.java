@@ -0,0 +1,12 @@
+package com.gridnine.testing.interfaces;
+
+/**
+ * Receives the changes of an <code>{@link ObservableDataBase}</code>, in the order they were applied.
+ */
+public interface ChangeListener<T> {
+    void onInsert(T value);
+
+    void onUpdate(T oldValue, T newValue);
+
+    void onDelete(T value);
+}
@@ -4,4 +4,25 @@ import java.util.List;
 
 public interface DataBaseInterface<T> {
     List<T> getAll();
+
+    /**
+     * Version of the data. Any change of the data must change the version, so that results computed from the old data
+     * can be discarded.
+     *
+     * @return current version of the data, 0 for data that never changes
+     */
+    default long getVersion() {
+        return 0;
+    }
+
+    /**
+     * Filters all elements of the data base. Data bases override it to answer filters they know from their own
+     * layout, e.g. an index, columns or zone maps, instead of scanning <code>getAll()</code>.
+     *
+     * @param filter filter of the elements
+     * @return elements that pass the filter, in the order of the data base
+     */
+    default List<T> scan(Filter<List<T>> filter) {
+        return filter.filter(getAll());
+    }
 }
@@ -0,0 +1,40 @@
+package com.gridnine.testing.interfaces;
+
+import com.gridnine.testing.enums.ExecutionMode;
+import com.gridnine.testing.enums.FilterStage;
+
+/**
+ * Receives the metrics of the calls of a <code>FlightsFilter</code>, in the calling thread. Implementations must be
+ * thread-safe and fast: they are called by every thread using the filter.
+ * <p>
+ * A filter without a listener uses <code>{@link #NO_OP}</code> and does not measure anything.
+ */
+public interface FilterMetricsListener {
+    /**
+     * Listener ignoring all metrics.
+     */
+    FilterMetricsListener NO_OP = new FilterMetricsListener() {
+    };
+
+    /**
+     * Reports one stage of a filter call over a flight list.
+     *
+     * @param stage         evaluated conditions
+     * @param inputCount    number of flights checked by the stage
+     * @param outputCount   number of flights satisfying the stage
+     * @param durationNanos duration of the stage
+     */
+    default void onStage(FilterStage stage, long inputCount, long outputCount, long durationNanos) {
+    }
+
+    /**
+     * Reports a finished filter call.
+     *
+     * @param executionMode execution mode of the call
+     * @param parallel      true if the call was executed in parallel
+     * @param flightCount   number of flights at the filter input
+     * @param durationNanos duration of the call
+     */
+    default void onExecution(ExecutionMode executionMode, boolean parallel, int flightCount, long durationNanos) {
+    }
+}
@@ -0,0 +1,20 @@
+package com.gridnine.testing.interfaces;
+
+/**
+ * Columnar access to the segment times of a sequence of flights.
+ * Segments of the flight with index <code>i</code> occupy the range
+ * <code>[getSegmentStart(i), getSegmentEnd(i))</code> of the columns. Times are epoch seconds (UTC).
+ */
+public interface FlightColumns {
+    int getFlightCount();
+
+    int getSegmentCount();
+
+    int getSegmentStart(int flightIndex);
+
+    int getSegmentEnd(int flightIndex);
+
+    long getDepartureEpoch(int segmentIndex);
+
+    long getArrivalEpoch(int segmentIndex);
+}
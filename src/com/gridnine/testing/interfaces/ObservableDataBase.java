@@ -0,0 +1,22 @@
+package com.gridnine.testing.interfaces;
+
+import java.util.List;
+
+/**
+ * Data base that notifies listeners about inserted, updated and deleted elements.
+ * Every change also changes the version of the data base.
+ */
+public interface ObservableDataBase<T> extends DataBaseInterface<T> {
+    void addChangeListener(ChangeListener<T> listener);
+
+    /**
+     * Adds the listener and takes a snapshot of the elements atomically: the listener is notified about exactly the
+     * changes that are not reflected in the snapshot. The listener may be notified before this method returns.
+     *
+     * @param listener change listener
+     * @return unmodifiable snapshot of the elements at the moment the listener was added
+     */
+    List<T> subscribe(ChangeListener<T> listener);
+
+    void removeChangeListener(ChangeListener<T> listener);
+}
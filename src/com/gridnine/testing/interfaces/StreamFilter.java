@@ -0,0 +1,7 @@
+package com.gridnine.testing.interfaces;
+
+import java.util.stream.Stream;
+
+public interface StreamFilter<T> {
+    Stream<T> filter(Stream<T> sourceStream);
+}
@@ -0,0 +1,10 @@
+package com.gridnine.testing.interfaces;
+
+/**
+ * Receives the elements entering and leaving a filtered view.
+ */
+public interface ViewListener<T> {
+    void onEnter(T value);
+
+    void onLeave(T value);
+}
@@ -5,6 +5,7 @@ import java.util.stream.Collectors;
 
 public class Flight {
     private final List<Segment> segments;
+    private volatile FlightSummary summary;
 
     public Flight(final List<Segment> segs) {
         segments = segs;
@@ -14,6 +15,32 @@ public class Flight {
         return segments;
     }
 
+    /**
+     * Aggregates of the segments, computed on the first call and cached.
+     * The segments must not be changed after the first call.
+     *
+     * @return FlightSummary
+     */
+    public FlightSummary getSummary() {
+        FlightSummary result = summary;
+        if (result == null) {
+            // FlightSummary is immutable, a concurrent first call at worst computes the same aggregates twice
+            result = createSummary();
+            summary = result;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the aggregates for <code>getSummary()</code>. A flight whose times are kept in another form may
+     * compute them without reading the segments.
+     *
+     * @return FlightSummary of the segments
+     */
+    protected FlightSummary createSummary() {
+        return FlightSummary.of(segments);
+    }
+
     @Override
     public String toString() {
         return segments.stream().map(Object::toString)
@@ -0,0 +1,138 @@
+package com.gridnine.testing.models;
+
+import com.gridnine.testing.interfaces.FlightColumns;
+
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Aggregates of the segments of a flight, computed once and cached by <code>{@link Flight#getSummary()}</code>.
+ * Times are epoch seconds (UTC), durations are seconds.
+ * A flight without ground times (one segment or none) has zero total and maximum ground time.
+ */
+public class FlightSummary {
+    private final long firstDeparture;
+    private final long lastArrival;
+    private final long[] groundTimes;
+    private final long totalGroundTime;
+    private final long maxGroundTime;
+    private final boolean valid;
+
+    private FlightSummary(long firstDeparture, long lastArrival, long[] groundTimes, long totalGroundTime, long maxGroundTime, boolean valid) {
+        this.firstDeparture = firstDeparture;
+        this.lastArrival = lastArrival;
+        this.groundTimes = groundTimes;
+        this.totalGroundTime = totalGroundTime;
+        this.maxGroundTime = maxGroundTime;
+        this.valid = valid;
+    }
+
+    /**
+     * Computes the aggregates in one pass over the segments.
+     *
+     * @param segments segments of the flight
+     * @return FlightSummary
+     */
+    static FlightSummary of(List<Segment> segments) {
+        long[] groundTimes = new long[Math.max(0, segments.size() - 1)];
+        long firstDeparture = 0;
+        long previousArrival = 0;
+        long totalGroundTime = 0;
+        long maxGroundTime = 0;
+        boolean valid = true;
+        for (int i = 0; i < segments.size(); i++) {
+            long departure = segments.get(i).getDepartureDate().toEpochSecond(ZoneOffset.UTC);
+            long arrival = segments.get(i).getArrivalDate().toEpochSecond(ZoneOffset.UTC);
+            valid &= arrival >= departure;
+            if (i == 0) {
+                firstDeparture = departure;
+            } else {
+                long groundTime = departure - previousArrival;
+                groundTimes[i - 1] = groundTime;
+                totalGroundTime += groundTime;
+                maxGroundTime = i == 1 ? groundTime : Math.max(maxGroundTime, groundTime);
+            }
+            previousArrival = arrival;
+        }
+        return new FlightSummary(firstDeparture, segments.isEmpty() ? 0 : previousArrival, groundTimes, totalGroundTime, maxGroundTime, valid);
+    }
+
+    /**
+     * Computes the aggregates of a flight stored in columns.
+     *
+     * @param columns     columnar flights
+     * @param flightIndex index of the flight in the columns
+     * @return FlightSummary
+     */
+    public static FlightSummary of(FlightColumns columns, int flightIndex) {
+        int start = columns.getSegmentStart(flightIndex);
+        int end = columns.getSegmentEnd(flightIndex);
+        long[] groundTimes = new long[Math.max(0, end - start - 1)];
+        long totalGroundTime = 0;
+        long maxGroundTime = 0;
+        boolean valid = true;
+        for (int segment = start; segment < end; segment++) {
+            valid &= columns.getArrivalEpoch(segment) >= columns.getDepartureEpoch(segment);
+            if (segment > start) {
+                long groundTime = columns.getDepartureEpoch(segment) - columns.getArrivalEpoch(segment - 1);
+                groundTimes[segment - start - 1] = groundTime;
+                totalGroundTime += groundTime;
+                maxGroundTime = segment == start + 1 ? groundTime : Math.max(maxGroundTime, groundTime);
+            }
+        }
+        return start == end
+                ? new FlightSummary(0, 0, groundTimes, 0, 0, true)
+                : new FlightSummary(columns.getDepartureEpoch(start), columns.getArrivalEpoch(end - 1), groundTimes, totalGroundTime, maxGroundTime, valid);
+    }
+
+    /**
+     * @return departure time of the first segment
+     */
+    public long getFirstDeparture() {
+        return firstDeparture;
+    }
+
+    /**
+     * @return arrival time of the last segment
+     */
+    public long getLastArrival() {
+        return lastArrival;
+    }
+
+    /**
+     * @return time from the departure of the first segment to the arrival of the last segment
+     */
+    public long getDuration() {
+        return lastArrival - firstDeparture;
+    }
+
+    /**
+     * @return number of ground times, one less than the number of segments
+     */
+    public int getGroundTimeCount() {
+        return groundTimes.length;
+    }
+
+    /**
+     * @param index index of the gap
+     * @return time between the arrival of the segment <code>index</code> and the departure of the next one
+     */
+    public long getGroundTime(int index) {
+        return groundTimes[index];
+    }
+
+    public long getTotalGroundTime() {
+        return totalGroundTime;
+    }
+
+    public long getMaxGroundTime() {
+        return maxGroundTime;
+    }
+
+    /**
+     * @return true if no segment arrives before its departure
+     */
+    public boolean isValid() {
+        return valid;
+    }
+}
@@ -0,0 +1,128 @@
+package com.gridnine.testing.models;
+
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.interfaces.FlightColumns;
+
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Columnar representation of a list of flights.
+ * <p>
+ * Departure and arrival times of all segments are stored as epoch seconds (UTC) in two primitive columns.
+ * Segments of the flight with index <code>i</code> occupy the range
+ * <code>[getSegmentStart(i), getSegmentEnd(i))</code> of the columns.
+ * Flights are indexed in the order of the source list.
+ */
+public class FlightTable implements FlightColumns {
+    private final int[] segmentOffsets;
+    private final long[] departureEpochs;
+    private final long[] arrivalEpochs;
+
+    /**
+     * @param segmentOffsets  offsets of the first segment of each flight, followed by the total number of segments
+     * @param departureEpochs departure times of the segments, epoch seconds
+     * @param arrivalEpochs   arrival times of the segments, epoch seconds
+     */
+    public FlightTable(int[] segmentOffsets, long[] departureEpochs, long[] arrivalEpochs) {
+        if (segmentOffsets.length == 0 || departureEpochs.length != arrivalEpochs.length
+                || segmentOffsets[segmentOffsets.length - 1] != departureEpochs.length)
+            throw new IllegalArgumentException("FlightTable: segment offsets do not match the segment columns");
+        this.segmentOffsets = segmentOffsets;
+        this.departureEpochs = departureEpochs;
+        this.arrivalEpochs = arrivalEpochs;
+    }
+
+    /**
+     * Builds the table from a list of flights.
+     *
+     * @param flightList source flights
+     * @return FlightTable
+     */
+    public static FlightTable of(List<Flight> flightList) {
+        int[] segmentOffsets = new int[flightList.size() + 1];
+        for (int i = 0; i < flightList.size(); i++) {
+            segmentOffsets[i + 1] = segmentOffsets[i] + flightList.get(i).getSegments().size();
+        }
+        long[] departureEpochs = new long[segmentOffsets[flightList.size()]];
+        long[] arrivalEpochs = new long[departureEpochs.length];
+        for (int i = 0; i < flightList.size(); i++) {
+            List<Segment> segments = flightList.get(i).getSegments();
+            for (int j = 0; j < segments.size(); j++) {
+                departureEpochs[segmentOffsets[i] + j] = segments.get(j).getDepartureDate().toEpochSecond(ZoneOffset.UTC);
+                arrivalEpochs[segmentOffsets[i] + j] = segments.get(j).getArrivalDate().toEpochSecond(ZoneOffset.UTC);
+            }
+        }
+        return new FlightTable(segmentOffsets, departureEpochs, arrivalEpochs);
+    }
+
+    /**
+     * Builds the table from all flights of the data base.
+     *
+     * @param db source data base
+     * @return FlightTable
+     */
+    public static FlightTable of(DataBaseInterface<Flight> db) {
+        return of(db.getAll());
+    }
+
+    @Override
+    public int getFlightCount() {
+        return segmentOffsets.length - 1;
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return departureEpochs.length;
+    }
+
+    /**
+     * @param flightIndex index of the flight
+     * @return column index of the first segment of the flight
+     */
+    @Override
+    public int getSegmentStart(int flightIndex) {
+        return segmentOffsets[flightIndex];
+    }
+
+    /**
+     * @param flightIndex index of the flight
+     * @return column index following the last segment of the flight
+     */
+    @Override
+    public int getSegmentEnd(int flightIndex) {
+        return segmentOffsets[flightIndex + 1];
+    }
+
+    /**
+     * @return offsets of the first segment of each flight followed by the number of segments, the array itself, not a
+     * copy; must not be modified
+     */
+    public int[] getSegmentOffsets() {
+        return segmentOffsets;
+    }
+
+    /**
+     * @return departure column itself, not a copy; must not be modified
+     */
+    public long[] getDepartureEpochs() {
+        return departureEpochs;
+    }
+
+    /**
+     * @return arrival column itself, not a copy; must not be modified
+     */
+    public long[] getArrivalEpochs() {
+        return arrivalEpochs;
+    }
+
+    @Override
+    public long getDepartureEpoch(int segmentIndex) {
+        return departureEpochs[segmentIndex];
+    }
+
+    @Override
+    public long getArrivalEpoch(int segmentIndex) {
+        return arrivalEpochs[segmentIndex];
+    }
+}
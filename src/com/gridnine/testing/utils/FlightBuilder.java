@@ -7,11 +7,21 @@ import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Factory class to get sample list of flights.
  */
 public class FlightBuilder {
+    /**
+     * Every segment of a generated flight arrives before its departure with the probability 1 / INVALID_SEGMENT_RATE.
+     */
+    private static final int INVALID_SEGMENT_RATE = 50;
+    private static final int DEPARTURE_RANGE_MINUTES = 30 * 24 * 60;
+    private static final int MIN_SEGMENT_MINUTES = 30;
+    private static final int MAX_SEGMENT_MINUTES = 6 * 60;
+    private static final int MAX_GROUND_MINUTES = 5 * 60;
+
     private FlightBuilder(){}
     public static List<Flight> createFlights() {
         LocalDateTime threeDaysFromNow = LocalDateTime.now().plusDays(3);
@@ -45,4 +55,38 @@ public class FlightBuilder {
         }
         return new Flight(segments);
     }
+
+    /**
+     * Generates a reproducible list of random flights, e.g. for benchmarks.
+     * Flights depart within 30 days after <code>startTime</code>. Every segment lasts from 30 minutes to 6 hours,
+     * the ground time between segments is up to 5 hours, and about one in 50 segments arrives before its departure.
+     *
+     * @param startTime       earliest departure time
+     * @param flightCount     number of flights
+     * @param maxSegmentCount maximum number of segments of a flight, the number is chosen uniformly from 1
+     * @param seed            seed of the random generator, equal seeds produce equal lists
+     * @return list of flights
+     */
+    public static List<Flight> createFlights(final LocalDateTime startTime, int flightCount, int maxSegmentCount, long seed) {
+        if (flightCount < 0 || maxSegmentCount < 1) {
+            throw new IllegalArgumentException(
+                    "flight count must not be negative and segment count must be positive");
+        }
+        Random random = new Random(seed);
+        List<Flight> flights = new ArrayList<>(flightCount);
+        for (int i = 0; i < flightCount; i++) {
+            LocalDateTime[] dates = new LocalDateTime[(1 + random.nextInt(maxSegmentCount)) * 2];
+            LocalDateTime departure = startTime.plusMinutes(random.nextInt(DEPARTURE_RANGE_MINUTES));
+            for (int j = 0; j < dates.length; j += 2) {
+                long segmentMinutes = MIN_SEGMENT_MINUTES + random.nextInt(MAX_SEGMENT_MINUTES - MIN_SEGMENT_MINUTES);
+                LocalDateTime arrival = random.nextInt(INVALID_SEGMENT_RATE) == 0
+                        ? departure.minusMinutes(segmentMinutes) : departure.plusMinutes(segmentMinutes);
+                dates[j] = departure;
+                dates[j + 1] = arrival;
+                departure = departure.plusMinutes(segmentMinutes + random.nextInt(MAX_GROUND_MINUTES));
+            }
+            flights.add(createFlight(dates));
+        }
+        return flights;
+    }
 }
@@ -1,16 +1,23 @@
 package com.gridnine.testing.utils;
 
 import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FlightAggregate;
+import com.gridnine.testing.filter.FlightExpression;
 import com.gridnine.testing.filter.FlightsFilter;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * <code>{@link FlightsFilterBuilder}</code> is used to build instances of <code>{@link FlightsFilter}</code> from
- * target selection operators <code>arrival(), departure()>, idle()</code>,
+ * target selection operators <code>arrival(), departure()>, idle(), totalIdle(), maxIdle(), duration()</code>,
  * comparison operators <code>eq(long), gt(long), gte(long), lt(long), lte(long)</code>,
- * optional operator <code>removeInvalidFlights()</code>.
+ * optional operators <code>removeInvalidFlights()</code> and <code>specialized()</code>,
+ * grouping operators <code>or()</code> and <code>where(FlightExpression)</code>.
  * <p>
  * Comparison operators can only follow target selection operators.
  * <p>
@@ -23,22 +30,40 @@ import java.util.Map;
  * <code>arrival()</code>: Compare the arrival time with the condition.
  * <code>departure()</code>: Compare the departure time with the condition.
  * <code>idle()</code>: Compare the idle time on the ground (the time between arrival and following departure) with the condition.
+ * <code>totalIdle()</code>: Compare the sum of all idle times of the flight with the condition.
+ * <code>maxIdle()</code>: Compare the longest idle time of the flight with the condition.
+ * <code>duration()</code>: Compare the time from the first departure to the last arrival of the flight with the condition.
+ * A flight with one segment has zero total and maximum idle time.
+ * Conditions of the last three targets are answered in constant time from the cached aggregates of the flight.
  * <p>
  * <u>Comparison operators:</u>
  * All operators can be combined. Operators take as input the time for comparison in milliseconds.
  * For targets <code>arrival()</code> and <code>departure()</code>, the time is relative to 1970-01-01 00: 00: 00.0 (epoch time).
- * Target <code>idle()</code> uses absolute idle time on the ground.
+ * Targets <code>idle(), totalIdle(), maxIdle(), duration()</code> use absolute durations.
  * eq: "=", gt: ">", gte: ">=", lt: "<", lte: "<="
+ * <p>
+ * <u>Grouping operators:</u>
+ * <code>or()</code>: Closes the current group of conditions and starts a new one. The filter is satisfied by the
+ * flights satisfying all conditions of any group, so one target can be given several ranges:
+ * <code>departure().gte(a).lt(b).or().departure().gte(c).lt(d)</code>. <code>removeInvalidFlights()</code> applies
+ * to all groups.
+ * <code>where(FlightExpression)</code>: The flights must also satisfy the expression, which can combine any filters
+ * with <code>FlightExpression.and(), or(), not()</code>.
+ * The groups and expressions are ordered by the planner of <code>{@link FlightExpression}</code>.
  *
  * @author Mikhail Sinelnikov
  */
 public class FlightsFilterBuilder {
-    private final static String ERROR_MESSAGE = "FlightsFilterBuilder: One of the following operators was not used before calling the method: arrival(), departure(), idle()";
-    private final Map<FilterOperator, Long> arrivalStatementsMap = new EnumMap<>(FilterOperator.class);
-    private final Map<FilterOperator, Long> departureStatementsMap = new EnumMap<>(FilterOperator.class);
-    private final Map<FilterOperator, Long> idleStatementsMap = new EnumMap<>(FilterOperator.class);
+    private final static String ERROR_MESSAGE = "FlightsFilterBuilder: One of the following operators was not used before calling the method: arrival(), departure(), idle(), totalIdle(), maxIdle(), duration()";
+    private Map<FilterOperator, Long> arrivalStatementsMap = new EnumMap<>(FilterOperator.class);
+    private Map<FilterOperator, Long> departureStatementsMap = new EnumMap<>(FilterOperator.class);
+    private Map<FilterOperator, Long> idleStatementsMap = new EnumMap<>(FilterOperator.class);
+    private Map<FlightAggregate, Map<FilterOperator, Long>> aggregateStatementsMap = new EnumMap<>(FlightAggregate.class);
+    private final List<FlightExpression> groups = new ArrayList<>();
+    private final List<FlightExpression> expressions = new ArrayList<>();
     private Map<FilterOperator, Long> targetStatementsMap;
     private boolean allowInvalidFlights = true;
+    private boolean specialized;
 
     private void stateCheck() {
         if (targetStatementsMap == null)
@@ -121,6 +146,41 @@ public class FlightsFilterBuilder {
         return this;
     }
 
+    /**
+     * Target selection operator.
+     * Selects target "total idle time on the ground".
+     *
+     * @return this
+     */
+    public FlightsFilterBuilder totalIdle() {
+        return aggregate(FlightAggregate.TOTAL_IDLE);
+    }
+
+    /**
+     * Target selection operator.
+     * Selects target "longest idle time on the ground".
+     *
+     * @return this
+     */
+    public FlightsFilterBuilder maxIdle() {
+        return aggregate(FlightAggregate.MAX_IDLE);
+    }
+
+    /**
+     * Target selection operator.
+     * Selects target "flight duration".
+     *
+     * @return this
+     */
+    public FlightsFilterBuilder duration() {
+        return aggregate(FlightAggregate.DURATION);
+    }
+
+    private FlightsFilterBuilder aggregate(FlightAggregate aggregate) {
+        targetStatementsMap = aggregateStatementsMap.computeIfAbsent(aggregate, key -> new EnumMap<>(FilterOperator.class));
+        return this;
+    }
+
     /**
      * Optional operator.
      * Removes from the set those flights in whose segments the arrival time is less than the departure time
@@ -132,6 +192,18 @@ public class FlightsFilterBuilder {
         return this;
     }
 
+    /**
+     * Optional operator.
+     * The built filter checks flights with a predicate generated for its exact conditions, see
+     * <code>{@link FlightsFilter#specialize()}</code>.
+     *
+     * @return this
+     */
+    public FlightsFilterBuilder specialized() {
+        specialized = true;
+        return this;
+    }
+
     /**
      * Target selection operator.
      * Selects target "arrival time".
@@ -154,16 +226,75 @@ public class FlightsFilterBuilder {
         return this;
     }
 
+    /**
+     * Grouping operator.
+     * Closes the current group of conditions and starts a new empty one. Flights satisfying any group pass the filter.
+     *
+     * @return this
+     */
+    public FlightsFilterBuilder or() {
+        groups.add(currentGroup());
+        arrivalStatementsMap = new EnumMap<>(FilterOperator.class);
+        departureStatementsMap = new EnumMap<>(FilterOperator.class);
+        idleStatementsMap = new EnumMap<>(FilterOperator.class);
+        aggregateStatementsMap = new EnumMap<>(FlightAggregate.class);
+        targetStatementsMap = null;
+        return this;
+    }
+
+    /**
+     * Grouping operator.
+     * The flights must also satisfy the expression.
+     *
+     * @param expression expression over other filters
+     * @return this
+     */
+    public FlightsFilterBuilder where(FlightExpression expression) {
+        expressions.add(Objects.requireNonNull(expression));
+        return this;
+    }
+
+    private boolean isCurrentGroupEmpty() {
+        return arrivalStatementsMap.isEmpty() && departureStatementsMap.isEmpty() && idleStatementsMap.isEmpty()
+                && aggregateStatementsMap.values().stream().allMatch(Map::isEmpty);
+    }
+
+    private FlightExpression currentGroup() {
+        if (isCurrentGroupEmpty())
+            throw new IllegalStateException(ERROR_MESSAGE, new NullPointerException("All statement maps of the group is null"));
+        return FlightExpression.of(new FlightsFilter(arrivalStatementsMap, departureStatementsMap, idleStatementsMap, aggregateStatementsMap, true));
+    }
+
     /**
      * Returns an instance of <code>{@link FlightsFilter}</code> created from the operators set
      * on this builder.
+     * The filter takes a snapshot of the condition sets, so later changes of the builder do not affect it.
      *
      * @return FlightsFilter
      */
     public FlightsFilter build() {
-        if (allowInvalidFlights && arrivalStatementsMap.isEmpty() && departureStatementsMap.isEmpty() && idleStatementsMap.isEmpty())
-            throw new IllegalStateException(ERROR_MESSAGE, new NullPointerException("All statement maps is null"));
-        return new FlightsFilter(arrivalStatementsMap, departureStatementsMap, idleStatementsMap, allowInvalidFlights);
+        FlightsFilter flightsFilter = buildInterpreted();
+        return specialized ? flightsFilter.specialize() : flightsFilter;
+    }
+
+    private FlightsFilter buildInterpreted() {
+        Map<FilterOperator, Long> none = Collections.emptyMap();
+        List<FlightExpression> operands = new ArrayList<>(expressions);
+        if (groups.isEmpty()) {
+            if (allowInvalidFlights && operands.isEmpty() && isCurrentGroupEmpty())
+                throw new IllegalStateException(ERROR_MESSAGE, new NullPointerException("All statement maps is null"));
+            return new FlightsFilter(arrivalStatementsMap, departureStatementsMap, idleStatementsMap, aggregateStatementsMap, toExpression(operands), allowInvalidFlights);
+        }
+        List<FlightExpression> alternatives = new ArrayList<>(groups);
+        alternatives.add(currentGroup());
+        operands.add(FlightExpression.or(alternatives.toArray(new FlightExpression[0])));
+        return new FlightsFilter(none, none, none, Collections.emptyMap(), toExpression(operands), allowInvalidFlights);
+    }
+
+    private static FlightExpression toExpression(List<FlightExpression> operands) {
+        if (operands.isEmpty())
+            return null;
+        return operands.size() == 1 ? operands.get(0) : FlightExpression.and(operands.toArray(new FlightExpression[0]));
     }
 
 }
@@ -1,10 +1,60 @@
 package tests;
 
+import com.gridnine.testing.db.CompressedFlightsRepository;
+import com.gridnine.testing.db.FlightQueryService;
 import com.gridnine.testing.db.FlightsDao;
 import com.gridnine.testing.db.FlightsRepository;
+import com.gridnine.testing.db.MappedFlightsRepository;
+import com.gridnine.testing.db.QueryCache;
+import com.gridnine.testing.db.ShardedFlightsRepository;
+import com.gridnine.testing.distributed.FilterCodec;
+import com.gridnine.testing.distributed.FilterJson;
+import com.gridnine.testing.distributed.FilterPlanCache;
+import com.gridnine.testing.distributed.FilterCoordinator;
+import com.gridnine.testing.distributed.FilterWorker;
+import com.gridnine.testing.distributed.FlightCodec;
+import com.gridnine.testing.distributed.LoopbackTransport;
+import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FlightOrdering;
+import com.gridnine.testing.filter.FlightExpression;
+import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.interfaces.DataBaseInterface;
+import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightTable;
+import com.gridnine.testing.utils.FlightBuilder;
+import com.gridnine.testing.utils.FlightsFilterBuilder;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 
 public class DbTest {
@@ -15,4 +65,349 @@ public class DbTest {
         assertFalse(flightsDao.getAll().isEmpty());
         System.out.println(flightsDao.getAll());
     }
+
+    @Test
+    public void generatedFlightsTest() {
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Flight> flights = FlightBuilder.createFlights(startTime, 1000, 4, 42);
+        assertEquals(1000, flights.size());
+        assertEquals(flights.toString(), FlightBuilder.createFlights(startTime, 1000, 4, 42).toString());
+        for (Flight flight : flights) {
+            assertTrue(flight.getSegments().size() >= 1 && flight.getSegments().size() <= 4);
+            assertFalse(flight.getSegments().get(0).getDepartureDate().isBefore(startTime));
+        }
+    }
+
+    @Test
+    public void mappedRepositoryTest() throws IOException {
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Flight> flights = FlightBuilder.createFlights(startTime, 5000, 5, 3);
+        Path flightFile = Files.createTempFile("flights", ".bin");
+        try {
+            MappedFlightsRepository.write(flightFile, flights);
+            MappedFlightsRepository repository = new MappedFlightsRepository(flightFile);
+            assertEquals(flights.size(), repository.getFlightCount());
+            assertEquals(flights.toString(), repository.getAll().toString());
+
+            FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                    .departure().lt(startTime.plusDays(10).toEpochSecond(ZoneOffset.UTC))
+                    .idle().gte(Duration.ofHours(3).toSeconds())
+                    .removeInvalidFlights()
+                    .build();
+            List<Flight> expectedFlights = flightsFilter.filter(flights);
+            assertFalse(expectedFlights.isEmpty());
+            assertEquals(expectedFlights.toString(), flightsFilter.filter(repository).toString());
+
+            Files.write(flightFile, new byte[]{1, 2, 3});
+            assertThrows(IOException.class, () -> new MappedFlightsRepository(flightFile));
+        } finally {
+            Files.delete(flightFile);
+        }
+    }
+
+    @Test
+    public void queryCacheTest() {
+        FlightsRepository repository = new FlightsRepository();
+        FlightsDao flightsDao = new FlightsDao(repository, new QueryCache(2, 1000));
+        QueryCache cache = flightsDao.getQueryCache();
+        long version = repository.getVersion();
+        FlightsFilter removeInvalid = new FlightsFilterBuilder().removeInvalidFlights().build();
+        FlightsFilter idle = new FlightsFilterBuilder().idle().gt(Duration.ofHours(2).toSeconds()).build();
+        FlightsFilter departure = new FlightsFilterBuilder().departure().gt(0L).build();
+
+        List<Flight> result = flightsDao.query(removeInvalid);
+        assertEquals(removeInvalid.filter(flightsDao.getAll()), result);
+        assertSame(result, flightsDao.query(new FlightsFilterBuilder().removeInvalidFlights().build().doParallel()));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertThrows(UnsupportedOperationException.class, () -> result.add(null));
+
+        flightsDao.query(idle);
+        List<Flight> departureResult = flightsDao.query(departure);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(removeInvalid, version));
+
+        cache.put(idle, version + 1, List.of());
+        assertEquals(1, cache.getInvalidationCount());
+        assertNull(cache.get(departure, version + 1));
+        assertEquals(List.of(), cache.get(idle, version + 1));
+        cache.put(departure, version, List.of());
+        assertNull(cache.get(departure, version + 1));
+        assertSame(departureResult, cache.getPrevious(departure, version + 1));
+        assertEquals(List.of(), cache.getPrevious(idle, version + 2));
+        assertNull(cache.getPrevious(removeInvalid, version + 1));
+
+        QueryCache replacedCache = new QueryCache();
+        flightsDao.setQueryCache(replacedCache);
+        flightsDao.query(idle);
+        assertEquals(1, replacedCache.getMissCount());
+        assertNotSame(flightsDao, FlightsDao.getInstance(repository));
+    }
+
+    @Test
+    public void queryServiceTest() throws Exception {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 1000, 3, 42);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger scanCount = new AtomicInteger();
+        AtomicLong version = new AtomicLong();
+        DataBaseInterface<Flight> slowDb = new DataBaseInterface<>() {
+            @Override
+            public List<Flight> getAll() {
+                scanCount.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return flights;
+            }
+
+            @Override
+            public long getVersion() {
+                return version.get();
+            }
+        };
+        try (FlightQueryService service = new FlightQueryService(slowDb, new QueryCache(), 1, 2)) {
+            List<CompletableFuture<List<Flight>>> coalesced = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                coalesced.add(service.queryAsync(new FlightsFilterBuilder().idle().gt(Duration.ofHours(2).toSeconds()).build()));
+            }
+            CompletableFuture<List<Flight>> queued = service.queryAsync(new FlightsFilterBuilder().removeInvalidFlights().build());
+            // the worker and the queue are taken by the two distinct queries
+            CompletableFuture<List<Flight>> rejected = service.queryAsync(new FlightsFilterBuilder().duration().lt(3600).build());
+            CompletionException rejection = assertThrows(CompletionException.class, rejected::join);
+            assertTrue(rejection.getCause() instanceof RejectedExecutionException);
+            release.countDown();
+
+            FlightsFilter idleFilter = new FlightsFilterBuilder().idle().gt(Duration.ofHours(2).toSeconds()).build();
+            List<Flight> expected = idleFilter.filter(flights);
+            for (CompletableFuture<List<Flight>> future : coalesced) {
+                assertEquals(expected, future.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(new FlightsFilterBuilder().removeInvalidFlights().build().filter(flights), queued.get(10, TimeUnit.SECONDS));
+            assertEquals(2, scanCount.get());
+            assertEquals(2, service.getExecutionCount());
+            assertEquals(49, service.getCoalescedCount());
+            assertEquals(1, service.getRejectedCount());
+
+            assertSame(coalesced.get(0).join(), service.query(idleFilter));
+            assertEquals(1, service.getCachedCount());
+            version.incrementAndGet();
+            assertEquals(expected, service.query(idleFilter));
+            assertEquals(3, service.getExecutionCount());
+        }
+
+        // after a version change the result of the previous version is served while one execution refreshes it
+        CountDownLatch refresh = new CountDownLatch(1);
+        AtomicLong refreshedVersion = new AtomicLong();
+        DataBaseInterface<Flight> refreshingDb = new DataBaseInterface<>() {
+            @Override
+            public List<Flight> getAll() {
+                try {
+                    if (refreshedVersion.get() > 0)
+                        refresh.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return flights;
+            }
+
+            @Override
+            public long getVersion() {
+                return refreshedVersion.get();
+            }
+        };
+        FlightsFilter idleFilter = new FlightsFilterBuilder().idle().gt(Duration.ofHours(2).toSeconds()).build();
+        try (FlightQueryService staleService = new FlightQueryService(refreshingDb, new QueryCache(), 1, 2, true)) {
+            List<Flight> previous = staleService.query(idleFilter);
+            refreshedVersion.incrementAndGet();
+            assertSame(previous, staleService.query(idleFilter));
+            assertSame(previous, staleService.queryAsync(idleFilter).join());
+            assertEquals(2, staleService.getStaleCount());
+            refresh.countDown();
+            while (staleService.getQueryCache().get(idleFilter, 1) == null) {
+                Thread.sleep(1);
+            }
+            List<Flight> refreshed = staleService.query(idleFilter);
+            assertNotSame(previous, refreshed);
+            assertEquals(previous, refreshed);
+            assertEquals(2, staleService.getExecutionCount());
+            assertEquals(2, staleService.getStaleCount());
+        }
+    }
+
+    @Test
+    public void shardedRepositoryTest() {
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Flight> flights = FlightBuilder.createFlights(startTime, 20000, 4, 11);
+        ShardedFlightsRepository repository = ShardedFlightsRepository.byDepartureDay(flights);
+        assertEquals(30, repository.getShards().size());
+        assertEquals(flights.size(), repository.getAll().size());
+
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .departure().gte(startTime.plusDays(3).toEpochSecond(ZoneOffset.UTC)).lt(startTime.plusDays(5).toEpochSecond(ZoneOffset.UTC))
+                .idle().gte(Duration.ofHours(1).toSeconds())
+                .build();
+        List<Flight> expectedFlights = flightsFilter.filter(repository.getAll());
+        assertFalse(expectedFlights.isEmpty());
+        assertEquals(expectedFlights, flightsFilter.filter(repository));
+        assertEquals(expectedFlights, flightsFilter.doParallel().filter(repository));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(expectedFlights, flightsFilter.doParallel().withExecutor(executor).filter(repository));
+        } finally {
+            executor.shutdown();
+        }
+        long candidateShards = repository.getShards().stream()
+                .filter(shard -> shard.mayMatch(FlightFilterType.DEPARTURE, startTime.plusDays(3).toEpochSecond(ZoneOffset.UTC), startTime.plusDays(5).toEpochSecond(ZoneOffset.UTC) - 1))
+                .count();
+        assertTrue(candidateShards >= 2 && candidateShards <= 4);
+
+        ShardedFlightsRepository bySegmentCount = new ShardedFlightsRepository(flights, flight -> flight.getSegments().size());
+        assertEquals(4, bySegmentCount.getShards().size());
+        assertEquals(expectedFlights.size(), flightsFilter.doParallel().filter(bySegmentCount).size());
+    }
+
+    @Test
+    public void compressedRepositoryTest() {
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Flight> flights = new ArrayList<>(FlightBuilder.createFlights(startTime, 20000, 4, 17));
+        flights.sort(Comparator.comparing(flight -> flight.getSegments().get(0).getDepartureDate()));
+        // times with seconds are stored in a block of their own
+        flights.addAll(FlightBuilder.createFlights(startTime.plusSeconds(7), 500, 4, 18));
+        CompressedFlightsRepository repository = new CompressedFlightsRepository(flights, 500);
+        assertEquals(41, repository.getBlocks().size());
+        assertEquals(flights.size(), repository.getFlightCount());
+        assertEquals(flights.toString(), repository.getAll().toString());
+        assertEquals(flights.get(12345).toString(), repository.getAll().get(12345).toString());
+        // the list is read by index block by block and split by blocks
+        List<Flight> compressedFlights = repository.getAll();
+        assertTrue(compressedFlights instanceof RandomAccess);
+        Flight flight = compressedFlights.get(12345);
+        assertEquals(flights.get(12346).toString(), compressedFlights.get(12346).toString());
+        assertSame(flight, compressedFlights.get(12345));
+        List<Flight> iteratedFlights = compressedFlights.parallelStream().collect(Collectors.toList());
+        assertEquals(flights.toString(), iteratedFlights.toString());
+        // a flight is the same object by every access path while it is reachable
+        assertSame(flight, iteratedFlights.get(12345));
+        assertSame(compressedFlights.get(12346), iteratedFlights.get(12346));
+        assertEquals(flights.get(12345).getSummary().getTotalGroundTime(), flight.getSummary().getTotalGroundTime());
+        assertThrows(UnsupportedOperationException.class, () -> flight.getSegments().clear());
+        assertEquals(flights.size(), compressedFlights.spliterator().getExactSizeIfKnown());
+        assertTrue(repository.getEncodedSize() < repository.getSegmentCount() * 6L);
+        assertEquals(repository.getEncodedSize(), new CompressedFlightsRepository(FlightTable.of(flights), 500).getEncodedSize());
+
+        long from = startTime.plusDays(3).toEpochSecond(ZoneOffset.UTC);
+        long to = startTime.plusDays(5).toEpochSecond(ZoneOffset.UTC);
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .departure().gte(from).lt(to)
+                .idle().gte(Duration.ofHours(1).toSeconds())
+                .removeInvalidFlights()
+                .build();
+        List<Flight> expectedFlights = flightsFilter.filter(flights);
+        assertFalse(expectedFlights.isEmpty());
+        assertEquals(expectedFlights.toString(), flightsFilter.filter(repository).toString());
+        assertEquals(expectedFlights.toString(), flightsFilter.doParallel().filter(repository).toString());
+        List<Flight> scannedFlights = flightsFilter.filter(repository);
+        assertTrue(scannedFlights.stream().allMatch(scannedFlight -> iteratedFlights.contains(scannedFlight)));
+        List<Flight> topFlights = flightsFilter.filter(compressedFlights, 50, 10, FlightOrdering.TOTAL_GROUND_TIME);
+        assertEquals(topFlights, flightsFilter.doParallel().filter(compressedFlights, 50, 10, FlightOrdering.TOTAL_GROUND_TIME));
+        assertEquals(flightsFilter.filter(flights, 50, 10, FlightOrdering.TOTAL_GROUND_TIME).toString(), topFlights.toString());
+        long candidateBlocks = repository.getBlocks().stream()
+                .filter(block -> block.mayMatch(FlightFilterType.DEPARTURE, from, to - 1))
+                .count();
+        assertTrue(candidateBlocks >= 3 && candidateBlocks <= 6);
+
+        FlightsFilter arrivalFilter = new FlightsFilterBuilder().arrival().lt(startTime.plusDays(1).toEpochSecond(ZoneOffset.UTC)).build();
+        assertEquals(arrivalFilter.filter(flights).toString(), arrivalFilter.filter(repository).toString());
+        FlightsFilter longIdleFilter = new FlightsFilterBuilder().idle().gt(Duration.ofDays(1).toSeconds()).build();
+        assertTrue(repository.getBlocks().stream().noneMatch(block -> block.mayMatchGroundTime(Duration.ofDays(1).toSeconds() + 1, Long.MAX_VALUE)));
+        assertTrue(longIdleFilter.filter(repository).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> new CompressedFlightsRepository(flights, 0));
+    }
+
+    @Test
+    public void distributedFilterTest() {
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Flight> flights = FlightBuilder.createFlights(startTime, 10000, 4, 5);
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .arrival().lt(startTime.plusDays(20).toEpochSecond(ZoneOffset.UTC))
+                .idle().gt(Duration.ofHours(4).toSeconds())
+                .duration().lte(Duration.ofDays(1).toSeconds())
+                .removeInvalidFlights()
+                .build();
+        byte[] encodedFilter = FilterCodec.encode(flightsFilter);
+        assertEquals(flightsFilter, FilterCodec.decode(encodedFilter));
+        assertTrue(encodedFilter.length < 24);
+        assertThrows(IllegalArgumentException.class, () -> FilterCodec.decode(Arrays.copyOf(encodedFilter, encodedFilter.length - 1)));
+        byte[] unknownFlags = encodedFilter.clone();
+        unknownFlags[1] |= 0x80;
+        assertThrows(IllegalArgumentException.class, () -> FilterCodec.decode(unknownFlags));
+        byte[] longestOperand = FilterCodec.encode(new FlightsFilterBuilder().arrival().eq(Long.MIN_VALUE).build());
+        assertEquals(Long.MIN_VALUE, FilterCodec.decode(longestOperand).getLowerBound(FlightFilterType.ARRIVAL));
+        byte[] overflowingOperand = longestOperand.clone();
+        overflowingOperand[12] |= 0x02;
+        assertThrows(IllegalArgumentException.class, () -> FilterCodec.decode(overflowingOperand));
+        assertEquals(flights.toString(), FlightCodec.decode(FlightCodec.encode(flights)).toString());
+        FlightsFilter expressionFilter = new FlightsFilterBuilder()
+                .departure().lt(startTime.plusDays(2).toEpochSecond(ZoneOffset.UTC))
+                .or()
+                .maxIdle().gte(Duration.ofHours(6).toSeconds())
+                .where(FlightExpression.not(FlightExpression.of(flightsFilter)))
+                .build();
+        assertEquals(expressionFilter, FilterCodec.decode(FilterCodec.encode(expressionFilter)));
+        assertEquals(expressionFilter.filter(flights), FilterCodec.decode(FilterCodec.encode(expressionFilter)).filter(flights));
+
+        List<FilterWorker> workers = new ArrayList<>();
+        for (ShardedFlightsRepository.Shard shard : ShardedFlightsRepository.byDepartureDay(flights).getShards()) {
+            workers.add(new FilterWorker(shard));
+        }
+        FilterCoordinator coordinator = new FilterCoordinator(new LoopbackTransport(workers));
+        List<Flight> expectedFlights = flightsFilter.filter(ShardedFlightsRepository.byDepartureDay(flights));
+        assertFalse(expectedFlights.isEmpty());
+        assertEquals(expectedFlights.toString(), coordinator.filter(flightsFilter).toString());
+
+        workers.add(new FilterWorker(() -> {
+            throw new IllegalStateException("partition is not available");
+        }));
+        assertThrows(CompletionException.class, () -> new FilterCoordinator(new LoopbackTransport(workers)).filter(flightsFilter));
+    }
+    @Test
+    public void filterJsonTest() {
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .arrival().gte(1704067200L).lt(1704153600L)
+                .idle().gt(Duration.ofHours(2).toSeconds())
+                .maxIdle().lte(-5)
+                .removeInvalidFlights()
+                .build();
+        String json = FilterJson.toJson(flightsFilter);
+        assertEquals("{\"arrival\":{\"gte\":1704067200,\"lt\":1704153600},\"idle\":{\"gt\":7200},\"maxIdle\":{\"lte\":-5},\"removeInvalidFlights\":true}", json);
+        assertEquals(flightsFilter, FilterJson.fromJson(json));
+        String reordered = " { \"removeInvalidFlights\" : true, \"maxIdle\":{\"lte\":-5},\n \"idle\":{\"gt\":7200}, \"arrival\":{\"lt\":1704153600,\"gte\":1704067200} } ";
+        assertEquals(flightsFilter, FilterJson.fromJson(reordered));
+        FlightsFilter expressionFilter = new FlightsFilterBuilder()
+                .departure().lt(1704067200L)
+                .or()
+                .duration().gte(Long.MAX_VALUE)
+                .where(FlightExpression.not(FlightExpression.of(flightsFilter)))
+                .build();
+        assertEquals(expressionFilter, FilterJson.fromJson(FilterJson.toJson(expressionFilter)));
+        assertEquals(Long.MIN_VALUE, FilterJson.fromJson("{\"arrival\":{\"eq\":-9223372036854775808}}").getArrivalStatementsMap().get(FilterOperator.EQ));
+        for (String invalid : List.of("", "{", "{\"arrival\":{\"gte\":1,\"gte\":2}}", "{\"arrival\":{\"ge\":1}}",
+                "{\"arrival\":{\"eq\":9223372036854775808}}", "{\"idle\":{\"gt\":1}} x", "{\"expression\":{\"not\":{}}}")) {
+            assertThrows(IllegalArgumentException.class, () -> FilterJson.fromJson(invalid), invalid);
+        }
+
+        FilterPlanCache planCache = new FilterPlanCache(2);
+        FlightsFilter parsed = planCache.fromJson(json);
+        assertSame(parsed, planCache.fromJson(json));
+        assertSame(parsed, planCache.fromJson(reordered));
+        assertSame(parsed, planCache.fromBinary(FilterCodec.encode(flightsFilter)));
+        assertEquals(1, planCache.getHitCount());
+        assertEquals(3, planCache.getMissCount());
+        assertEquals(1, planCache.getPlanCount());
+        assertEquals(2, planCache.size());
+        assertSame(parsed, planCache.intern(FilterJson.fromJson(json)));
+    }
 }
@@ -1,16 +1,60 @@
 package tests;
 
 import com.gridnine.testing.models.Flight;
+import com.gridnine.testing.models.FlightSummary;
+import com.gridnine.testing.models.FlightTable;
+import com.gridnine.testing.models.Segment;
 import com.gridnine.testing.filter.FlightsFilter;
+import com.gridnine.testing.db.FlightTimeIndex;
 import com.gridnine.testing.db.FlightsDao;
 import com.gridnine.testing.db.FlightsRepository;
+import com.gridnine.testing.db.ShardedFlightsRepository;
+import com.gridnine.testing.enums.ExecutionMode;
+import com.gridnine.testing.enums.ExpressionType;
+import com.gridnine.testing.enums.FilterOperator;
+import com.gridnine.testing.enums.FilterStage;
+import com.gridnine.testing.enums.FlightFilterType;
+import com.gridnine.testing.enums.FlightOrdering;
+import com.gridnine.testing.filter.AdaptiveParallelism;
+import com.gridnine.testing.filter.BitmapIndex;
+import com.gridnine.testing.filter.EpochKernels;
+import com.gridnine.testing.filter.FilterBatch;
+import com.gridnine.testing.filter.FilterMetrics;
+import com.gridnine.testing.filter.FlightBitmap;
+import com.gridnine.testing.filter.FlightExpression;
+import com.gridnine.testing.interfaces.FilterMetricsListener;
+import com.gridnine.testing.interfaces.FlightColumns;
+import com.gridnine.testing.filter.FlightsFilterProcessor;
+import com.gridnine.testing.filter.LatencyHistogram;
+import com.gridnine.testing.filter.MaterializedFlightsView;
+import com.gridnine.testing.interfaces.ViewListener;
+import com.gridnine.testing.utils.FlightBuilder;
 import com.gridnine.testing.utils.FlightsFilterBuilder;
 import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -126,6 +170,32 @@ public class FilterTest {
         List<Flight> filteredFlights = flightsFilter.filter(flightList);
         assertEquals(filteredFlights.get(0), flightList.get(5));
     }
+    @Test
+    void aggregateFilterTest() {
+        long hour = Duration.ofHours(1).toSeconds();
+        FlightSummary summary = flightList.get(5).getSummary();
+        assertSame(summary, flightList.get(5).getSummary());
+        assertEquals(2, summary.getGroundTimeCount());
+        assertEquals(2 * hour, summary.getGroundTime(1));
+        assertEquals(3 * hour, summary.getTotalGroundTime());
+        assertEquals(7 * hour, summary.getDuration());
+        assertFalse(flightList.get(3).getSummary().isValid());
+
+        Map<FlightsFilter, int[]> expectedIds = Map.of(
+                new FlightsFilterBuilder().totalIdle().gte(3 * hour).build(), new int[]{4, 5},
+                new FlightsFilterBuilder().maxIdle().lt(2 * hour).duration().gt(0).build(), new int[]{0, 1, 2},
+                new FlightsFilterBuilder().duration().lte(6 * hour).removeInvalidFlights().build(), new int[]{0, 1, 4},
+                new FlightsFilterBuilder().maxIdle().eq(2 * hour).idle().eq(hour).arrival().gte(threeDaysFromNowTime + 5 * hour).build(), new int[]{5});
+        FlightTable flightTable = FlightTable.of(flightList);
+        for (Map.Entry<FlightsFilter, int[]> entry : expectedIds.entrySet()) {
+            List<Flight> expectedFlights = Arrays.stream(entry.getValue()).mapToObj(flightList::get).collect(Collectors.toList());
+            assertEquals(expectedFlights, entry.getKey().filter(flightList));
+            assertArrayEquals(entry.getValue(), entry.getKey().filterIndices(flightTable));
+        }
+        assertEquals(new FlightsFilterBuilder().totalIdle().gte(3 * hour).build(),
+                new FlightsFilterBuilder().maxIdle().totalIdle().gte(3 * hour).build());
+    }
+
     @Test
     void removeOnlyInvalidFlightsTest(){
         FlightsFilter flightsFilter = new FlightsFilterBuilder().removeInvalidFlights().build();
@@ -133,6 +203,661 @@ public class FilterTest {
         assertFalse(filteredFlightList.contains(flightList.get(3)));
     }
 
+    @Test
+    void removeInvalidFlightsWithConditionsTest() {
+        long departureTime = threeDaysFromNowTime - Duration.ofHours(2).toSeconds();
+        FlightsFilter flightsFilter = new FlightsFilterBuilder().departure().eq(departureTime).removeInvalidFlights().build();
+        List<Flight> filteredFlights = flightsFilter.filter(flightList);
+        assertEquals(List.of(flightList.get(0), flightList.get(1), flightList.get(4), flightList.get(5)), filteredFlights);
+
+        flightsFilter = new FlightsFilterBuilder().idle().gte(Duration.ofHours(2).toSeconds()).removeInvalidFlights().build();
+        filteredFlights = flightsFilter.filter(flightList);
+        assertEquals(List.of(flightList.get(4), flightList.get(5)), filteredFlights);
+    }
+
+    @Test
+    void flightTableFilterTest() {
+        FlightTable flightTable = FlightTable.of(flightList);
+        assertEquals(flightList.size(), flightTable.getFlightCount());
+        assertEquals(10, flightTable.getSegmentCount());
+
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .arrival().gt(threeDaysFromNowTime)
+                .idle().gte(Duration.ofHours(2).toSeconds())
+                .build();
+        assertArrayEquals(new int[]{4, 5}, flightsFilter.filterIndices(flightTable));
+        assertArrayEquals(new int[]{4, 5}, flightsFilter.doParallel().filterIndices(flightTable));
+
+        flightsFilter = new FlightsFilterBuilder().removeInvalidFlights().build();
+        assertArrayEquals(new int[]{0, 1, 2, 4, 5}, flightsFilter.filterIndices(flightTable));
+    }
+
+    @Test
+    void timeIndexFilterTest() {
+        FlightsRepository repository = new FlightsRepository();
+        List<Flight> repositoryFlights = repository.getAll();
+        long departureTime = repositoryFlights.get(0).getSegments().get(0).getDepartureDate().toEpochSecond(ZoneOffset.UTC);
+        List<FlightsFilter> flightsFilters = List.of(
+                new FlightsFilterBuilder().arrival().gte(departureTime + Duration.ofHours(6).toSeconds()).lte(departureTime + Duration.ofHours(2).toSeconds()).build(),
+                new FlightsFilterBuilder().arrival().gt(departureTime + Duration.ofHours(3).toSeconds()).lt(departureTime + Duration.ofHours(5).toSeconds()).build(),
+                new FlightsFilterBuilder().departure().eq(departureTime).idle().gte(Duration.ofHours(2).toSeconds()).build(),
+                new FlightsFilterBuilder().departure().gt(departureTime + Duration.ofDays(1).toSeconds()).build(),
+                new FlightsFilterBuilder().removeInvalidFlights().build());
+        List<List<Flight>> scanResults = new ArrayList<>();
+        for (FlightsFilter flightsFilter : flightsFilters) {
+            scanResults.add(flightsFilter.filter(repository));
+        }
+        assertEquals(List.of(repositoryFlights.get(4), repositoryFlights.get(5)), scanResults.get(0));
+
+        FlightTimeIndex timeIndex = repository.createTimeIndex();
+        assertSame(timeIndex, repository.getTimeIndex());
+        for (int i = 0; i < flightsFilters.size(); i++) {
+            assertEquals(scanResults.get(i), flightsFilters.get(i).filter(repository));
+        }
+        BitSet candidates = timeIndex.getCandidates(FlightFilterType.ARRIVAL, departureTime + Duration.ofHours(6).toSeconds(), departureTime + Duration.ofHours(2).toSeconds());
+        assertTrue(candidates.get(4) && candidates.get(5));
+        assertFalse(candidates.get(2) || candidates.get(3));
+        assertTrue(timeIndex.countCandidates(FlightFilterType.ARRIVAL, departureTime + Duration.ofHours(6).toSeconds(), departureTime + Duration.ofHours(2).toSeconds()) >= candidates.cardinality());
+        assertTrue(timeIndex.getCandidates(FlightFilterType.DEPARTURE, departureTime + Duration.ofDays(1).toSeconds(), Long.MAX_VALUE).isEmpty());
+
+        // one flight spanning the whole schedule does not widen the search for the other flights
+        LocalDateTime startTime = LocalDateTime.of(2024, 1, 1, 0, 0);
+        List<Flight> schedule = new ArrayList<>(FlightBuilder.createFlights(startTime, 3000, 3, 11));
+        Flight longFlight = new Flight(List.of(new Segment(startTime, startTime.plusHours(2)),
+                new Segment(startTime.plusDays(29), startTime.plusDays(29).plusHours(2))));
+        schedule.add(longFlight);
+        FlightTimeIndex scheduleIndex = new FlightTimeIndex(schedule);
+        long windowStart = startTime.plusDays(15).toEpochSecond(ZoneOffset.UTC);
+        long windowEnd = windowStart + Duration.ofHours(1).toSeconds();
+        FlightsFilter windowFilter = new FlightsFilterBuilder().arrival().gte(windowStart).lte(windowEnd).build();
+        assertTrue(scheduleIndex.countCandidates(FlightFilterType.ARRIVAL, windowStart, windowEnd) < schedule.size() / 8);
+        List<Flight> windowFlights = scheduleIndex.filter(windowFilter);
+        assertEquals(windowFilter.filter(schedule), windowFlights);
+        assertTrue(windowFlights.contains(longFlight));
+    }
+
+    @Test
+    void epochKernelTest() {
+        Random random = new Random(17);
+        long[] values = random.longs(1000, -50, 50).toArray();
+        long[] otherValues = random.longs(1000, -50, 50).toArray();
+        long[] expectedMask = new long[16];
+        long[] mask = new long[16];
+        for (int[] range : new int[][]{{0, 1000}, {3, 3}, {5, 70}, {63, 130}, {999, 1000}}) {
+            for (FilterOperator operator : FilterOperator.values()) {
+                EpochKernels.scalar().compare(operator, values, range[0], range[1], 7, expectedMask);
+                EpochKernels.getDefault().compare(operator, values, range[0], range[1], 7, mask);
+                assertArrayEquals(expectedMask, mask);
+                for (int i = range[0]; i < range[1]; i++) {
+                    assertEquals(operator.test(values[i], 7), (mask[(i - range[0]) >>> 6] & (1L << (i - range[0]))) != 0);
+                }
+            }
+            EpochKernels.scalar().lessThan(values, otherValues, range[0], range[1], expectedMask);
+            EpochKernels.getDefault().lessThan(values, otherValues, range[0], range[1], mask);
+            assertArrayEquals(expectedMask, mask);
+        }
+
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 30000, 6, 23);
+        FlightTable flightTable = FlightTable.of(flights);
+        FlightColumns flightColumns = new FlightColumns() {
+            @Override
+            public int getFlightCount() {
+                return flightTable.getFlightCount();
+            }
+
+            @Override
+            public int getSegmentCount() {
+                return flightTable.getSegmentCount();
+            }
+
+            @Override
+            public int getSegmentStart(int flightIndex) {
+                return flightTable.getSegmentStart(flightIndex);
+            }
+
+            @Override
+            public int getSegmentEnd(int flightIndex) {
+                return flightTable.getSegmentEnd(flightIndex);
+            }
+
+            @Override
+            public long getDepartureEpoch(int segmentIndex) {
+                return flightTable.getDepartureEpoch(segmentIndex);
+            }
+
+            @Override
+            public long getArrivalEpoch(int segmentIndex) {
+                return flightTable.getArrivalEpoch(segmentIndex);
+            }
+        };
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .arrival().gte(LocalDateTime.of(2024, 1, 5, 0, 0).toEpochSecond(ZoneOffset.UTC)).lt(LocalDateTime.of(2024, 1, 25, 0, 0).toEpochSecond(ZoneOffset.UTC))
+                .departure().lte(LocalDateTime.of(2024, 1, 20, 0, 0).toEpochSecond(ZoneOffset.UTC))
+                .idle().gt(Duration.ofHours(3).toSeconds())
+                .maxIdle().lt(Duration.ofHours(5).toSeconds())
+                .removeInvalidFlights()
+                .build();
+        int[] expectedIndices = flightsFilter.filterIndices(flightColumns);
+        assertTrue(expectedIndices.length > 0);
+        assertArrayEquals(expectedIndices, flightsFilter.filterIndices(flightTable));
+        assertArrayEquals(expectedIndices, flightsFilter.withKernel(EpochKernels.scalar()).filterIndices(flightTable));
+        assertArrayEquals(expectedIndices, flightsFilter.doParallel().filterIndices(flightTable));
+        assertEquals(flightsFilter.filter(flights), Arrays.stream(expectedIndices).mapToObj(flights::get).collect(Collectors.toList()));
+    }
+
+    @Test
+    void bitmapFilterTest() {
+        FlightBitmap odd = FlightBitmap.of(130, IntStream.range(0, 130).filter(i -> i % 2 == 1).toArray());
+        FlightBitmap low = FlightBitmap.of(130, IntStream.range(0, 70).toArray());
+        assertEquals(65, odd.cardinality());
+        assertEquals(FlightBitmap.full(130), odd.or(odd.not()));
+        assertEquals(FlightBitmap.empty(130), odd.and(odd.not()));
+        assertArrayEquals(IntStream.range(0, 70).filter(i -> i % 2 == 0).toArray(), low.andNot(odd).toIndices());
+        assertEquals(130 - 35, odd.and(low).not().cardinality());
+
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 20000, 4, 31);
+        FlightTable flightTable = FlightTable.of(flights);
+        long windowStart = LocalDateTime.of(2024, 1, 10, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        BitmapIndex bitmapIndex = new BitmapIndex(flightTable);
+        FlightsFilter firstFilter = new FlightsFilterBuilder()
+                .departure().gte(windowStart)
+                .idle().gt(Duration.ofHours(2).toSeconds())
+                .removeInvalidFlights()
+                .build();
+        FlightsFilter secondFilter = new FlightsFilterBuilder()
+                .departure().gte(windowStart)
+                .duration().lt(Duration.ofHours(10).toSeconds())
+                .removeInvalidFlights()
+                .build();
+        for (FlightsFilter flightsFilter : List.of(firstFilter, secondFilter)) {
+            FlightBitmap bitmap = bitmapIndex.filter(flightsFilter);
+            assertArrayEquals(flightsFilter.filterIndices(flightTable), bitmap.toIndices());
+            assertEquals(flightsFilter.filter(flights), bitmap.select(flights));
+        }
+        assertEquals(4, bitmapIndex.size());
+        assertEquals(2, bitmapIndex.getHitCount());
+        FlightBitmap either = bitmapIndex.filter(firstFilter).or(bitmapIndex.filter(secondFilter));
+        assertEquals(flights.stream().filter(flight -> firstFilter.filter(List.of(flight)).size() + secondFilter.filter(List.of(flight)).size() > 0).count(),
+                either.cardinality());
+    }
+
+    @Test
+    void expressionFilterTest() {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 20000, 4, 17);
+        long firstWindow = LocalDateTime.of(2024, 1, 5, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        long secondWindow = LocalDateTime.of(2024, 1, 20, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        long day = Duration.ofDays(1).toSeconds();
+        FlightsFilter firstDay = new FlightsFilterBuilder().departure().gte(firstWindow).lt(firstWindow + day).build();
+        FlightsFilter secondDay = new FlightsFilterBuilder().departure().gte(secondWindow).lt(secondWindow + day).build();
+        FlightsFilter longIdle = new FlightsFilterBuilder().idle().gt(Duration.ofHours(2).toSeconds()).build();
+        FlightsFilter eitherDayWithoutLongIdle = new FlightsFilterBuilder()
+                .departure().gte(firstWindow).lt(firstWindow + day)
+                .or()
+                .departure().gte(secondWindow).lt(secondWindow + day)
+                .where(FlightExpression.not(FlightExpression.of(longIdle)))
+                .removeInvalidFlights()
+                .build();
+        List<Flight> expected = flights.stream()
+                .filter(flight -> !firstDay.filter(List.of(flight)).isEmpty() || !secondDay.filter(List.of(flight)).isEmpty())
+                .filter(flight -> longIdle.filter(List.of(flight)).isEmpty())
+                .filter(flight -> flight.getSummary().isValid())
+                .collect(Collectors.toList());
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, eitherDayWithoutLongIdle.filter(flights));
+        assertEquals(expected, eitherDayWithoutLongIdle.doParallel().filter(flights));
+        assertEquals(expected, eitherDayWithoutLongIdle.filter(flights.stream()).collect(Collectors.toList()));
+        FlightTable flightTable = FlightTable.of(flights);
+        assertEquals(expected, FlightBitmap.of(flights.size(), eitherDayWithoutLongIdle.filterIndices(flightTable)).select(flights));
+        assertEquals(expected, new BitmapIndex(flightTable).filter(eitherDayWithoutLongIdle).select(flights));
+        ShardedFlightsRepository shardedRepository = ShardedFlightsRepository.byDepartureDay(flights);
+        assertEquals(eitherDayWithoutLongIdle.filter(shardedRepository.getAll()), eitherDayWithoutLongIdle.filter(shardedRepository));
+        List<Boolean> parallelCalls = new ArrayList<>();
+        FlightsFilter measuredFilter = eitherDayWithoutLongIdle.withMetrics(new FilterMetricsListener() {
+            @Override
+            public void onExecution(ExecutionMode executionMode, boolean parallel, int flightCount, long durationNanos) {
+                parallelCalls.add(parallel);
+            }
+        });
+        assertEquals(eitherDayWithoutLongIdle.filter(shardedRepository), measuredFilter.filter(shardedRepository, ExecutionMode.PARALLEL));
+        assertEquals(List.of(true), parallelCalls);
+        FlightsRepository indexedRepository = new FlightsRepository();
+        long departureTime = indexedRepository.getAll().get(0).getSegments().get(0).getDepartureDate().toEpochSecond(ZoneOffset.UTC);
+        FlightsFilter twoWindows = new FlightsFilterBuilder()
+                .departure().lt(departureTime - Duration.ofDays(1).toSeconds())
+                .or()
+                .departure().eq(departureTime).idle().gte(Duration.ofHours(2).toSeconds())
+                .build();
+        List<Flight> scanResult = twoWindows.filter(indexedRepository.getAll());
+        indexedRepository.createTimeIndex();
+        assertEquals(scanResult, twoWindows.filter(indexedRepository));
+
+        // the planner checks the cheap and selective operands first, planning never changes the result
+        FlightsFilter validOnly = new FlightsFilterBuilder().removeInvalidFlights().build();
+        FlightExpression expression = FlightExpression.and(FlightExpression.of(longIdle), FlightExpression.of(firstDay), FlightExpression.of(validOnly));
+        assertEquals(ExpressionType.AND, expression.getType());
+        assertEquals(validOnly, expression.getOperands().get(2).getConditions());
+        FlightsFilter expressionFilter = new FlightsFilterBuilder().where(expression).build();
+        FlightsFilter plannedFilter = expressionFilter.plan(flights.subList(0, 1000));
+        assertEquals(firstDay, plannedFilter.getExpression().getOperands().get(0).getConditions());
+        assertEquals(expressionFilter.filter(flights), plannedFilter.filter(flights));
+        // operands are compared as multisets, so a planned filter still hits the caches of the original one
+        assertNotEquals(expression.getOperands(), plannedFilter.getExpression().getOperands());
+        assertEquals(expressionFilter, plannedFilter);
+        assertEquals(expressionFilter.hashCode(), plannedFilter.hashCode());
+        assertEquals(expression, FlightExpression.and(FlightExpression.of(validOnly), FlightExpression.of(longIdle), FlightExpression.of(firstDay)));
+        assertNotEquals(expression, FlightExpression.and(FlightExpression.of(longIdle), FlightExpression.of(firstDay), FlightExpression.of(longIdle)));
+
+        assertThrows(IllegalStateException.class, () -> new FlightsFilterBuilder().arrival().gte(firstWindow).or().build());
+    }
+
+    @Test
+    void pagedFilterTest() {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 20000, 4, 23);
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .idle().gt(Duration.ofHours(1).toSeconds())
+                .removeInvalidFlights()
+                .build();
+        List<Flight> allMatches = flightsFilter.filter(flights);
+        assertEquals(allMatches.subList(10, 60), flightsFilter.filter(flights, 50, 10, FlightOrdering.INPUT));
+        assertEquals(allMatches.subList(10, 60), flightsFilter.filter(flights, 50, 10, FlightOrdering.INPUT, ExecutionMode.PARALLEL));
+        for (FlightOrdering ordering : List.of(FlightOrdering.DEPARTURE, FlightOrdering.ARRIVAL, FlightOrdering.TOTAL_GROUND_TIME)) {
+            List<Flight> sorted = allMatches.stream()
+                    .sorted(Comparator.comparingLong(flight -> ordering.getKey(flight.getSummary())))
+                    .collect(Collectors.toList());
+            assertEquals(sorted.subList(0, 50), flightsFilter.filter(flights, 50, 0, ordering));
+            assertEquals(sorted.subList(100, 150), flightsFilter.filter(flights, 50, 100, ordering, ExecutionMode.PARALLEL));
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            try {
+                assertEquals(sorted.subList(100, 150), flightsFilter.withExecutor(executor).filter(flights, 50, 100, ordering, ExecutionMode.PARALLEL));
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(sorted, flightsFilter.filter(flights, Integer.MAX_VALUE, 0, ordering));
+        }
+        assertTrue(flightsFilter.filter(flights, 0, 5, FlightOrdering.DEPARTURE).isEmpty());
+        assertTrue(flightsFilter.filter(flights, 10, allMatches.size(), FlightOrdering.ARRIVAL).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> flightsFilter.filter(flights, -1, 0, FlightOrdering.INPUT));
+    }
+
+    @Test
+    void filterMetricsTest() {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 20000, 4, 29);
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .departure().gte(LocalDateTime.of(2024, 1, 10, 0, 0).toEpochSecond(ZoneOffset.UTC))
+                .idle().gt(Duration.ofHours(1).toSeconds())
+                .removeInvalidFlights()
+                .build();
+        assertSame(FilterMetricsListener.NO_OP, flightsFilter.getMetricsListener());
+        FilterMetrics metrics = new FilterMetrics();
+        FlightsFilter measuredFilter = flightsFilter.withMetrics(metrics);
+        List<Flight> expected = flightsFilter.filter(flights);
+        assertEquals(expected, measuredFilter.filter(flights));
+        assertEquals(expected, measuredFilter.filter(flights, ExecutionMode.PARALLEL));
+        assertEquals(2L * flights.size(), metrics.getInputCount(FilterStage.INVALID));
+        assertEquals(metrics.getOutputCount(FilterStage.INVALID), metrics.getInputCount(FilterStage.IDLE));
+        assertEquals(metrics.getOutputCount(FilterStage.IDLE), metrics.getInputCount(FilterStage.DEPARTURE));
+        assertEquals(2L * expected.size(), metrics.getOutputCount(FilterStage.DEPARTURE));
+        assertEquals(0, metrics.getInputCount(FilterStage.ARRIVAL));
+        assertTrue(Double.isNaN(metrics.getSelectivity(FilterStage.ARRIVAL)));
+        assertTrue(metrics.getSelectivity(FilterStage.IDLE) > 0 && metrics.getSelectivity(FilterStage.IDLE) < 1);
+        assertEquals(2, metrics.getStageDurations(FilterStage.DEPARTURE).getCount());
+        assertEquals(1, metrics.getCallDurations(false).getCount());
+        assertEquals(1, metrics.getCallDurations(true).getCount());
+        assertEquals(flights.size(), metrics.getFlightCount(true));
+        measuredFilter.filterIndices(FlightTable.of(flights));
+        assertEquals(2, metrics.getCallDurations(false).getCount());
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        IntStream.rangeClosed(1, 100000).parallel().forEach(histogram::record);
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000, histogram.getMax());
+        assertEquals(50000.5, histogram.getMean(), 1e-9);
+        assertEquals(50000, histogram.getValueAtPercentile(50), 50000 * 0.0625);
+        assertEquals(99000, histogram.getValueAtPercentile(99), 99000 * 0.0625);
+        assertEquals(100000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void reusableBufferFilterTest() {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 5000, 4, 37);
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .idle().gt(Duration.ofHours(1).toSeconds())
+                .removeInvalidFlights()
+                .build();
+        List<Flight> expected = flightsFilter.filter(flights);
+        List<Flight> flightBuffer = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            flightBuffer.clear();
+            assertEquals(expected.size(), flightsFilter.filterInto(flights, flightBuffer));
+            assertEquals(expected, flightBuffer);
+        }
+        int[] indexBuffer = new int[flights.size()];
+        int count = flightsFilter.filterIndices(flights, indexBuffer);
+        assertEquals(expected.size(), count);
+        assertArrayEquals(flightsFilter.filterIndices(FlightTable.of(flights)), Arrays.copyOf(indexBuffer, count));
+        assertEquals(count, flightsFilter.filterIndices(FlightTable.of(flights), 0, flights.size(), indexBuffer));
+
+        // a small buffer is filled page by page
+        int[] pageBuffer = new int[7];
+        List<Flight> paged = new ArrayList<>();
+        int from = 0;
+        int written;
+        do {
+            written = flightsFilter.filterIndices(flights, from, flights.size(), pageBuffer);
+            for (int i = 0; i < written; i++) {
+                paged.add(flights.get(pageBuffer[i]));
+            }
+            from = written == 0 ? flights.size() : pageBuffer[written - 1] + 1;
+        } while (written == pageBuffer.length);
+        assertEquals(expected, paged);
+
+        // other lists are iterated, the metrics count the flights checked until the buffer is full
+        FilterMetrics metrics = new FilterMetrics();
+        FlightsFilter measuredFilter = flightsFilter.withMetrics(metrics);
+        int[] expectedPage = new int[pageBuffer.length];
+        assertEquals(pageBuffer.length, flightsFilter.filterIndices(flights, 1, flights.size(), expectedPage));
+        assertEquals(pageBuffer.length, measuredFilter.filterIndices(new LinkedList<>(flights), 1, flights.size(), pageBuffer));
+        assertArrayEquals(expectedPage, pageBuffer);
+        assertEquals(pageBuffer[pageBuffer.length - 1], metrics.getFlightCount(false));
+        assertEquals(pageBuffer.length, measuredFilter.filterIndices(FlightTable.of(flights), 1, flights.size(), pageBuffer));
+        assertEquals(2L * pageBuffer[pageBuffer.length - 1], metrics.getFlightCount(false));
+    }
+
+    @Test
+    void specializedFilterTest() {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 5000, 4, 41);
+        long from = LocalDateTime.of(2024, 1, 5, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        long to = LocalDateTime.of(2024, 1, 20, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        List<FlightsFilter> flightsFilters = List.of(
+                new FlightsFilterBuilder().removeInvalidFlights().build(),
+                new FlightsFilterBuilder().arrival().gte(from).lt(to).departure().lte(to).build(),
+                new FlightsFilterBuilder().departure().eq(from).or().arrival().gt(to).build(),
+                new FlightsFilterBuilder().idle().gt(Duration.ofHours(1).toSeconds()).lte(Duration.ofHours(5).toSeconds())
+                        .maxIdle().lt(Duration.ofHours(8).toSeconds()).duration().gte(Duration.ofHours(3).toSeconds())
+                        .removeInvalidFlights().build(),
+                new FlightsFilterBuilder().totalIdle().eq(0).build(),
+                new FlightsFilterBuilder().departure().gte(from)
+                        .where(FlightExpression.not(FlightExpression.of(new FlightsFilterBuilder().idle().gte(Duration.ofHours(2).toSeconds()).build())))
+                        .build());
+        for (FlightsFilter flightsFilter : flightsFilters) {
+            FlightsFilter specializedFilter = flightsFilter.specialize();
+            assertTrue(specializedFilter.isSpecialized());
+            assertFalse(flightsFilter.isSpecialized());
+            assertSame(specializedFilter, specializedFilter.specialize());
+            assertEquals(flightsFilter, specializedFilter);
+            List<Flight> expected = flightsFilter.filter(flights);
+            assertEquals(expected, specializedFilter.filter(flights));
+            assertEquals(expected, specializedFilter.doParallel().filter(flights));
+            assertEquals(expected, specializedFilter.filter(flights.stream()).collect(Collectors.toList()));
+        }
+        FlightsFilter builtFilter = new FlightsFilterBuilder().arrival().gte(from).specialized().build();
+        assertTrue(builtFilter.isSpecialized());
+        assertTrue(builtFilter.plan(flights).isSpecialized());
+    }
+
+    @Test
+    void batchFilterTest() {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 10000, 4, 43);
+        long from = LocalDateTime.of(2024, 1, 5, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        List<FlightsFilter> flightsFilters = List.of(
+                new FlightsFilterBuilder().arrival().gte(from).build(),
+                new FlightsFilterBuilder().idle().gt(Duration.ofHours(2).toSeconds()).removeInvalidFlights().build(),
+                new FlightsFilterBuilder().maxIdle().lt(Duration.ofHours(3).toSeconds()).departure().lt(from).build(),
+                new FlightsFilterBuilder().departure().lt(from).or().idle().eq(0).build(),
+                new FlightsFilterBuilder().arrival().gte(from).build().doParallel());
+        FilterBatch filterBatch = new FilterBatch(flightsFilters);
+        assertEquals(flightsFilters, filterBatch.getFilters());
+        FlightTable flightTable = FlightTable.of(flights);
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            List<List<Flight>> results = filterBatch.filter(flights, mode);
+            int[][] indices = filterBatch.filterIndices(flightTable, mode);
+            assertEquals(flightsFilters.size(), results.size());
+            for (int i = 0; i < flightsFilters.size(); i++) {
+                assertEquals(flightsFilters.get(i).filter(flights), results.get(i));
+                assertArrayEquals(flightsFilters.get(i).filterIndices(flightTable), indices[i]);
+            }
+            // equal filters share the evaluation, not the result list
+            assertNotSame(results.get(0), results.get(4));
+        }
+        assertTrue(new FilterBatch(List.of()).filter(flights).isEmpty());
+        assertEquals(List.of(List.of()), new FilterBatch(flightsFilters.subList(0, 1)).filter(List.of()));
+    }
+
+    @Test
+    void adaptiveExecutionTest() throws InterruptedException {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 10000, 3, 7);
+        FlightsFilter flightsFilter = new FlightsFilterBuilder()
+                .departure().gte(LocalDateTime.of(2024, 1, 10, 0, 0).toEpochSecond(ZoneOffset.UTC))
+                .idle().gt(Duration.ofHours(2).toSeconds())
+                .build();
+        List<Flight> expectedFlights = flightsFilter.filter(flights);
+        int[] expectedIndices = flightsFilter.filterIndices(FlightTable.of(flights));
+        assertFalse(expectedFlights.isEmpty());
+
+        AdaptiveParallelism sequentialCalibration = new AdaptiveParallelism(Long.MAX_VALUE);
+        FlightsFilter adaptiveFilter = flightsFilter.doAdaptive(sequentialCalibration);
+        assertEquals(expectedFlights, adaptiveFilter.filter(flights));
+        assertEquals(ExecutionMode.ADAPTIVE, adaptiveFilter.getExecutionMode());
+        assertFalse(sequentialCalibration.isParallel(flights.size()));
+        assertTrue(sequentialCalibration.getFlightCostNanos() > 0);
+
+        AdaptiveParallelism parallelCalibration = new AdaptiveParallelism(0);
+        assertTrue(parallelCalibration.isParallel(1));
+        assertEquals(expectedFlights, flightsFilter.doAdaptive(parallelCalibration).filter(flights));
+
+        // one slow measurement makes the calls parallel, the sequential samples bring the estimate back down
+        AdaptiveParallelism recoveringCalibration = new AdaptiveParallelism();
+        recoveringCalibration.record(1000, 1000 * 1000L);
+        assertTrue(recoveringCalibration.isParallel(10000));
+        assertEquals(2, IntStream.range(0, 64).filter(i -> recoveringCalibration.getSampleFlightCount(10000) > 0).count());
+        assertEquals(0, IntStream.range(0, 64).map(i -> recoveringCalibration.getSampleFlightCount(50)).sum());
+        for (int i = 0; i < 30; i++) {
+            recoveringCalibration.record(1000, 1000);
+        }
+        assertFalse(recoveringCalibration.isParallel(10000));
+
+        // a sample measures a bounded prefix sequentially and filters the rest in parallel
+        // a millisecond per flight, far above the cost of a sample even in the interpreter
+        AdaptiveParallelism sampledCalibration = new AdaptiveParallelism();
+        sampledCalibration.record(1000, 1000 * 1000 * 1000L);
+        double inflatedCost = sampledCalibration.getFlightCostNanos();
+        FlightsFilter sampledFilter = flightsFilter.doAdaptive(sampledCalibration);
+        for (int i = 0; i < 32; i++) {
+            assertEquals(expectedFlights, sampledFilter.filter(flights));
+        }
+        assertTrue(sampledCalibration.getFlightCostNanos() < inflatedCost);
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+        ExecutorService executorService = Executors.newFixedThreadPool(3);
+        try {
+            FlightsFilter poolFilter = flightsFilter.doParallel().withExecutor(forkJoinPool);
+            assertEquals(expectedFlights, poolFilter.filter(flights));
+            assertArrayEquals(expectedIndices, poolFilter.filterIndices(FlightTable.of(flights)));
+            FlightsFilter executorFilter = flightsFilter.doParallel().withExecutor(executorService);
+            assertEquals(expectedFlights, executorFilter.filter(flights));
+            assertArrayEquals(expectedIndices, executorFilter.filterIndices(FlightTable.of(flights)));
+        } finally {
+            forkJoinPool.shutdown();
+            executorService.shutdown();
+        }
+        assertTrue(executorService.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void immutableFilterTest() throws Exception {
+        FlightsFilterBuilder builder = new FlightsFilterBuilder().arrival().gt(threeDaysFromNowTime);
+        FlightsFilter flightsFilter = builder.build();
+        builder.lt(threeDaysFromNowTime).removeInvalidFlights();
+        assertEquals(3, flightsFilter.filter(flightList).size());
+        assertEquals(Map.of(FilterOperator.GT, threeDaysFromNowTime), flightsFilter.getArrivalStatementsMap());
+        assertTrue(flightsFilter.isAllowInvalidFlights());
+        assertThrows(UnsupportedOperationException.class, () -> flightsFilter.getArrivalStatementsMap().clear());
+
+        FlightsFilter parallelFilter = flightsFilter.doParallel();
+        assertNotSame(flightsFilter, parallelFilter);
+        assertEquals(ExecutionMode.SEQUENTIAL, flightsFilter.getExecutionMode());
+        assertEquals(ExecutionMode.PARALLEL, parallelFilter.getExecutionMode());
+        assertEquals(flightsFilter.filter(flightList), flightsFilter.filter(flightList, ExecutionMode.PARALLEL));
+
+        List<Flight> expectedFlights = flightsFilter.filter(flightList);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<List<Flight>>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                FlightsFilter sharedFilter = i % 2 == 0 ? flightsFilter : parallelFilter;
+                results.add(executorService.submit(() -> sharedFilter.filter(flightList)));
+            }
+            for (Future<List<Flight>> result : results) {
+                assertEquals(expectedFlights, result.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    void streamingFilterTest() {
+        FlightsFilter flightsFilter = new FlightsFilterBuilder().arrival().gt(threeDaysFromNowTime).build();
+        List<Flight> expectedFlights = flightsFilter.filter(flightList);
+        assertEquals(expectedFlights, flightsFilter.filter(flightList.stream()).collect(Collectors.toList()));
+        assertEquals(expectedFlights, StreamSupport.stream(flightsFilter.filter(flightList.spliterator()), true).collect(Collectors.toList()));
+        List<Flight> iteratedFlights = new ArrayList<>();
+        flightsFilter.filter(flightList.iterator()).forEachRemaining(iteratedFlights::add);
+        assertEquals(expectedFlights, iteratedFlights);
+
+        AtomicInteger readFlights = new AtomicInteger();
+        Stream<Flight> endlessFlights = Stream.iterate(0, i -> i + 1)
+                .peek(i -> readFlights.incrementAndGet())
+                .map(i -> flightList.get(i % flightList.size()));
+        assertEquals(expectedFlights, flightsFilter.filter(endlessFlights).limit(expectedFlights.size()).collect(Collectors.toList()));
+        assertEquals(flightList.size(), readFlights.get());
+
+        Stream<Flight> endlessInvalidFlights = Stream.concat(Stream.of(flightList.get(3), flightList.get(2)), Stream.generate(() -> flightList.get(3)));
+        Flight firstValidFlight = new FlightsFilterBuilder().removeInvalidFlights().build().filter(endlessInvalidFlights).findFirst().orElseThrow();
+        assertSame(flightList.get(2), firstValidFlight);
+    }
+
+    @Test
+    void processorFilterTest() throws Exception {
+        List<Flight> flights = FlightBuilder.createFlights(LocalDateTime.of(2024, 1, 1, 0, 0), 100000, 3, 11);
+        FlightsFilter flightsFilter = new FlightsFilterBuilder().idle().gt(Duration.ofHours(2).toSeconds()).removeInvalidFlights().build();
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals(flightsFilter.filter(flights), processFlights(flights, flightsFilter, executorService, 256, 64));
+        } finally {
+            executorService.shutdown();
+        }
+        // the upstream and the processor share one thread, a full buffer must not block it
+        ExecutorService singleThread = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(flightsFilter.filter(flights), processFlights(flights, flightsFilter, singleThread, 16, 64));
+        } finally {
+            singleThread.shutdown();
+        }
+    }
+
+    private static List<Flight> processFlights(List<Flight> flights, FlightsFilter flightsFilter, ExecutorService executorService, int bufferCapacity, int batchSize) throws Exception {
+        List<Flight> receivedFlights = new ArrayList<>();
+        CompletableFuture<Void> completion;
+        try (SubmissionPublisher<Flight> source = new SubmissionPublisher<>(executorService, bufferCapacity)) {
+            FlightsFilterProcessor processor = new FlightsFilterProcessor(flightsFilter, executorService, bufferCapacity, batchSize);
+            source.subscribe(processor);
+            completion = processor.consume(receivedFlights::add);
+            flights.forEach(source::submit);
+        }
+        completion.get(30, TimeUnit.SECONDS);
+        return receivedFlights;
+    }
+
+    @Test
+    void materializedViewTest() {
+        FlightsRepository repository = new FlightsRepository();
+        List<Flight> repositoryFlights = new ArrayList<>(repository.getAll());
+        FlightsFilter flightsFilter = new FlightsFilterBuilder().idle().gte(Duration.ofHours(2).toSeconds()).build();
+        List<String> changeFeed = new ArrayList<>();
+        try (MaterializedFlightsView view = new MaterializedFlightsView(flightsFilter, repository)) {
+            view.addViewListener(new ViewListener<>() {
+                @Override
+                public void onEnter(Flight flight) {
+                    changeFeed.add("enter " + flight);
+                }
+
+                @Override
+                public void onLeave(Flight flight) {
+                    changeFeed.add("leave " + flight);
+                }
+            });
+            assertEquals(List.of(repositoryFlights.get(4), repositoryFlights.get(5)), view.getResult());
+            repository.createTimeIndex();
+
+            Flight insertedFlight = new Flight(repositoryFlights.get(4).getSegments());
+            repository.insert(insertedFlight);
+            repository.insert(new Flight(repositoryFlights.get(0).getSegments()));
+            assertNull(repository.getTimeIndex());
+            assertTrue(repository.update(repositoryFlights.get(5), new Flight(repositoryFlights.get(1).getSegments())));
+            assertTrue(repository.update(repositoryFlights.get(2), new Flight(repositoryFlights.get(5).getSegments())));
+            List<Flight> snapshot = repository.getAll();
+            assertThrows(UnsupportedOperationException.class, () -> snapshot.remove(0));
+            assertThrows(IllegalArgumentException.class, () -> repository.insert(insertedFlight));
+            assertTrue(repository.delete(insertedFlight));
+            assertFalse(repository.delete(insertedFlight));
+            assertEquals(5, repository.getVersion());
+            assertTrue(snapshot.contains(insertedFlight));
+            assertFalse(repository.getAll().contains(insertedFlight));
+            assertEquals(repositoryFlights.get(0), repository.getAll().get(0));
+
+            assertEquals(flightsFilter.filter(repository.getAll()).size(), view.size());
+            assertTrue(view.getResult().containsAll(flightsFilter.filter(repository.getAll())));
+            assertEquals(List.of("enter " + insertedFlight, "leave " + repositoryFlights.get(5),
+                    "enter " + repositoryFlights.get(5), "leave " + insertedFlight), changeFeed);
+        }
+        repository.insert(new Flight(repositoryFlights.get(4).getSegments()));
+        assertEquals(4, changeFeed.size());
+
+        // deleting most flights compacts the storage, the remaining flights keep their order
+        List<Flight> remainingFlights = new ArrayList<>(repository.getAll());
+        for (Flight flight : List.of(repositoryFlights.get(0), repositoryFlights.get(1), repositoryFlights.get(3), repositoryFlights.get(4))) {
+            assertTrue(repository.delete(flight));
+            remainingFlights.remove(flight);
+        }
+        assertEquals(remainingFlights, repository.getAll());
+        Flight lastFlight = remainingFlights.get(remainingFlights.size() - 1);
+        assertTrue(repository.update(lastFlight, lastFlight));
+        assertEquals(remainingFlights, repository.getAll());
+    }
+
+    @Test
+    void materializedViewConcurrentInsertTest() throws Exception {
+        FlightsRepository repository = new FlightsRepository();
+        List<Flight> repositoryFlights = new ArrayList<>(repository.getAll());
+        FlightsFilter flightsFilter = new FlightsFilterBuilder().idle().gte(Duration.ofHours(2).toSeconds()).build();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            // views are created while another thread keeps changing the repository and notifying the views
+            AtomicInteger createdViews = new AtomicInteger();
+            Future<?> writer = executorService.submit(() -> {
+                for (int i = 0; createdViews.get() < 100; i++) {
+                    repository.insert(new Flight(repositoryFlights.get(i % repositoryFlights.size()).getSegments()));
+                }
+            });
+            List<MaterializedFlightsView> views = new ArrayList<>();
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                while (createdViews.get() < 100) {
+                    views.add(new MaterializedFlightsView(flightsFilter, repository));
+                    createdViews.incrementAndGet();
+                }
+            });
+            writer.get(30, TimeUnit.SECONDS);
+            List<Flight> expectedResult = flightsFilter.filter(repository.getAll());
+            for (MaterializedFlightsView view : views) {
+                assertEquals(expectedResult, view.getResult());
+                view.close();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
     @Test
     void wrongUsageFilterBuilderTest(){
         assertThrows(IllegalStateException.class,()->new FlightsFilterBuilder().gt(threeDaysFromNowTime).build());